@@ -0,0 +1,87 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import redis.clients.jedis.JedisPooled;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared fixture for the benchmarks: a PollManager filled with a given number of
+ * votes, spread over polls of VOTES_PER_POLL votes with two options each.
+ * Background votes have no user, so the store holds only what the paths under test need.
+ */
+final class BenchmarkData {
+    static final int VOTES_PER_POLL = 1_000;
+
+    final PollManager pollManager;
+    final User user;
+    final List<Poll> polls = new ArrayList<>();
+    final List<VoteOption> options = new ArrayList<>();
+
+    BenchmarkData(PollManager pollManager, int votes) {
+        this.pollManager = pollManager;
+        this.user = pollManager.createUser(new User("bench", "bench@example.com"));
+        int pollCount = Math.max(1, votes / VOTES_PER_POLL);
+        for (int p = 0; p < pollCount; p++) {
+            Poll poll = pollManager.createPoll(new Poll("Poll " + p, user));
+            VoteOption a = pollManager.createVoteOption(new VoteOption("A", 0, poll));
+            VoteOption b = pollManager.createVoteOption(new VoteOption("B", 1, poll));
+            polls.add(poll);
+            options.add(a);
+            options.add(b);
+        }
+        List<Vote> batch = new ArrayList<>(VoteBatchWriter.MAX_BATCH_SIZE);
+        for (int v = 0; v < votes; v++) {
+            batch.add(new Vote(null, options.get(v % options.size())));
+            if (batch.size() == VoteBatchWriter.MAX_BATCH_SIZE || v == votes - 1) {
+                pollManager.createVotes(batch);  // batched, so filling a database-backed store stays quick
+                batch = new ArrayList<>(VoteBatchWriter.MAX_BATCH_SIZE);
+            }
+        }
+    }
+
+    // A poll with its own options and votes, e.g. to be deleted by the next operation
+    Poll addPoll(User creator, int votes) {
+        Poll poll = pollManager.createPoll(new Poll("Extra", creator));
+        VoteOption option = pollManager.createVoteOption(new VoteOption("A", 0, poll));
+        for (int v = 0; v < votes; v++) {
+            pollManager.createVote(new Vote(creator, option));
+        }
+        return poll;
+    }
+
+    /**
+     * Redis for the benchmarks that need one: the server named by BENCH_REDIS (host:port) if set,
+     * otherwise an in-process FakeRedisServer (real sockets and RESP, but no real server cost).
+     * Benchmarks write poll:{id}:votes keys, so do not point BENCH_REDIS at a Redis holding real polls.
+     */
+    static final class Redis implements AutoCloseable {
+        final JedisPooled jedis;
+        private final FakeRedisServer fake;
+
+        Redis() throws IOException {
+            String target = System.getenv("BENCH_REDIS");
+            if (target != null && !target.isBlank()) {
+                String[] hostPort = target.split(":");
+                this.fake = null;
+                this.jedis = new JedisPooled(hostPort[0], Integer.parseInt(hostPort[1]));
+            } else {
+                this.fake = new FakeRedisServer();
+                this.jedis = new JedisPooled("localhost", fake.getPort());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            jedis.close();
+            if (fake != null) {
+                fake.close();
+            }
+        }
+    }
+}
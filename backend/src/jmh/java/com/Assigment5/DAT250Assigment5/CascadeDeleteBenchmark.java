@@ -0,0 +1,61 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * deletePoll and deleteUser cascades while the rest of the store holds the given number of votes.
+ * Each operation deletes a freshly created poll with VOTES_PER_TARGET votes (deleteUser: a user
+ * owning one such poll and as many votes on it); with the indexes the cost should not grow with the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CascadeDeleteBenchmark {
+    private static final int VOTES_PER_TARGET = 100;
+
+    @Param({"1000", "100000", "10000000"})
+    int votes;
+
+    private BenchmarkData data;
+    private Poll poll;
+    private User user;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new BenchmarkData(new PollManager(null), votes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        data.pollManager.close();
+    }
+
+    // Not timed: the next poll/user to delete
+    @Setup(Level.Invocation)
+    public void createTarget() {
+        user = data.pollManager.createUser(new User("target", "target@example.com"));
+        poll = data.addPoll(user, VOTES_PER_TARGET);
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeLeftovers() {
+        data.pollManager.deleteUser(user.getId());  // no-op after deleteUser
+    }
+
+    @Benchmark
+    public void deletePoll() {
+        data.pollManager.deletePoll(poll.getId());
+    }
+
+    @Benchmark
+    public void deleteUser() {
+        data.pollManager.deleteUser(user.getId());
+    }
+}
@@ -0,0 +1,72 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap the in-memory store retains per vote. Each invocation fills a fresh store with
+ * the given number of votes, cast by USERS users (so the per-user links are part of the
+ * cost), and reports the growth of the used heap after a full GC as the bytesPerVote
+ * counter. The time is only how long filling took.
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-XX:+UseParallelGC"})
+public class HeapFootprintBenchmark {
+    private static final int USERS = 1_000;
+
+    @State(Scope.Benchmark)
+    public static class Fill {
+        @Param({"1000000"})
+        int votes;
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public double bytesPerVote;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)  // the footprint hardly varies, and JMH sums the counter over iterations
+    public PollManager fill(Fill fill, Footprint footprint) {
+        long before = usedHeap();
+        PollManager pollManager = new PollManager(new InMemoryPollStore(), null);
+        BenchmarkData data = new BenchmarkData(pollManager, 0);  // polls and options only
+        for (int p = data.polls.size(); p < fill.votes / BenchmarkData.VOTES_PER_POLL; p++) {
+            data.addPoll(data.user, 0);
+        }
+        List<VoteOption> options = pollManager.getAllVoteOptions();
+        List<User> users = new ArrayList<>(USERS);
+        for (int u = 0; u < USERS; u++) {
+            users.add(pollManager.createUser(new User("user" + u, "user" + u + "@example.com")));
+        }
+        List<Vote> batch = new ArrayList<>(VoteBatchWriter.MAX_BATCH_SIZE);
+        for (int v = 0; v < fill.votes; v++) {
+            batch.add(new Vote(users.get(v % USERS), options.get(v % options.size())));
+            if (batch.size() == VoteBatchWriter.MAX_BATCH_SIZE || v == fill.votes - 1) {
+                pollManager.createVotes(batch);
+                batch = new ArrayList<>(VoteBatchWriter.MAX_BATCH_SIZE);
+            }
+        }
+        batch = null;  // only the store keeps the votes
+        footprint.bytesPerVote = (double) (usedHeap() - before) / fill.votes;
+        pollManager.close();
+        return pollManager;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
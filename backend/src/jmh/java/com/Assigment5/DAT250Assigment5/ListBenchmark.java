@@ -0,0 +1,65 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The list calls behind GET /users, /polls, /voteoptions and /votes: the full copies
+ * (getAll*) against one cursor page of 100 votes (findVotes) at the given store size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ListBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    int votes;
+
+    private BenchmarkData data;
+    private Long middleVoteId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new BenchmarkData(new PollManager(null), votes);
+        middleVoteId = (long) votes / 2;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        data.pollManager.close();
+    }
+
+    @Benchmark
+    public List<User> getAllUsers() {
+        return data.pollManager.getAllUsers();
+    }
+
+    @Benchmark
+    public List<Poll> getAllPolls() {
+        return data.pollManager.getAllPolls();
+    }
+
+    @Benchmark
+    public List<VoteOption> getAllVoteOptions() {
+        return data.pollManager.getAllVoteOptions();
+    }
+
+    @Benchmark
+    public List<Vote> getAllVotes() {
+        return data.pollManager.getAllVotes();
+    }
+
+    @Benchmark
+    public List<Vote> votesPage() {
+        return data.pollManager.findVotes(null, null, middleVoteId).limit(100).toList();
+    }
+}
@@ -0,0 +1,74 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InMemoryPollStore against JpaPollStore (H2 in memory, so the database adds no disk I/O)
+ * for single votes, batched votes and the results read, without Redis in front.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PollStoreBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"memory", "jpa"})
+    String store;
+
+    @Param({"1000", "100000"})
+    int votes;
+
+    private PollStore pollStore;
+    private BenchmarkData data;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pollStore = store.equals("jpa")
+                ? JpaPollStore.create("jdbc:h2:mem:" + UUID.randomUUID(), "sa", "", "create-drop")
+                : new InMemoryPollStore();
+        data = new BenchmarkData(new PollManager(pollStore, null), votes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        data.pollManager.close();
+        pollStore.close();
+    }
+
+    @Benchmark
+    public Vote createVote() {
+        return data.pollManager.createVote(new Vote(data.user, nextOption()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<VoteOutcome> createVotesBatch() {
+        List<Vote> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new Vote(data.user, nextOption()));
+        }
+        return data.pollManager.createVotes(batch);
+    }
+
+    @Benchmark
+    public Map<Long, Integer> voteCounts() {
+        return data.pollManager.getVoteCountsForPoll(data.polls.get(0).getId());
+    }
+
+    private VoteOption nextOption() {
+        next = (next + 1) % data.options.size();
+        return data.options.get(next);
+    }
+}
@@ -0,0 +1,95 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole backend under load: CLIENTS concurrent clients, each sending POST /votes and
+ * GET /polls/{id}/results back to back, against Tomcat's platform thread pool (200 threads,
+ * the default) or a virtual thread per request (spring.threads.virtual.enabled=true).
+ * Redis answers every command after REDIS_LATENCY (FakeRedisServer), as a remote Redis
+ * would, so requests spend most of their time blocked on Redis.
+ * Throughput gives requests per millisecond, SampleTime the latency percentiles (p0.99).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(RequestThreadsBenchmark.CLIENTS)
+public class RequestThreadsBenchmark {
+    static final int CLIENTS = 400;
+    static final Duration REDIS_LATENCY = Duration.ofMillis(2);
+
+    @Param({"false", "true"})
+    boolean virtualThreads;
+
+    private FakeRedisServer redis;
+    private ConfigurableApplicationContext app;
+    private BenchmarkData data;
+    private HttpClient client;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        redis = new FakeRedisServer();
+        app = SpringApplication.run(Dat250Assigment5Application.class,
+                "--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--spring.data.redis.port=" + redis.getPort(),
+                "--polls.redis.max-connections=" + CLIENTS,    // Redis connections are not what is compared
+                "--polls.redis.timeout-ms=5000",                // queueing for a connection is measured, not failed
+                "--polls.redis.breaker.slow-call-ms=5000",
+                "--spring.cache.type=none",                     // no L1: every results read goes to Redis
+                "--server.tomcat.accept-count=" + CLIENTS,     // queue what the pool cannot take instead of refusing it
+                "--server.tomcat.max-connections=" + CLIENTS * 2,
+                "--logging.level.root=WARN");
+        data = new BenchmarkData(app.getBean(PollManager.class), 100_000);
+        redis.setLatency(REDIS_LATENCY);
+        baseUrl = "http://localhost:" + ((WebServerApplicationContext) app).getWebServer().getPort();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        app.close();
+        redis.close();
+    }
+
+    @Benchmark
+    public int vote() throws Exception {
+        VoteOption option = data.options.get(ThreadLocalRandom.current().nextInt(data.options.size()));
+        String body = "{\"user\":{\"id\":" + data.user.getId() + "},\"voteOption\":{\"id\":" + option.getId() + "}}";
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + "/votes"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body)));
+    }
+
+    @Benchmark
+    public int readResults() throws Exception {
+        Poll poll = data.polls.get(ThreadLocalRandom.current().nextInt(data.polls.size()));
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + "/polls/" + poll.getId() + "/results")).GET());
+    }
+
+    private int send(HttpRequest.Builder request) throws Exception {
+        HttpResponse<Void> response = client.send(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("HTTP " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+}
@@ -0,0 +1,72 @@
+package com.Assigment5.DAT250Assigment5;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getVoteCountsForPoll (GET /polls/{id}/results) along its three paths:
+ * no Redis (straight from the in-memory tallies), Redis hit (HGETALL of a warm counter hash)
+ * and cold (counter missing, so the read rebuilds it under the poll lock).
+ * No L1 cache is configured, so every call reaches the path being measured.
+ * The timeline methods read GET /polls/{id}/results/timeline the same two ways; both
+ * return the poll's buckets without touching its votes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ResultsReadBenchmark {
+
+    @Param({"1000", "100000", "10000000"})
+    int votes;
+
+    private BenchmarkData.Redis redisServer;
+    private BenchmarkData withRedis;
+    private BenchmarkData withoutRedis;
+    private Long pollId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        redisServer = new BenchmarkData.Redis();
+        withRedis = new BenchmarkData(new PollManager(redisServer.jedis), votes);
+        withoutRedis = new BenchmarkData(new PollManager(null), votes);
+        pollId = withRedis.polls.get(0).getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        withRedis.pollManager.close();
+        withoutRedis.pollManager.close();
+        redisServer.close();
+    }
+
+    @Benchmark
+    public Map<Long, Integer> noRedis() {
+        return withoutRedis.pollManager.getVoteCountsForPoll(pollId);
+    }
+
+    @Benchmark
+    public Map<Long, Integer> redisHit() {
+        return withRedis.pollManager.getVoteCountsForPoll(pollId);
+    }
+
+    @Benchmark
+    public Map<Long, Integer> timelineNoRedis() {
+        return withoutRedis.pollManager.getVoteTimeline(pollId, "1m");
+    }
+
+    @Benchmark
+    public Map<Long, Integer> timelineRedisHit() {
+        return withRedis.pollManager.getVoteTimeline(pollId, "1m");
+    }
+
+    @Benchmark
+    public Map<Long, Integer> cold() {
+        redisServer.jedis.del("poll:" + pollId + ":votes");  // included in the time: one extra round trip
+        return withRedis.pollManager.getVoteCountsForPoll(pollId);
+    }
+}
@@ -0,0 +1,68 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * createVote (POST /votes) and createVotes (POST /votes/batch) on a store that already
+ * holds the given number of votes, without Redis and with Redis counters.
+ * Per-vote throughput: the batch benchmark counts each of its votes as one operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class VoteWriteBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"1000", "100000", "10000000"})
+    int votes;
+
+    @Param({"false", "true"})
+    boolean redis;
+
+    private BenchmarkData.Redis redisServer;
+    private BenchmarkData data;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        redisServer = redis ? new BenchmarkData.Redis() : null;
+        data = new BenchmarkData(new PollManager(redis ? redisServer.jedis : null), votes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        data.pollManager.close();
+        if (redisServer != null) {
+            redisServer.close();
+        }
+    }
+
+    @Benchmark
+    public Vote createVote() {
+        return data.pollManager.createVote(new Vote(data.user, nextOption()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<VoteOutcome> createVotesBatch() {
+        List<Vote> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new Vote(data.user, nextOption()));
+        }
+        return data.pollManager.createVotes(batch);
+    }
+
+    private VoteOption nextOption() {
+        next = (next + 1) % data.options.size();
+        return data.options.get(next);
+    }
+}
@@ -0,0 +1,135 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * What the write-ahead log (polls.wal.dir) costs: vote writes without it, with a group-committed
+ * fsync per write and with background fsyncs, and how long a restart takes to recover a store
+ * of the given size from the log alone or from a snapshot. The log goes to a temporary
+ * directory, so point java.io.tmpdir at the disk to measure.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WriteAheadLogBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    @State(Scope.Benchmark)
+    public static class Writes {
+        @Param({"off", "commit", "interval"})
+        String sync;
+
+        @Param({"100000"})
+        int votes;
+
+        private Path dir;
+        private InMemoryPollStore store;
+        private BenchmarkData data;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("wal-bench");
+            store = new InMemoryPollStore();
+            if (!sync.equals("off")) {
+                WriteAheadLog.open(dir, store, WriteAheadLog.DEFAULT_SEGMENT_SIZE, sync.equals("interval") ? 10 : 0, 4);
+            }
+            data = new BenchmarkData(new PollManager(store, null), votes);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            data.pollManager.close();
+            store.close();
+            delete(dir);
+        }
+
+        VoteOption nextOption() {
+            next = (next + 1) % data.options.size();
+            return data.options.get(next);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        @Param({"log", "snapshot"})
+        String from;
+
+        @Param({"1000000"})
+        int votes;
+
+        private Path dir;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("wal-bench");
+            InMemoryPollStore store = new InMemoryPollStore();
+            WriteAheadLog log = WriteAheadLog.open(dir, store, WriteAheadLog.DEFAULT_SEGMENT_SIZE, 10, Integer.MAX_VALUE);
+            PollManager pollManager = new PollManager(store, null);
+            new BenchmarkData(pollManager, votes);
+            if (from.equals("snapshot")) {
+                log.snapshot();
+            }
+            pollManager.close();
+            store.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public Vote createVote(Writes writes) {
+        return writes.data.pollManager.createVote(new Vote(writes.data.user, writes.nextOption()));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<VoteOutcome> createVotesBatch(Writes writes) {
+        List<Vote> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new Vote(writes.data.user, writes.nextOption()));
+        }
+        return writes.data.pollManager.createVotes(batch);
+    }
+
+    // One restart: read the snapshot and/or the log into an empty store
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public long recover(Recovery recovery) throws IOException {
+        InMemoryPollStore store = new InMemoryPollStore();
+        WriteAheadLog.open(recovery.dir, store, WriteAheadLog.DEFAULT_SEGMENT_SIZE, 10, Integer.MAX_VALUE);
+        store.close();
+        return store.nextIds()[3];
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
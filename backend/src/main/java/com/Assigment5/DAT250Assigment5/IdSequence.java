@@ -0,0 +1,185 @@
+package com.Assigment5.DAT250Assigment5;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ids of one kind of entity (users, polls, vote options, votes) for InMemoryPollStore,
+ * unique across the backend nodes that share a Redis as long as each has its own node id.
+ *
+ * With Redis (setLeases): the node leases blocks of blockSize ids with one INCRBY on
+ * polls:ids:{name} and hands them out with an atomic increment; only taking the next
+ * block locks, and costs a round trip. Leased ids are below 2^43 (range 0).
+ * While a lease fails: range * 2^43 + a local counter, where the range is the node's
+ * polls.ids.node-id (1-1022), or 1023 for node 0, the default. Leased ids and the ids of
+ * nodes with different node ids never meet; nodes sharing a Redis that all run as node 0
+ * can meet each other's fallback ids, so give each its own node id.
+ * Without leases at all (no Redis), node 0 counts 1, 2, 3, ... in range 0 as always.
+ * All ids stay below 2^53, safe as JavaScript numbers.
+ */
+final class IdSequence {
+    private static final Logger log = LoggerFactory.getLogger(IdSequence.class);
+
+    static final int NODE_BITS = 10;
+    static final int NODE_ZERO_RANGE = (1 << NODE_BITS) - 1;  // node 0's fallback while it leases
+    static final int MAX_NODE_ID = NODE_ZERO_RANGE - 1;
+    static final long NODE_RANGE = 1L << (53 - NODE_BITS);  // ids per node; leased ids stay below the first one
+    static final long RETRY_LEASE_AFTER_NANOS = 1_000_000_000L;
+
+    // Takes size ids from the shared counter under key and returns the new counter value (INCRBY)
+    interface Leases {
+        long lease(String key, long size);
+    }
+
+    // Ids start..end of a lease; next is handed out until it passes end
+    private record Block(AtomicLong next, long end) {}
+
+    private final String key;
+    private volatile int nodeId;
+    private volatile int blockSize = 1_000;
+    private volatile Leases leases;
+
+    private volatile Block block;
+    private final ReentrantLock leaseLock = new ReentrantLock();
+    private volatile long leaseFailedAt;  // System.nanoTime() of the last failed lease, 0 if none
+
+    private final AtomicLong highestShared = new AtomicLong();  // highest id below NODE_RANGE used or restored here
+    private final AtomicLong nodeCounter = new AtomicLong();    // ids used so far in the node's own range
+
+    IdSequence(String name) {
+        this.key = "polls:ids:" + name;
+    }
+
+    // Set before first use, and before a log is recovered into the store
+    void setNode(int nodeId, int blockSize) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("polls.ids.node-id must be between 0 and " + MAX_NODE_ID + ", not " + nodeId);
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("polls.ids.block-size must be positive, not " + blockSize);
+        }
+        this.nodeId = nodeId;
+        this.blockSize = blockSize;
+    }
+
+    void setLeases(Leases leases) {
+        this.leases = leases;
+    }
+
+    long next() {
+        Block current = block;
+        if (current != null) {
+            long id = current.next().getAndIncrement();
+            if (id <= current.end()) {
+                return id;
+            }
+        }
+        if (leases == null) {
+            return nodeId == 0 ? nextShared() : nextOnNode();
+        }
+        if (recentlyFailed()) {
+            return nextOnNode();
+        }
+        return nextFromNewBlock();
+    }
+
+    // A restored id: the sequence moves past it if it is in the shared range or this node's own
+    void advance(long usedId) {
+        if (usedId < NODE_RANGE) {
+            highestShared.accumulateAndGet(usedId, Math::max);
+        } else if (usedId / NODE_RANGE == ownRange()) {
+            nodeCounter.accumulateAndGet(usedId % NODE_RANGE + 1, Math::max);
+        }
+    }
+
+    // For snapshots, with nextNodeId: an id past every shared id used here
+    long nextSharedId() {
+        return Math.max(highestShared.get(), block != null ? block.end() : 0) + 1;
+    }
+
+    // The next id of the node's own range
+    long nextNodeId() {
+        return ownRange() * NODE_RANGE + nodeCounter.get();
+    }
+
+    // Undo of nextSharedId and nextNodeId; a node id taken from another range (the node id changed) is ignored
+    void restore(long nextSharedId, long nextNodeId) {
+        advance(nextSharedId - 1);
+        if (nextNodeId % NODE_RANGE > 0) {
+            advance(nextNodeId - 1);
+        }
+    }
+
+    private long nextFromNewBlock() {
+        leaseLock.lock();
+        try {
+            Block current = block;
+            if (current != null) {
+                long id = current.next().getAndIncrement();
+                if (id <= current.end()) {
+                    return id;  // another thread leased while this one waited
+                }
+            }
+            if (recentlyFailed()) {
+                return nextOnNode();
+            }
+            Block leased;
+            try {
+                leased = lease();
+            } catch (RuntimeException e) {
+                leaseFailedAt = System.nanoTime();
+                log.warn("Cannot lease ids from Redis ({}), using node {}'s own ids for a while", e.getMessage(), nodeId);
+                return nextOnNode();
+            }
+            leaseFailedAt = 0;
+            block = leased;
+            return leased.next().getAndIncrement();
+        } finally {
+            leaseLock.unlock();
+        }
+    }
+
+    // Never below an id used here already: the counter in Redis may have been lost, or node 0 counted on its own before
+    private Block lease() {
+        int size = blockSize;
+        long end = leases.lease(key, size);
+        long floor = highestShared.get();
+        if (end - size < floor) {
+            end = leases.lease(key, floor - end + size);  // a block that starts past floor
+        }
+        if (end >= NODE_RANGE) {
+            throw new IllegalStateException(key + " passed " + NODE_RANGE);
+        }
+        highestShared.accumulateAndGet(end, Math::max);
+        return new Block(new AtomicLong(end - size + 1), end);
+    }
+
+    // Node 0 without leases: on from the highest id used here, in the shared range
+    private long nextShared() {
+        long id = highestShared.incrementAndGet();
+        if (id >= NODE_RANGE) {
+            throw new IllegalStateException("out of ids for node 0 in " + key);
+        }
+        return id;
+    }
+
+    private long nextOnNode() {
+        long n = nodeCounter.getAndIncrement();
+        if (n >= NODE_RANGE) {
+            throw new IllegalStateException("out of ids for node " + nodeId + " in " + key);
+        }
+        return ownRange() * NODE_RANGE + n;
+    }
+
+    private long ownRange() {
+        return nodeId == 0 ? NODE_ZERO_RANGE : nodeId;
+    }
+
+    private boolean recentlyFailed() {
+        long failedAt = leaseFailedAt;
+        return failedAt != 0 && System.nanoTime() - failedAt < RETRY_LEASE_AFTER_NANOS;
+    }
+}
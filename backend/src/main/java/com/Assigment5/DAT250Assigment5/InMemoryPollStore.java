@@ -0,0 +1,1039 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.PollSummary;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Thread-safe in-memory storage behind PollManager.
+ *
+ * Maps are concurrent and ids come from atomic sequences, so single-entity
+ * reads and writes need no locking. Anything that touches several entities
+ * (linking a vote to its user, cascading a poll delete) runs under the lock
+ * stripe of the poll and, when a user is involved, the user's stripe.
+ * Locks are always taken poll first, then user.
+ *
+ * Every mutation is reported to the journal (see PollStoreJournal) under the
+ * same locks, so a WriteAheadLog can rebuild the store after a restart by
+ * re-applying the records through the restore methods at the bottom.
+ *
+ * Votes are the bulk of the data, so they are not kept as Vote objects but as
+ * rows of primitive columns (VoteColumns) with id lists per poll and per user.
+ * A Vote is built from its row (materialize) only when it is handed out, linked
+ * to the stored user and option it was linked to when it was stored.
+ *
+ * What a user owns is indexed by id (pollIdsByCreator, voteIdsByUser) instead of the
+ * entity's collections, so taking one poll or vote off its owner is constant time and
+ * deleting a user with 100k votes stays linear.
+ */
+class InMemoryPollStore implements PollStore {
+    // Sorted by id so the list endpoints can page with a cursor (tailMap) instead of copying everything
+    private final ConcurrentNavigableMap<Long, User> users = new ConcurrentSkipListMap<>(); // key: user id
+    private final ConcurrentNavigableMap<Long, Poll> polls = new ConcurrentSkipListMap<>(); // key: poll id
+    private final VoteColumns votes = new VoteColumns(); // rows by vote id
+    private final ConcurrentNavigableMap<Long, VoteOption> voteOptions = new ConcurrentSkipListMap<>(); // key vote option id
+
+    // Running vote counts, key: poll id -> (vote option id -> number of votes).
+    // Updated on every vote write so results never have to scan the votes.
+    private final Map<Long, Map<Long, LongAdder>> voteTallies = new ConcurrentHashMap<>();
+    // The same votes by the minute and hour they were published in, for the results timeline
+    private final VoteTimeline turnout = new VoteTimeline();
+
+    // Secondary indexes so cascades and per-poll queries only touch the affected rows.
+    // Only votes/options attached to a stored poll are indexed; all updates happen under the poll's lock.
+    private final Map<Long, Set<Long>> optionIdsByPoll = new ConcurrentHashMap<>(); // key: poll id -> vote option ids
+    private final Map<Long, VoteColumns.IdList> voteIdsByPoll = new ConcurrentHashMap<>(); // key: poll id -> vote ids, read and written under the poll's lock
+    // Votes linked to a stored user, in place of user.getVotes(); read and written under the user's lock
+    // (a removed vote is only counted, see VoteColumns.IdList)
+    private final Map<Long, VoteColumns.IdList> voteIdsByUser = new ConcurrentHashMap<>(); // key: user id -> vote ids
+    // Polls of a stored creator, in place of user.getCreatedPolls(); written under the user's lock
+    private final Map<Long, Set<Long>> pollIdsByCreator = new ConcurrentHashMap<>(); // key: user id -> poll ids
+
+    // Single vote per poll mode: the vote each user has in a poll, key: poll id -> (user id -> vote id).
+    // Replaces scanning the user's votes; only maintained in that mode, under the poll's lock.
+    private final Map<Long, Map<Long, Long>> voteIdByVoter = new ConcurrentHashMap<>();
+    private volatile boolean singleVotePerPoll;
+    private volatile LongPredicate closedPolls = pollId -> false;
+
+    // Unique across the nodes sharing a Redis once PollManager hands them its leases (see IdSequence)
+    private final IdSequence userIdSeq = new IdSequence("user");
+    private final IdSequence pollIdSeq = new IdSequence("poll");
+    private final IdSequence voteIdSeq = new IdSequence("vote");
+    private final IdSequence voteOptionIdSeq = new IdSequence("voteoption");
+    private volatile int idNode;
+
+    private final StripedLocks pollLocks = new StripedLocks(64);
+    private final StripedLocks userLocks = new StripedLocks(64);
+
+    private volatile PollStoreListener listener = new PollStoreListener() {};
+    private volatile PollStoreJournal journal = new PollStoreJournal() {};
+
+    @Override
+    public void setListener(PollStoreListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setSingleVotePerPoll(boolean singleVotePerPoll) {
+        this.singleVotePerPoll = singleVotePerPoll;
+    }
+
+    @Override
+    public void setClosedPolls(LongPredicate closed) {
+        this.closedPolls = closed;
+    }
+
+    @Override
+    public void setIdLeases(IdSequence.Leases leases) {
+        for (IdSequence sequence : idSequences()) {
+            sequence.setLeases(leases);
+        }
+    }
+
+    // This node's id range and how many ids a lease takes; set before a log is recovered into the store
+    void setIdNode(int nodeId, int blockSize) {
+        for (IdSequence sequence : idSequences()) {
+            sequence.setNode(nodeId, blockSize);
+        }
+        this.idNode = nodeId;
+    }
+
+    int idNode() {
+        return idNode;
+    }
+
+    private List<IdSequence> idSequences() {
+        return List.of(userIdSeq, pollIdSeq, voteOptionIdSeq, voteIdSeq);
+    }
+
+    // Attached once the store has been recovered, so replaying the log does not log again
+    void setJournal(PollStoreJournal journal) {
+        this.journal = journal;
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    // Run an action while no vote of the poll can be counted or uncounted
+    @Override
+    public <T> T withPollLock(Long pollId, Supplier<T> action) {
+        ReentrantLock pollLock = pollLocks.lockFor(pollId);
+        pollLock.lock();
+        try {
+            return action.get();
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    // User methods
+    @Override
+    public User createUser(User user) {
+        user.setId(userIdSeq.next());  // assign next id
+        insertUser(user);
+        journal.commit();
+        return user;  // Return the created user with ID
+    }
+
+    private void insertUser(User user) {
+        ReentrantLock userLock = userLocks.lockFor(user.getId());
+        userLock.lock();
+        try {
+            users.put(user.getId(), user); // Store user in the users map
+            journal.userCreated(user);
+        } finally {
+            userLock.unlock();
+        }
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return new ArrayList<>(users.values());   // Return copy of all users as ArrayList
+    }
+
+    @Override
+    public User getUser(Long id) {
+        return users.get(id); // Return user from map or null if not found
+    }
+
+    /**
+     * Removes the user and everything it owns. The user leaves the map under its
+     * lock first, so writers that link to it afterwards no longer find it; the
+     * polls and votes linked before that point are then deleted one by one.
+     */
+    @Override
+    public int deleteUser(Long id, IntConsumer progress) {
+        Set<Long> createdPolls;
+        VoteColumns.IdList castVotes;
+        ReentrantLock userLock = userLocks.lockFor(id);
+        userLock.lock();
+        try {
+            User user = users.remove(id);
+            if (user == null) {
+                return 0;
+            }
+            journal.userDeleted(id);  // the cascade below logs its own deletes
+            createdPolls = pollIdsByCreator.remove(id);  // polls deleted from here on find no set to update
+            castVotes = voteIdsByUser.remove(id);  // votes unlinked from here on find no list to update
+        } finally {
+            userLock.unlock();
+        }
+
+        int removed = 1;
+        progress.accept(1);
+        // Cascade delete: remove polls created by this user
+        if (createdPolls != null) {
+            for (Long pollId : createdPolls) {
+                int pollRemoved = deletePoll(pollId);
+                removed += pollRemoved;
+                progress.accept(pollRemoved);
+            }
+        }
+
+        // Cascade delete: remove votes cast by this user
+        if (castVotes != null) {
+            for (long voteId : castVotes.toArray()) {
+                if (removeVote(voteId)) {
+                    removed++;
+                    progress.accept(1);
+                }
+            }
+        }
+        journal.commit();
+        return removed;
+    }
+
+    // Poll methods
+    @Override
+    public Poll createPoll(Poll poll) {
+        storeNewPoll(poll);
+        journal.commit();
+        return poll;
+    }
+
+    @Override
+    public List<Poll> createPolls(List<Poll> batch) {
+        batch.forEach(this::storeNewPoll);
+        journal.commit();  // one wait for the whole batch
+        return batch;
+    }
+
+    // Assign ids to the poll and the options it was sent with, then store them together
+    private void storeNewPoll(Poll poll) {
+        List<VoteOption> options = PollStore.inlineOptions(poll);
+        poll.setId(pollIdSeq.next());
+        for (VoteOption option : options) {
+            option.setId(voteOptionIdSeq.next());
+            option.setPoll(poll);
+        }
+        insertPoll(poll, options);
+    }
+
+    /*
+     * Store the poll with its options under the poll's lock. The options are in place before
+     * the poll is put in the map, so nobody sees the poll without them, and a vote on one of
+     * them waits on the lock until the poll is there.
+     */
+    private void insertPoll(Poll poll, List<VoteOption> options) {
+        // Copy-on-write so the list can be serialized while options are added.
+        poll.setVoteOptions(new CopyOnWriteArrayList<>(options));
+
+        ReentrantLock pollLock = pollLocks.lockFor(poll.getId());
+        pollLock.lock();
+        try {
+            // Look up the full user object if only ID is provided
+            if (poll.getCreator() != null && poll.getCreator().getId() != null) {
+                Long creatorId = poll.getCreator().getId();
+                ReentrantLock userLock = userLocks.lockFor(creatorId);
+                userLock.lock();
+                try {
+                    User fullUser = users.get(creatorId);  // Get complete user object from storage
+                    if (fullUser != null) {
+                        poll.setCreator(fullUser); // Replace with complete user object (maintains relationship integrity)
+                        pollIdsByCreator.computeIfAbsent(creatorId, id -> ConcurrentHashMap.newKeySet()).add(poll.getId()); // the user's side of the link
+                    }
+                } finally {
+                    userLock.unlock();
+                }
+            }
+
+            for (VoteOption option : options) {
+                voteOptions.put(option.getId(), option);
+                optionIdsByPoll.computeIfAbsent(poll.getId(), id -> ConcurrentHashMap.newKeySet()).add(option.getId());
+            }
+            polls.put(poll.getId(), poll); // Store poll in the polls map
+            journal.pollCreated(poll);
+            options.forEach(journal::voteOptionCreated);  // replayed through restoreVoteOption
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Poll> getAllPolls() {
+        return new ArrayList<>(polls.values());  // Return copy of all polls as ArrayList
+    }
+
+    @Override
+    public Poll getPoll(Long id) {
+        return polls.get(id);  // Return poll from map or null if not found
+    }
+
+    @Override
+    public int deletePoll(Long id) {
+        int removed = 1;
+        ReentrantLock pollLock = pollLocks.lockFor(id);
+        pollLock.lock();
+        try {
+            Poll poll = polls.remove(id);  // Remove poll from main storage
+            if (poll == null) {
+                return 0;
+            }
+            journal.pollDeleted(id);  // replaying it cascades the same way
+            // Remove poll from creator's created polls (maintain relationship integrity)
+            User creator = poll.getCreator();
+            if (creator != null && creator.getId() != null) {
+                ReentrantLock userLock = userLocks.lockFor(creator.getId());
+                userLock.lock();
+                try {
+                    Set<Long> createdPolls = pollIdsByCreator.get(creator.getId());
+                    if (createdPolls != null) {
+                        createdPolls.remove(id);  // Remove from user's created polls
+                    }
+                } finally {
+                    userLock.unlock();
+                }
+            }
+
+            // Delete associated votes (cascade delete)
+            removed += removeVotesOfPoll(id);
+
+            // Delete associated vote options (cascade delete)
+            removed += removeVoteOptionsOfPoll(id);
+            listener.pollDeleted(id);
+        } finally {
+            pollLock.unlock();
+        }
+        journal.commit();
+        return removed;
+    }
+
+    @Override
+    public void deleteVoteOptionsByPollId(Long pollId) {
+        ReentrantLock pollLock = pollLocks.lockFor(pollId);
+        pollLock.lock();
+        try {
+            removeVoteOptionsOfPoll(pollId);
+            journal.voteOptionsDeleted(pollId);
+        } finally {
+            pollLock.unlock();
+        }
+        journal.commit();
+    }
+
+    // Called with the poll's lock held
+    // Returns how many options were removed
+    private int removeVoteOptionsOfPoll(Long pollId) {
+        // Remove vote options associated with a poll when it's deleted
+        int removed = 0;
+        Set<Long> optionIds = optionIdsByPoll.remove(pollId);
+        if (optionIds != null) {
+            for (Long optionId : optionIds) {  // Only this poll's options
+                if (voteOptions.remove(optionId) != null) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void deleteVotesByPollId(Long pollId) {
+        ReentrantLock pollLock = pollLocks.lockFor(pollId);
+        pollLock.lock();
+        try {
+            removeVotesOfPoll(pollId);
+            journal.votesDeleted(pollId);
+        } finally {
+            pollLock.unlock();
+        }
+        journal.commit();
+    }
+
+    // Called with the poll's lock held
+    // Returns how many votes were removed
+    private int removeVotesOfPoll(Long pollId) {
+        // Remove votes associated with a poll when it's deleted
+        int removed = 0;
+        VoteColumns.IdList voteIds = voteIdsByPoll.remove(pollId);
+        if (voteIds != null) {
+            for (long voteId : voteIds.toArray()) {  // Only this poll's votes
+                int flags = votes.flags(voteId);
+                if (votes.remove(voteId)) {
+                    unlinkFromUser(voteId, flags);
+                    removed++;
+                }
+            }
+        }
+        voteTallies.remove(pollId);  // All counts for this poll are gone with its votes
+        turnout.clear(pollId);
+        voteIdByVoter.remove(pollId);
+        listener.votesCleared(pollId);
+        return removed;
+    }
+
+    // VoteOption methods (for poll options)
+    @Override
+    public VoteOption createVoteOption(VoteOption voteOption) {
+        voteOption.setId(voteOptionIdSeq.next());
+        insertVoteOption(voteOption);
+        journal.commit();
+        return voteOption;  // Return the created vote option with ID
+    }
+
+    private void insertVoteOption(VoteOption voteOption) {
+        if (voteOption.getPoll() != null && voteOption.getPoll().getId() != null) {
+            Long pollId = voteOption.getPoll().getId();
+            ReentrantLock pollLock = pollLocks.lockFor(pollId);
+            pollLock.lock();
+            try {
+                Poll poll = polls.get(pollId);
+                if (poll != null) {
+                    // Set the full poll object (not just the reference)
+                    voteOption.setPoll(poll);
+                    // Add this vote option to the poll's collection
+                    if (poll.getVoteOptions() == null) {
+                        poll.setVoteOptions(new CopyOnWriteArrayList<>());
+                    }
+                    poll.getVoteOptions().add(voteOption);
+                    optionIdsByPoll.computeIfAbsent(pollId, id -> ConcurrentHashMap.newKeySet()).add(voteOption.getId());
+                }
+                voteOptions.put(voteOption.getId(), voteOption);  // Store while the poll cannot be deleted
+                journal.voteOptionCreated(voteOption);
+                return;
+            } finally {
+                pollLock.unlock();
+            }
+        }
+
+        voteOptions.put(voteOption.getId(), voteOption);  // Store vote option in the voteOptions map
+        journal.voteOptionCreated(voteOption);
+    }
+
+    @Override
+    public List<VoteOption> getAllVoteOptions() {
+        return new ArrayList<>(voteOptions.values());  // Return copy of all vote options as ArrayList
+    }
+
+    // Vote methods
+    @Override
+    public Vote createVote(Vote vote) {
+        vote.setId(voteIdSeq.next());
+
+        vote.setPublishedAt(String.valueOf(System.currentTimeMillis()));  // Set current timestamp
+        insertVote(vote, true);
+        journal.commit();
+        return vote;
+    }
+
+    // refuseClosed: throw PollClosedException for a closed poll (live votes; a restored vote was accepted back then)
+    private void insertVote(Vote vote, boolean refuseClosed) {
+        // PROPERLY SET VOTEOPTION RELATIONSHIP (resolve vote option reference)
+        VoteOption requestedOption = vote.getVoteOption();
+        boolean optionLinked = false;
+        if (vote.getVoteOption() != null && vote.getVoteOption().getId() != null) {
+            VoteOption voteOption = voteOptions.get(vote.getVoteOption().getId());  // Get complete vote option
+            if (voteOption != null) {
+                vote.setVoteOption(voteOption); // Replace with full voteOption object
+                optionLinked = true;  // The vote is properly connected to the voteOption and its poll
+            }
+        }
+
+        Long pollId = optionLinked ? pollIdOf(vote) : null;  // an unknown option's poll is not counted towards
+        if (pollId == null) {
+            linkAndStore(vote, optionLinked, null);  // Not part of any poll, nothing to guard
+            return;
+        }
+
+        ReentrantLock pollLock = pollLocks.lockFor(pollId);
+        pollLock.lock();
+        try {
+            if (!voteOptions.containsKey(vote.getVoteOption().getId())) {
+                // The poll was deleted since we resolved the option: store the vote
+                // exactly as if the option had never existed
+                vote.setVoteOption(requestedOption);
+                linkAndStore(vote, false, null);
+                return;
+            }
+            if (refuseClosed && closedPolls.test(pollId)) {
+                throw new PollClosedException(pollId);
+            }
+            linkAndStore(vote, true, pollId);
+            Map<Long, Integer> deltas = new HashMap<>();
+            Map<Long, Integer> turnoutDeltas = new HashMap<>();
+            countVote(pollId, vote, deltas, turnoutDeltas);
+            turnout.add(pollId, turnoutDeltas);
+            if (!deltas.isEmpty() || !turnoutDeltas.isEmpty()) {
+                listener.talliesChanged(pollId, deltas, turnoutDeltas);  // Count it for its poll (and uncount the vote it replaced)
+            }
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    /**
+     * Batch insert used by the single writer (VoteBatchWriter). Unlike createVote,
+     * a vote must reference a stored option and, if it names a user, a stored user;
+     * anything else is rejected instead of being stored. The votes of one poll are
+     * applied under a single lock acquisition and reported to the listener as one
+     * talliesChanged call, so Redis sees one update per poll and batch.
+     * Returns, per position in the batch, null if the vote was stored or the reason it was not.
+     */
+    @Override
+    public List<String> createVotes(List<Vote> batch) {
+        String[] rejections = new String[batch.size()];
+        String publishedAt = String.valueOf(System.currentTimeMillis());  // one timestamp for the whole batch
+
+        // Resolve the options once and group the votes by poll
+        Map<Long, List<Integer>> positionsByPoll = new LinkedHashMap<>();
+        List<Integer> withoutPoll = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Vote vote = batch.get(i);
+            if (vote == null || vote.getVoteOption() == null || vote.getVoteOption().getId() == null) {
+                rejections[i] = "voteOption.id is required";
+                continue;
+            }
+            VoteOption voteOption = voteOptions.get(vote.getVoteOption().getId());
+            if (voteOption == null) {
+                rejections[i] = "unknown vote option " + vote.getVoteOption().getId();
+                continue;
+            }
+            vote.setVoteOption(voteOption);
+            vote.setPublishedAt(publishedAt);
+            Long pollId = pollIdOf(vote);
+            if (pollId == null) {
+                withoutPoll.add(i);
+            } else {
+                positionsByPoll.computeIfAbsent(pollId, id -> new ArrayList<>()).add(i);
+            }
+        }
+
+        for (int i : withoutPoll) {
+            storeBatchVote(batch.get(i), null, rejections, i);  // not counted, nothing to guard
+        }
+
+        positionsByPoll.forEach((pollId, positions) -> {
+            Map<Long, Integer> deltas = new HashMap<>();
+            Map<Long, Integer> turnoutDeltas = new HashMap<>();
+            ReentrantLock pollLock = pollLocks.lockFor(pollId);
+            pollLock.lock();
+            try {
+                boolean closed = closedPolls.test(pollId);
+                for (int i : positions) {
+                    Vote vote = batch.get(i);
+                    Long optionId = vote.getVoteOption().getId();
+                    if (!voteOptions.containsKey(optionId)) {
+                        rejections[i] = "poll " + pollId + " was deleted";
+                        continue;
+                    }
+                    if (closed) {
+                        rejections[i] = "poll " + pollId + " is closed";
+                        continue;
+                    }
+                    if (!storeBatchVote(vote, pollId, rejections, i)) {
+                        continue;
+                    }
+                    countVote(pollId, vote, deltas, turnoutDeltas);
+                }
+                turnout.add(pollId, turnoutDeltas);
+                if (!deltas.isEmpty() || !turnoutDeltas.isEmpty()) {
+                    listener.talliesChanged(pollId, deltas, turnoutDeltas);  // once for all of this poll's votes
+                }
+            } finally {
+                pollLock.unlock();
+            }
+        });
+        journal.commit();  // one wait for the whole batch
+        return Arrays.asList(rejections);
+    }
+
+    // Count a stored vote for its poll, uncounting the voter's previous vote in single-vote mode;
+    // the listener is told by the caller, once per poll lock
+    private void countVote(Long pollId, Vote vote, Map<Long, Integer> deltas, Map<Long, Integer> turnoutDeltas) {
+        Long optionId = vote.getVoteOption().getId();
+        voteIdsByPoll.computeIfAbsent(pollId, id -> new VoteColumns.IdList()).add(vote.getId());
+        addToTally(pollId, optionId, 1);
+        PollStoreListener.addDelta(deltas, optionId, 1);
+        addToTurnout(turnoutDeltas, vote.getId(), 1);
+        Long replacedId = replacePreviousVote(pollId, vote);
+        if (replacedId != null) {
+            addToTally(pollId, votes.optionId(replacedId), -1);
+            PollStoreListener.addDelta(deltas, votes.optionId(replacedId), -1);
+            addToTurnout(turnoutDeltas, replacedId, -1);
+        }
+    }
+
+    // Assign an id and store one vote of a batch; false (with the reason recorded) if its user is unknown
+    private boolean storeBatchVote(Vote vote, Long pollId, String[] rejections, int position) {
+        vote.setId(voteIdSeq.next());
+        if (!linkAndStore(vote, true, pollId, true)) {
+            rejections[position] = "unknown user " + vote.getUser().getId();
+            vote.setId(null);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void deleteVote(Long voteId) {
+        removeVote(voteId);
+        journal.commit();
+    }
+
+    // False if the vote was not there (any more)
+    private boolean removeVote(Long voteId) {
+        int flags = votes.flags(voteId);  // find the vote first
+        if (flags < 0) {
+            return false;
+        }
+        long pollId = votes.pollId(voteId);
+        ReentrantLock pollLock = pollId != 0 ? pollLocks.lockFor(pollId) : null;
+        if (pollLock != null) {
+            pollLock.lock();
+        }
+        try {
+            if (!votes.remove(voteId)) {
+                return false;  // someone else (e.g. a poll cascade) removed it first
+            }
+            // maintain bidirectional relationship with user
+            unlinkFromUser(voteId, flags);
+            if (pollId != 0) {
+                VoteColumns.IdList pollVotes = voteIdsByPoll.get(pollId);
+                if (pollVotes != null) {
+                    pollVotes.removed(votes);
+                }
+                Map<Long, Long> voters = voteIdByVoter.get(pollId);
+                if (voters != null) {
+                    voters.remove(votes.userId(voteId), voteId);  // only if it is still the user's vote
+                }
+                adjustTally(pollId, voteId, -1);  // Uncount it
+            }
+            journal.voteDeleted(voteId);
+            return true;
+        } finally {
+            if (pollLock != null) {
+                pollLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public List<Vote> getAllVotes() {
+        return streamVotes(null, null, null).collect(Collectors.toCollection(ArrayList::new));  // Return copy of all votes as ArrayList
+    }
+
+    @Override
+    public List<VoteOption> getVoteOptionsByPollId(Long pollId) {
+        return collect(optionIdsByPoll.get(pollId), voteOptions);
+    }
+
+    @Override
+    public List<Vote> getVotesByPollId(Long pollId) {
+        return materialize(pollVoteIds(pollId), null);
+    }
+
+    // The poll's votes, narrowed down to the option's
+    @Override
+    public List<Vote> getVotesByOptionId(Long optionId) {
+        VoteOption voteOption = voteOptions.get(optionId);
+        if (voteOption == null || voteOption.getPoll() == null || voteOption.getPoll().getId() == null) {
+            return new ArrayList<>();
+        }
+        return materialize(pollVoteIds(voteOption.getPoll().getId()), optionId);
+    }
+
+    /*
+     * Id-ordered queries behind the list endpoints; afterId (exclusive) is the cursor, null starts
+     * at the beginning. The streams are lazy and read the live maps (weakly consistent, like their
+     * iterators), so a caller that stops after one page or writes entities out one at a time
+     * never copies the whole collection.
+     */
+    @Override
+    public Stream<User> streamUsers(Long afterId) {
+        return after(users, afterId);
+    }
+
+    @Override
+    public Stream<Poll> streamPolls(Long creatorId, Long afterId) {
+        if (creatorId == null) {
+            return after(polls, afterId);
+        }
+        return byIds(createdPollIds(creatorId), polls, afterId);
+    }
+
+    @Override
+    public Stream<PollSummary> streamPollSummaries(Long creatorId, Long afterId) {
+        return streamPolls(creatorId, afterId).map(PollSummary::of);
+    }
+
+    @Override
+    public Stream<VoteOption> streamVoteOptions(Long pollId, Long afterId) {
+        if (pollId == null) {
+            return after(voteOptions, afterId);
+        }
+        return byIds(optionIdsByPoll.getOrDefault(pollId, Set.of()), voteOptions, afterId);
+    }
+
+    @Override
+    public Stream<Vote> streamVotes(Long pollId, Long userId, Long afterId) {
+        LongStream ids;
+        if (pollId != null) {
+            ids = Arrays.stream(pollVoteIds(pollId)).sorted();  // the poll index is the narrower one
+            if (afterId != null) {
+                ids = ids.filter(id -> id > afterId);
+            }
+            if (userId != null) {
+                ids = ids.filter(id -> votes.userId(id) == userId);
+            }
+        } else if (userId != null) {
+            ids = Arrays.stream(userVoteIds(userId)).sorted();
+            if (afterId != null) {
+                ids = ids.filter(id -> id > afterId);
+            }
+        } else {
+            ids = votes.ids(afterId);
+        }
+        return ids.mapToObj(this::materialize).filter(Objects::nonNull);
+    }
+
+    // Snapshot of the running tallies for one poll; options without votes are left out
+    @Override
+    public Map<Long, Integer> countVotes(Long pollId) {
+        Map<Long, Integer> counts = new HashMap<>();
+        Map<Long, LongAdder> tally = voteTallies.get(pollId);
+        if (tally != null) {
+            tally.forEach((optionId, adder) -> {
+                int count = adder.intValue();
+                if (count > 0) {
+                    counts.put(optionId, count);
+                }
+            });
+        }
+        return counts;
+    }
+
+    // Straight from the running tallies: O(polls + options), the votes are not read
+    @Override
+    public void countAllVotes(BiConsumer<Long, Map<Long, Integer>> perPoll) {
+        for (Long pollId : voteTallies.keySet()) {
+            perPoll.accept(pollId, countVotes(pollId));
+        }
+    }
+
+    // Served from the buckets kept on the write path, never from the votes
+    @Override
+    public Map<Long, Integer> countVotesOverTime(Long pollId, VoteTimeline.Bucket bucket) {
+        return turnout.count(pollId, bucket);
+    }
+
+    /*
+     * Recovery (WriteAheadLog): re-apply a logged creation with the id it was given, through the
+     * same path as the live call, so links, indexes and tallies come out as they were. The id
+     * sequences move past every restored id. Deletes are replayed with the public methods.
+     */
+    void restoreUser(User user) {
+        userIdSeq.advance(user.getId());
+        insertUser(user);
+    }
+
+    void restorePoll(Poll poll) {
+        pollIdSeq.advance(poll.getId());
+        insertPoll(poll, List.of());  // its options follow as records of their own
+    }
+
+    void restoreVoteOption(VoteOption voteOption) {
+        voteOptionIdSeq.advance(voteOption.getId());
+        insertVoteOption(voteOption);
+    }
+
+    void restoreVote(Vote vote) {
+        voteIdSeq.advance(vote.getId());
+        insertVote(vote, false);
+    }
+
+    // Only the user: deleteUser logged the deletes of its polls and votes as records of their own
+    void restoreUserDeleted(Long id) {
+        users.remove(id);
+        pollIdsByCreator.remove(id);  // left empty by those deletes
+        voteIdsByUser.remove(id);
+    }
+
+    // Next id of each sequence (users, polls, vote options, votes), kept in snapshots so deleted ids are not reused
+    // Two per sequence: the next shared id and the next id of this node's own range (see IdSequence)
+    long[] nextIds() {
+        return idSequences().stream()
+                .flatMapToLong(sequence -> LongStream.of(sequence.nextSharedId(), sequence.nextNodeId()))
+                .toArray();
+    }
+
+    // nextIds, or one next id per sequence as snapshots before node ranges recorded them
+    void restoreNextIds(long[] nextIds) {
+        List<IdSequence> sequences = idSequences();
+        for (int i = 0; i < sequences.size(); i++) {
+            if (nextIds.length == sequences.size()) {
+                sequences.get(i).advance(nextIds[i] - 1);
+            } else {
+                sequences.get(i).restore(nextIds[2 * i], nextIds[2 * i + 1]);
+            }
+        }
+    }
+
+    /*
+     * Single vote per poll mode, called with the poll's lock held once the vote is stored and
+     * counted: make it its user's vote in the poll and remove the vote it replaces. The removed
+     * vote's id is returned (null if there was none) for the caller to uncount. Concurrent votes of
+     * the same user in the same poll queue on the poll's lock, so exactly one of them remains.
+     */
+    private Long replacePreviousVote(Long pollId, Vote vote) {
+        User user = vote.getUser();
+        if (!singleVotePerPoll || user == null || user.getId() == null || users.get(user.getId()) != user) {
+            return null;  // anonymous votes and votes of unknown users are not limited
+        }
+        Long previousId = voteIdByVoter.computeIfAbsent(pollId, id -> new ConcurrentHashMap<>()).put(user.getId(), vote.getId());
+        int flags = previousId != null ? votes.flags(previousId) : -1;
+        if (flags < 0 || !votes.remove(previousId)) {
+            return null;
+        }
+        unlinkFromUser(previousId, flags);
+        voteIdsByPoll.get(pollId).removed(votes);
+        journal.voteDeleted(previousId);
+        return previousId;
+    }
+
+    // Resolve the user under its lock (so a concurrent deleteUser either sees
+    // this vote or we no longer see the user), link the vote and store it.
+    // pollId is the poll the vote is counted for, null if none.
+    private void linkAndStore(Vote vote, boolean optionLinked, Long pollId) {
+        linkAndStore(vote, optionLinked, pollId, false);
+    }
+
+    // With requireUser, a vote naming a user that does not exist is not stored and false is returned
+    private boolean linkAndStore(Vote vote, boolean optionLinked, Long pollId, boolean requireUser) {
+        int flags = optionLinked ? VoteColumns.OPTION_LINKED : 0;
+        if (vote.getUser() != null && vote.getUser().getId() != null) {
+            Long userId = vote.getUser().getId();
+            ReentrantLock userLock = userLocks.lockFor(userId);
+            userLock.lock();
+            try {
+                User user = users.get(userId); // Get complete user object from storage
+                if (user != null) {
+                    vote.setUser(user); // Replace with full user object
+                    voteIdsByUser.computeIfAbsent(userId, id -> new VoteColumns.IdList()).add(vote.getId()); // the user's side of the link
+                    flags |= VoteColumns.USER_LINKED;
+                } else if (requireUser) {
+                    return false;
+                }
+                storeRow(vote, pollId, flags);
+            } finally {
+                userLock.unlock();
+            }
+            return true;
+        }
+        storeRow(vote, pollId, flags);
+        return true;
+    }
+
+    private void storeRow(Vote vote, Long pollId, int flags) {
+        long millis = 0;
+        if (vote.getPublishedAt() != null) {
+            try {
+                millis = Long.parseLong(vote.getPublishedAt());
+                flags |= VoteColumns.HAS_TIME;
+            } catch (NumberFormatException e) {
+                // not one of ours (createVote stamps epoch millis); stored without a timestamp
+            }
+        }
+        long userId = vote.getUser() != null && vote.getUser().getId() != null ? vote.getUser().getId() : 0;  // 0: none
+        long optionId = vote.getVoteOption() != null && vote.getVoteOption().getId() != null ? vote.getVoteOption().getId() : 0;
+        votes.put(vote.getId(), userId, optionId, pollId != null ? pollId : 0, millis, flags); // Store vote in the vote columns
+        journal.voteCreated(vote);
+    }
+
+    /*
+     * Build the Vote for a row, null if the vote is gone. Linked users and options are the
+     * stored objects (if they still exist); otherwise, as after a restart from the log, the
+     * vote gets a placeholder carrying only the id it was stored with.
+     */
+    private Vote materialize(long id) {
+        int flags = votes.flags(id);
+        if (flags < 0) {
+            return null;
+        }
+        long userId = votes.userId(id);
+        long optionId = votes.optionId(id);
+        User user = (flags & VoteColumns.USER_LINKED) != 0 ? users.get(userId) : null;
+        if (user == null && userId != 0) {
+            user = new User(null, null);
+            user.setId(userId);
+        }
+        VoteOption voteOption = (flags & VoteColumns.OPTION_LINKED) != 0 ? voteOptions.get(optionId) : null;
+        if (voteOption == null && optionId != 0) {
+            voteOption = new VoteOption(null, 0, null);
+            voteOption.setId(optionId);
+        }
+        Vote vote = new Vote(user, voteOption);
+        vote.setId(id);
+        if ((flags & VoteColumns.HAS_TIME) != 0) {
+            vote.setPublishedAt(String.valueOf(votes.millis(id)));
+        }
+        return vote;
+    }
+
+    // Votes for ids from an index, skipping ids removed in the meantime; optionId (if not null) narrows them down
+    private List<Vote> materialize(long[] ids, Long optionId) {
+        List<Vote> result = new ArrayList<>();
+        for (long id : ids) {
+            if (optionId == null || votes.optionId(id) == optionId) {
+                Vote vote = materialize(id);
+                if (vote != null) {
+                    result.add(vote);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Copy of the poll's vote ids, taken under the poll's lock (may include removed votes)
+    private long[] pollVoteIds(Long pollId) {
+        return withPollLock(pollId, () -> {
+            VoteColumns.IdList ids = voteIdsByPoll.get(pollId);
+            return ids != null ? ids.toArray() : new long[0];
+        });
+    }
+
+    // Same for the votes linked to the user
+    private long[] userVoteIds(Long userId) {
+        ReentrantLock userLock = userLocks.lockFor(userId);
+        userLock.lock();
+        try {
+            VoteColumns.IdList ids = voteIdsByUser.get(userId);
+            return ids != null ? ids.toArray() : new long[0];
+        } finally {
+            userLock.unlock();
+        }
+    }
+
+    // Look up the entities behind an index entry, skipping ids removed in the meantime
+    private static <T> List<T> collect(Set<Long> ids, Map<Long, T> entities) {
+        List<T> result = new ArrayList<>();
+        if (ids != null) {
+            for (Long id : ids) {
+                T entity = entities.get(id);
+                if (entity != null) {
+                    result.add(entity);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static <T> Stream<T> after(ConcurrentNavigableMap<Long, T> entities, Long afterId) {
+        return (afterId == null ? entities : entities.tailMap(afterId, false)).values().stream();
+    }
+
+    // Entities for a set of ids (an index entry or a user's links), in id order
+    private static <T> Stream<T> byIds(Collection<Long> ids, Map<Long, T> entities, Long afterId) {
+        return ids.stream()
+                .filter(id -> afterId == null || id > afterId)
+                .sorted()
+                .map(entities::get)
+                .filter(Objects::nonNull);
+    }
+
+    // Copy of the user's poll ids, taken under the user's lock so it does not race a cascade
+    private List<Long> createdPollIds(Long userId) {
+        ReentrantLock userLock = userLocks.lockFor(userId);
+        userLock.lock();
+        try {
+            return List.copyOf(pollIdsByCreator.getOrDefault(userId, Set.of()));
+        } finally {
+            userLock.unlock();
+        }
+    }
+
+    // The user's side of removing a vote; flags are the vote's, read before it was removed
+    private void unlinkFromUser(long voteId, int flags) {
+        if ((flags & VoteColumns.USER_LINKED) == 0) {
+            return;
+        }
+        long userId = votes.userId(voteId);
+        ReentrantLock userLock = userLocks.lockFor(userId);
+        userLock.lock();
+        try {
+            VoteColumns.IdList userVotes = voteIdsByUser.get(userId);
+            if (userVotes != null) {
+                userVotes.removed(votes);
+            }
+        } finally {
+            userLock.unlock();
+        }
+    }
+
+    // Count (+1) or uncount (-1) a vote with its option and minute, and tell the listener.
+    // Always called with the poll's lock held; the vote's row may already be removed.
+    private void adjustTally(Long pollId, long voteId, int delta) {
+        Long optionId = votes.optionId(voteId);
+        Long minute = minuteOf(voteId);
+        addToTally(pollId, optionId, delta);
+        if (minute != null) {
+            turnout.add(pollId, Map.of(minute, delta));
+        }
+        listener.tallyChanged(pollId, optionId, minute, delta);
+    }
+
+    private void addToTurnout(Map<Long, Integer> turnoutDeltas, long voteId, int delta) {
+        Long minute = minuteOf(voteId);
+        if (minute != null) {
+            PollStoreListener.addDelta(turnoutDeltas, minute, delta);
+        }
+    }
+
+    // Minute the vote was published in, null for votes stored without a timestamp (millis 0)
+    private Long minuteOf(long voteId) {
+        long millis = votes.millis(voteId);
+        return millis != 0 ? VoteTimeline.Bucket.MINUTE.start(millis) : null;
+    }
+
+    private void addToTally(Long pollId, Long optionId, int delta) {
+        voteTallies.computeIfAbsent(pollId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(optionId, id -> new LongAdder())
+                .add(delta);
+    }
+
+    // Poll id a vote counts towards, or null if its option/poll is not resolved
+    static Long pollIdOf(Vote vote) {
+        if (vote.getVoteOption() == null || vote.getVoteOption().getPoll() == null) {
+            return null;
+        }
+        return vote.getVoteOption().getPoll().getId();
+    }
+}
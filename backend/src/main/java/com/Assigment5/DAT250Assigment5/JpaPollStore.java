@@ -0,0 +1,755 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.PollSummary;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceConfiguration;
+import jakarta.persistence.SharedCacheMode;
+import jakarta.persistence.TypedQuery;
+import org.hibernate.cfg.AvailableSettings;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * PollStore that persists through Hibernate (polls.store=jpa), so data survives
+ * restarts and is no longer bounded by the heap.
+ *
+ * Vote counts come from one grouped COUNT query per poll instead of running tallies.
+ * Votes and options get sequence ids, so with hibernate.jdbc.batch_size and ordered
+ * inserts a batch of votes is written in a few JDBC batches. Poll and VoteOption
+ * (read on every vote) live in the second-level cache (JCache on Caffeine).
+ *
+ * Associations are lazy; every read that hands entities to Jackson names what it needs
+ * with a fetch graph (see the @NamedEntityGraph on the entities), so a listing is one
+ * joined query instead of one extra select per creator, option or poll. GET /polls reads
+ * PollSummary projections instead of entities.
+ *
+ * Writes that change a poll's counts run under the same striped poll/user locks as
+ * InMemoryPollStore (poll first, then user), committed before the listener runs, so
+ * a Redis rebuild under the poll lock always reads the committed counts. The locks are
+ * per process: several backend nodes writing to one database are not coordinated.
+ */
+class JpaPollStore implements PollStore {
+    static final int JDBC_BATCH_SIZE = 50;
+    private static final int STREAM_CHUNK = 500;  // rows per query when streaming a list
+    private static final String FETCH_GRAPH = "jakarta.persistence.fetchgraph";
+
+    private final EntityManagerFactory emf;
+    private final StripedLocks pollLocks = new StripedLocks(64);
+    private final StripedLocks userLocks = new StripedLocks(64);
+
+    private volatile PollStoreListener listener = new PollStoreListener() {};
+    private volatile boolean singleVotePerPoll;
+    private volatile LongPredicate closedPolls = pollId -> false;
+
+    JpaPollStore(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    // Store on the given database; schemaAction is a hibernate.hbm2ddl.auto value (update, create-drop, ...)
+    static JpaPollStore create(String jdbcUrl, String user, String password, String schemaAction) {
+        return new JpaPollStore(configuration(jdbcUrl, user, password, schemaAction).createEntityManagerFactory());
+    }
+
+    static PersistenceConfiguration configuration(String jdbcUrl, String user, String password, String schemaAction) {
+        return new PersistenceConfiguration("polls")
+                .managedClass(Poll.class)
+                .managedClass(User.class)
+                .managedClass(Vote.class)
+                .managedClass(VoteOption.class)
+                .property(PersistenceConfiguration.JDBC_URL, jdbcUrl)
+                .property(PersistenceConfiguration.JDBC_USER, user)
+                .property(PersistenceConfiguration.JDBC_PASSWORD, password)
+                .property(AvailableSettings.HBM2DDL_AUTO, schemaAction)
+                // Batched writes: inserts of one entity type are grouped into JDBC batches
+                .property(AvailableSettings.STATEMENT_BATCH_SIZE, JDBC_BATCH_SIZE)
+                .property(AvailableSettings.ORDER_INSERTS, true)
+                .property(AvailableSettings.ORDER_UPDATES, true)
+                // Second-level cache for the entities marked @Cacheable (Poll, VoteOption)
+                .sharedCacheMode(SharedCacheMode.ENABLE_SELECTIVE)
+                .property(AvailableSettings.USE_SECOND_LEVEL_CACHE, true)
+                .property(AvailableSettings.CACHE_REGION_FACTORY, "jcache")
+                .property("hibernate.javax.cache.provider", "com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider")
+                .property("hibernate.javax.cache.missing_cache_strategy", "create");
+    }
+
+    EntityManagerFactory getEntityManagerFactory() {
+        return emf;
+    }
+
+    @Override
+    public void setListener(PollStoreListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setSingleVotePerPoll(boolean singleVotePerPoll) {
+        this.singleVotePerPoll = singleVotePerPoll;
+    }
+
+    @Override
+    public void setClosedPolls(LongPredicate closed) {
+        this.closedPolls = closed;
+    }
+
+    // Ids are generated by the database, which every node shares already
+    @Override
+    public void setIdLeases(IdSequence.Leases leases) {
+    }
+
+    @Override
+    public <T> T withPollLock(Long pollId, Supplier<T> action) {
+        return locked(pollLocks, pollId, action);
+    }
+
+    @Override
+    public void close() {
+        emf.close();
+    }
+
+    // User methods
+    @Override
+    public User createUser(User user) {
+        user.setId(null);  // always a new row, whatever the request said
+        emf.runInTransaction(em -> em.persist(user));
+        return user;
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return emf.callInTransaction(em -> em.createQuery("select u from User u order by u.id", User.class).getResultList());
+    }
+
+    @Override
+    public User getUser(Long id) {
+        return emf.callInTransaction(em -> em.find(User.class, id));
+    }
+
+    /**
+     * Deletes the user's polls, then its votes poll by poll (so every poll's counts are
+     * reported under that poll's lock), then the user. Polls or votes created by the user
+     * while this runs are found in the last step, under the user's lock, and trigger another round.
+     */
+    @Override
+    public int deleteUser(Long id, IntConsumer progress) {
+        int removed = 0;
+        while (true) {
+            List<Long> createdPollIds = emf.callInTransaction(em -> em.createQuery(
+                    "select p.id from Poll p where p.createdBy.id = :user", Long.class)
+                    .setParameter("user", id).getResultList());
+            for (Long pollId : createdPollIds) {
+                int pollRemoved = deletePoll(pollId);  // Cascade delete: polls created by this user
+                removed += pollRemoved;
+                progress.accept(pollRemoved);
+            }
+
+            List<Long> votedPollIds = emf.callInTransaction(em -> em.createQuery(
+                    "select distinct o.poll.id from Vote v join v.votesOn o where v.castBy.id = :user and o.poll is not null", Long.class)
+                    .setParameter("user", id).getResultList());
+            for (Long pollId : votedPollIds) {
+                int votesRemoved = deleteUserVotes(id, pollId);  // Cascade delete: votes cast by this user
+                removed += votesRemoved;
+                progress.accept(votesRemoved);
+            }
+
+            // rows removed, -1 to go round again
+            int last = locked(userLocks, id, () -> emf.callInTransaction(em -> {
+                if (em.find(User.class, id) == null) {
+                    return 0;
+                }
+                long leftovers = em.createQuery("select count(p) from Poll p where p.createdBy.id = :user", Long.class)
+                        .setParameter("user", id).getSingleResult()
+                        + em.createQuery("select count(v) from Vote v join v.votesOn o where v.castBy.id = :user and o.poll is not null", Long.class)
+                        .setParameter("user", id).getSingleResult();
+                if (leftovers > 0) {
+                    return -1;  // created while we were deleting, go round again
+                }
+                return em.createQuery("delete from Vote v where v.castBy.id = :user").setParameter("user", id).executeUpdate()  // uncounted votes
+                        + em.createQuery("delete from User u where u.id = :user").setParameter("user", id).executeUpdate();
+            }));
+            if (last >= 0) {
+                progress.accept(last);
+                return removed + last;
+            }
+        }
+    }
+
+    private int deleteUserVotes(Long userId, Long pollId) {
+        return locked(pollLocks, pollId, () -> locked(userLocks, userId, () -> {
+            Map<Long, Integer> deltas = new HashMap<>();
+            Map<Long, Integer> turnoutDeltas = new HashMap<>();
+            int removed = emf.callInTransaction(em -> {
+                em.createQuery("select v.votesOn.id, v.publishedAt, count(v) from Vote v where v.castBy.id = :user and v.votesOn.id in "
+                                + "(select o.id from VoteOption o where o.poll.id = :poll) group by v.votesOn.id, v.publishedAt", Object[].class)
+                        .setParameter("user", userId).setParameter("poll", pollId)
+                        .getResultList()
+                        .forEach(row -> {
+                            int uncounted = -((Long) row[2]).intValue();
+                            PollStoreListener.addDelta(deltas, (Long) row[0], uncounted);
+                            addToTurnout(turnoutDeltas, (String) row[1], uncounted);
+                        });
+                return em.createQuery("delete from Vote v where v.castBy.id = :user and v.votesOn.id in "
+                                + "(select o.id from VoteOption o where o.poll.id = :poll)")
+                        .setParameter("user", userId).setParameter("poll", pollId).executeUpdate();
+            });
+            if (!deltas.isEmpty()) {
+                listener.talliesChanged(pollId, deltas, turnoutDeltas);
+            }
+            return removed;
+        }));
+    }
+
+    // Poll methods
+    @Override
+    public Poll createPoll(Poll poll) {
+        prepareNewPoll(poll);
+        Long creatorId = poll.getCreator() != null ? poll.getCreator().getId() : null;
+        if (creatorId == null) {
+            poll.setCreator(null);
+            emf.runInTransaction(em -> em.persist(poll));  // the options cascade
+            return poll;
+        }
+        // Under the creator's lock, so a concurrent deleteUser either sees this poll or we no longer see the user
+        return locked(userLocks, creatorId, () -> emf.callInTransaction(em -> {
+            poll.setCreator(em.find(User.class, creatorId));  // complete user object, or no creator if it is gone
+            em.persist(poll);
+            return poll;
+        }));
+    }
+
+    // One transaction per creator in the batch (under that creator's lock, as in createPoll),
+    // plus one for the polls without a creator, instead of one per poll
+    @Override
+    public List<Poll> createPolls(List<Poll> batch) {
+        Map<Long, List<Poll>> byCreator = new LinkedHashMap<>();
+        List<Poll> anonymous = new ArrayList<>();
+        for (Poll poll : batch) {
+            prepareNewPoll(poll);
+            Long creatorId = poll.getCreator() != null ? poll.getCreator().getId() : null;
+            if (creatorId == null) {
+                poll.setCreator(null);
+                anonymous.add(poll);
+            } else {
+                byCreator.computeIfAbsent(creatorId, id -> new ArrayList<>()).add(poll);
+            }
+        }
+        if (!anonymous.isEmpty()) {
+            emf.runInTransaction(em -> anonymous.forEach(em::persist));
+        }
+        byCreator.forEach((creatorId, polls) -> locked(userLocks, creatorId, () -> emf.callInTransaction(em -> {
+            User creator = em.find(User.class, creatorId);
+            for (Poll poll : polls) {
+                poll.setCreator(creator);
+                em.persist(poll);
+            }
+            return null;
+        })));
+        return batch;
+    }
+
+    // Clear the ids and attach the options the poll was sent with, so persisting the poll stores them too
+    private static void prepareNewPoll(Poll poll) {
+        poll.setId(null);
+        List<VoteOption> options = PollStore.inlineOptions(poll);
+        for (VoteOption option : options) {
+            option.setId(null);
+            option.setPoll(poll);
+        }
+        poll.setVoteOptions(new ArrayList<>(options));
+    }
+
+    @Override
+    public List<Poll> getAllPolls() {
+        return emf.callInTransaction(em -> withGraph(em, em.createQuery(
+                "select p from Poll p order by p.id", Poll.class), Poll.WITH_CREATOR_AND_OPTIONS).getResultList());
+    }
+
+    @Override
+    public Poll getPoll(Long id) {
+        return emf.callInTransaction(em -> findPoll(em, id));
+    }
+
+    @Override
+    public int deletePoll(Long id) {
+        return locked(pollLocks, id, () -> {
+            int[] removed = emf.callInTransaction(em -> new int[] {
+                    deleteVotesOfPoll(em, id)
+                            + em.createQuery("delete from VoteOption o where o.poll.id = :poll").setParameter("poll", id).executeUpdate(),
+                    em.createQuery("delete from Poll p where p.id = :poll").setParameter("poll", id).executeUpdate()});
+            if (removed[1] == 0) {
+                return 0;
+            }
+            listener.votesCleared(id);
+            listener.pollDeleted(id);
+            return removed[0] + removed[1];
+        });
+    }
+
+    // Options cannot outlive their votes in the database, so the poll's votes go as well
+    @Override
+    public void deleteVoteOptionsByPollId(Long pollId) {
+        locked(pollLocks, pollId, () -> {
+            emf.runInTransaction(em -> {
+                deleteVotesOfPoll(em, pollId);
+                em.createQuery("delete from VoteOption o where o.poll.id = :poll").setParameter("poll", pollId).executeUpdate();
+            });
+            listener.votesCleared(pollId);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteVotesByPollId(Long pollId) {
+        locked(pollLocks, pollId, () -> {
+            emf.runInTransaction(em -> deleteVotesOfPoll(em, pollId));
+            listener.votesCleared(pollId);
+            return null;
+        });
+    }
+
+    private static int deleteVotesOfPoll(EntityManager em, Long pollId) {
+        return em.createQuery("delete from Vote v where v.poll.id = :poll or v.votesOn.id in "
+                        + "(select o.id from VoteOption o where o.poll.id = :poll)")
+                .setParameter("poll", pollId).executeUpdate();
+    }
+
+    // VoteOption methods (for poll options)
+    @Override
+    public VoteOption createVoteOption(VoteOption voteOption) {
+        voteOption.setId(null);
+        Long pollId = voteOption.getPoll() != null ? voteOption.getPoll().getId() : null;
+        if (pollId == null) {
+            voteOption.setPoll(null);
+            emf.runInTransaction(em -> em.persist(voteOption));
+            return voteOption;
+        }
+        return locked(pollLocks, pollId, () -> emf.callInTransaction(em -> {
+            Poll poll = findPoll(em, pollId);
+            voteOption.setPoll(poll);  // the full poll, or none if it does not exist
+            if (poll != null) {
+                poll.getVoteOptions().add(voteOption);  // keeps the cached options collection current
+            }
+            em.persist(voteOption);
+            return voteOption;
+        }));
+    }
+
+    @Override
+    public List<VoteOption> getAllVoteOptions() {
+        return emf.callInTransaction(em -> withGraph(em, em.createQuery(
+                "select o from VoteOption o order by o.id", VoteOption.class), VoteOption.WITH_POLL).getResultList());
+    }
+
+    @Override
+    public List<VoteOption> getVoteOptionsByPollId(Long pollId) {
+        return emf.callInTransaction(em -> withGraph(em, em.createQuery(
+                "select o from VoteOption o where o.poll.id = :poll order by o.id", VoteOption.class), VoteOption.WITH_POLL)
+                .setParameter("poll", pollId).getResultList());
+    }
+
+    // Vote methods
+    @Override
+    public Vote createVote(Vote vote) {
+        vote.setId(null);
+        vote.setPublishedAt(String.valueOf(System.currentTimeMillis()));  // Set current timestamp
+        Long optionId = vote.getVoteOption() != null ? vote.getVoteOption().getId() : null;
+        VoteOption option = optionId != null ? emf.callInTransaction(em -> em.find(VoteOption.class, optionId)) : null;
+        Long pollId = option != null && option.getPoll() != null ? option.getPoll().getId() : null;
+        if (pollId == null) {
+            storeVotes(List.of(vote), false, new HashMap<>());  // Not part of any poll, nothing to count
+            return vote;
+        }
+        return locked(pollLocks, pollId, () -> {
+            if (closedPolls.test(pollId)) {
+                throw new PollClosedException(pollId);
+            }
+            Map<Long, Integer> turnoutDeltas = new HashMap<>();
+            Map<Long, Integer> deltas = storeVotes(List.of(vote), false, turnoutDeltas);
+            if (!deltas.isEmpty() || !turnoutDeltas.isEmpty()) {
+                listener.talliesChanged(pollId, deltas, turnoutDeltas);  // Count it for its poll (and uncount the vote it replaced)
+            }
+            return vote;
+        });
+    }
+
+    /**
+     * Batch insert for the single writer (VoteBatchWriter), with the same rules as
+     * InMemoryPollStore.createVotes. The votes of one poll are written in one transaction
+     * (JDBC-batched) under the poll's lock and reported as one talliesChanged call.
+     */
+    @Override
+    public List<String> createVotes(List<Vote> batch) {
+        String[] rejections = new String[batch.size()];
+        String publishedAt = String.valueOf(System.currentTimeMillis());  // one timestamp for the whole batch
+
+        Set<Long> optionIds = new HashSet<>();
+        for (Vote vote : batch) {
+            if (vote != null && vote.getVoteOption() != null && vote.getVoteOption().getId() != null) {
+                optionIds.add(vote.getVoteOption().getId());
+            }
+        }
+        Map<Long, VoteOption> options = new HashMap<>();
+        if (!optionIds.isEmpty()) {
+            emf.callInTransaction(em -> em.createQuery("select o from VoteOption o where o.id in :ids", VoteOption.class)
+                    .setParameter("ids", optionIds).getResultList())
+                    .forEach(option -> options.put(option.getId(), option));
+        }
+
+        // Resolve the options once and group the votes by poll (null: options without a poll)
+        Map<Long, List<Integer>> positionsByPoll = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Vote vote = batch.get(i);
+            if (vote == null || vote.getVoteOption() == null || vote.getVoteOption().getId() == null) {
+                rejections[i] = "voteOption.id is required";
+                continue;
+            }
+            VoteOption option = options.get(vote.getVoteOption().getId());
+            if (option == null) {
+                rejections[i] = "unknown vote option " + vote.getVoteOption().getId();
+                continue;
+            }
+            vote.setId(null);
+            vote.setPublishedAt(publishedAt);
+            Long pollId = option.getPoll() != null ? option.getPoll().getId() : null;
+            positionsByPoll.computeIfAbsent(pollId, id -> new ArrayList<>()).add(i);
+        }
+
+        positionsByPoll.forEach((pollId, positions) -> {
+            List<Vote> group = new ArrayList<>(positions.size());
+            positions.forEach(i -> group.add(batch.get(i)));
+            Supplier<Void> write = () -> {
+                if (pollId != null && closedPolls.test(pollId)) {
+                    positions.forEach(i -> rejections[i] = "poll " + pollId + " is closed");
+                    return null;
+                }
+                Map<Long, Integer> turnoutDeltas = new HashMap<>();
+                Map<Long, Integer> deltas = storeVotes(group, true, turnoutDeltas);
+                for (int i : positions) {
+                    Vote vote = batch.get(i);
+                    if (vote.getId() == null) {
+                        rejections[i] = vote.getVoteOption() == null
+                                ? "poll " + pollId + " was deleted"
+                                : "unknown user " + vote.getUser().getId();
+                    }
+                }
+                if (pollId != null && (!deltas.isEmpty() || !turnoutDeltas.isEmpty())) {
+                    listener.talliesChanged(pollId, deltas, turnoutDeltas);  // once for all of this poll's votes
+                }
+                return null;
+            };
+            if (pollId == null) {
+                write.get();
+            } else {
+                locked(pollLocks, pollId, write);
+            }
+        });
+        return Arrays.asList(rejections);
+    }
+
+    /**
+     * Persists votes in one transaction under the lock of every user they name, so a concurrent
+     * deleteUser either sees them or they no longer see the user. Options and users are replaced
+     * by their stored versions; an option deleted meanwhile leaves the vote without one (strict:
+     * the vote is not stored), a missing user leaves it without one (strict: not stored).
+     * Returns the counted votes per option (and adds them to turnoutDeltas by minute);
+     * votes that were not stored keep a null id.
+     */
+    private Map<Long, Integer> storeVotes(List<Vote> group, boolean strict, Map<Long, Integer> turnoutDeltas) {
+        TreeSet<Long> userIds = new TreeSet<>();
+        for (Vote vote : group) {
+            if (vote.getUser() != null && vote.getUser().getId() != null) {
+                userIds.add(vote.getUser().getId());
+            }
+        }
+        List<ReentrantLock> held = new ArrayList<>();
+        for (Long userId : userIds) {
+            ReentrantLock userLock = userLocks.lockFor(userId);
+            userLock.lock();
+            held.add(userLock);
+        }
+        try {
+            return emf.callInTransaction(em -> {
+                Map<Long, Integer> deltas = new HashMap<>();
+                for (Vote vote : group) {
+                    VoteOption option = vote.getVoteOption() != null && vote.getVoteOption().getId() != null
+                            ? em.find(VoteOption.class, vote.getVoteOption().getId(), graph(em, VoteOption.WITH_POLL)) : null;
+                    User user = vote.getUser() != null && vote.getUser().getId() != null
+                            ? em.find(User.class, vote.getUser().getId()) : null;
+                    boolean userMissing = vote.getUser() != null && vote.getUser().getId() != null && user == null;
+                    if (strict && (option == null || userMissing)) {
+                        vote.setVoteOption(option);
+                        continue;
+                    }
+                    vote.setVoteOption(option);
+                    vote.setUser(user);
+                    em.persist(vote);
+                    if (option != null && option.getPoll() != null) {
+                        PollStoreListener.addDelta(deltas, option.getId(), 1);
+                        addToTurnout(turnoutDeltas, vote.getPublishedAt(), 1);
+                        if (singleVotePerPoll && user != null) {
+                            removePreviousVotes(em, vote, option.getPoll().getId(), deltas, turnoutDeltas);
+                        }
+                    }
+                }
+                return deltas;
+            });
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+    }
+
+    // Single vote per poll mode: the user's other votes in the poll, run with the poll's lock held
+    private static void removePreviousVotes(EntityManager em, Vote vote, Long pollId, Map<Long, Integer> deltas,
+                                            Map<Long, Integer> turnoutDeltas) {
+        List<Vote> previous = em.createQuery("select v from Vote v join fetch v.votesOn "
+                        + "where v.castBy.id = :user and v.votesOn.poll.id = :poll and v.id <> :id", Vote.class)
+                .setParameter("user", vote.getUser().getId())
+                .setParameter("poll", pollId)
+                .setParameter("id", vote.getId())
+                .getResultList();
+        for (Vote replaced : previous) {
+            em.remove(replaced);
+            PollStoreListener.addDelta(deltas, replaced.getVoteOption().getId(), -1);
+            addToTurnout(turnoutDeltas, replaced.getPublishedAt(), -1);
+        }
+    }
+
+    private static void addToTurnout(Map<Long, Integer> turnoutDeltas, String publishedAt, int delta) {
+        Long minute = VoteTimeline.minuteOf(publishedAt);
+        if (minute != null) {
+            PollStoreListener.addDelta(turnoutDeltas, minute, delta);
+        }
+    }
+
+    @Override
+    public void deleteVote(Long voteId) {
+        Vote vote = emf.callInTransaction(em -> em.find(Vote.class, voteId, graph(em, Vote.WITH_USER_AND_OPTION)));  // find the vote first
+        if (vote == null) {
+            return;
+        }
+        Long pollId = InMemoryPollStore.pollIdOf(vote);
+        if (pollId == null) {
+            emf.runInTransaction(em -> em.createQuery("delete from Vote v where v.id = :id")
+                    .setParameter("id", voteId).executeUpdate());
+            return;
+        }
+        locked(pollLocks, pollId, () -> {
+            int removed = emf.callInTransaction(em -> em.createQuery("delete from Vote v where v.id = :id")
+                    .setParameter("id", voteId).executeUpdate());
+            if (removed > 0) {  // someone else (e.g. a poll cascade) may have removed it first
+                listener.tallyChanged(pollId, vote.getVoteOption().getId(), VoteTimeline.minuteOf(vote.getPublishedAt()), -1);  // Uncount it
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<Vote> getAllVotes() {
+        return emf.callInTransaction(em -> withGraph(em, em.createQuery(
+                "select v from Vote v order by v.id", Vote.class), Vote.WITH_USER_AND_OPTION).getResultList());
+    }
+
+    @Override
+    public List<Vote> getVotesByPollId(Long pollId) {
+        return emf.callInTransaction(em -> withGraph(em, em.createQuery(
+                "select v from Vote v where v.votesOn.poll.id = :poll order by v.id", Vote.class), Vote.WITH_USER_AND_OPTION)
+                .setParameter("poll", pollId).getResultList());
+    }
+
+    @Override
+    public List<Vote> getVotesByOptionId(Long optionId) {
+        return emf.callInTransaction(em -> withGraph(em, em.createQuery(
+                "select v from Vote v where v.votesOn.id = :option order by v.id", Vote.class), Vote.WITH_USER_AND_OPTION)
+                .setParameter("option", optionId).getResultList());
+    }
+
+    // Streams read STREAM_CHUNK rows per query and transaction (keyset on the id), so no
+    // connection stays open while the caller consumes them and memory stays constant
+    @Override
+    public Stream<User> streamUsers(Long afterId) {
+        return chunked(afterId, User::getId, (em, after) -> em.createQuery(
+                "select u from User u where u.id > :after order by u.id", User.class)
+                .setParameter("after", after));
+    }
+
+    @Override
+    public Stream<Poll> streamPolls(Long creatorId, Long afterId) {
+        return chunked(afterId, Poll::getId, (em, after) -> em.createQuery(
+                "select p from Poll p left join fetch p.createdBy where p.id > :after and (:creator is null or p.createdBy.id = :creator) order by p.id", Poll.class)
+                .setParameter("after", after).setParameter("creator", creatorId), this::fetchOptions);
+    }
+
+    @Override
+    public Stream<VoteOption> streamVoteOptions(Long pollId, Long afterId) {
+        return chunked(afterId, VoteOption::getId, (em, after) -> withGraph(em, em.createQuery(
+                "select o from VoteOption o where o.id > :after and (:poll is null or o.poll.id = :poll) order by o.id", VoteOption.class), VoteOption.WITH_POLL)
+                .setParameter("after", after).setParameter("poll", pollId));
+    }
+
+    @Override
+    public Stream<Vote> streamVotes(Long pollId, Long userId, Long afterId) {
+        return chunked(afterId, Vote::getId, (em, after) -> withGraph(em, em.createQuery(
+                "select v from Vote v where v.id > :after and (:poll is null or v.votesOn.poll.id = :poll) "
+                        + "and (:user is null or v.castBy.id = :user) order by v.id", Vote.class), Vote.WITH_USER_AND_OPTION)
+                .setParameter("after", after).setParameter("poll", pollId).setParameter("user", userId));
+    }
+
+    // Two statements per STREAM_CHUNK polls, however many options, votes or creators there are
+    @Override
+    public Stream<PollSummary> streamPollSummaries(Long creatorId, Long afterId) {
+        return chunked(afterId, PollSummary::id, (em, after) -> em.createQuery(
+                "select new com.Assigment5.DAT250Assigment5.model.PollSummary(p.id, p.question, p.publishedAt, p.validUntil, "
+                        + "u.id, u.username, u.email) from Poll p left join p.createdBy u "
+                        + "where p.id > :after and (:creator is null or u.id = :creator) order by p.id", PollSummary.class)
+                .setParameter("after", after).setParameter("creator", creatorId), this::fetchOptionSummaries);
+    }
+
+    // Grouped COUNT instead of loading the votes
+    @Override
+    public Map<Long, Integer> countVotes(Long pollId) {
+        Map<Long, Integer> counts = new HashMap<>();
+        emf.callInTransaction(em -> em.createQuery(
+                "select v.votesOn.id, count(v) from Vote v where v.votesOn.poll.id = :poll group by v.votesOn.id", Object[].class)
+                .setParameter("poll", pollId).getResultList())
+                .forEach(row -> counts.put((Long) row[0], ((Long) row[1]).intValue()));
+        return counts;
+    }
+
+    // One grouped COUNT over all votes, a row per option with votes, handed on poll by poll
+    @Override
+    public void countAllVotes(BiConsumer<Long, Map<Long, Integer>> perPoll) {
+        List<Object[]> rows = emf.callInTransaction(em -> em.createQuery(
+                "select o.poll.id, o.id, count(v) from Vote v join v.votesOn o group by o.poll.id, o.id order by o.poll.id", Object[].class)
+                .getResultList());
+        Long pollId = null;
+        Map<Long, Integer> counts = new HashMap<>();
+        for (Object[] row : rows) {
+            if (!row[0].equals(pollId)) {
+                if (pollId != null) {
+                    perPoll.accept(pollId, counts);
+                    counts = new HashMap<>();
+                }
+                pollId = (Long) row[0];
+            }
+            counts.put((Long) row[1], ((Long) row[2]).intValue());
+        }
+        if (pollId != null) {
+            perPoll.accept(pollId, counts);
+        }
+    }
+
+    // Bucketed in the database: one row per bucket comes back, however many votes there are
+    @Override
+    public Map<Long, Integer> countVotesOverTime(Long pollId, VoteTimeline.Bucket bucket) {
+        String start = "cast(v.publishedAt as Long) / " + bucket.millis;
+        Map<Long, Integer> counts = new TreeMap<>();
+        emf.callInTransaction(em -> em.createQuery(
+                "select " + start + ", count(v) from Vote v where v.votesOn.poll.id = :poll and v.publishedAt is not null"
+                        + " and cast(v.publishedAt as Long) >= :cutoff group by " + start, Object[].class)
+                .setParameter("poll", pollId)
+                .setParameter("cutoff", bucket.cutoff(System.currentTimeMillis()))
+                .getResultList())
+                .forEach(row -> counts.put(((Number) row[0]).longValue() * bucket.millis, ((Long) row[1]).intValue()));
+        return counts;
+    }
+
+    // Initialize the options of a chunk of polls with one query (a collection fetch cannot be combined with a row limit)
+    private void fetchOptions(EntityManager em, List<Poll> polls) {
+        if (!polls.isEmpty()) {
+            em.createQuery("select p from Poll p left join fetch p.options where p in :polls", Poll.class)
+                    .setParameter("polls", polls).getResultList();
+        }
+    }
+
+    private void fetchOptionSummaries(EntityManager em, List<PollSummary> polls) {
+        if (polls.isEmpty()) {
+            return;
+        }
+        Map<Long, PollSummary> byId = new HashMap<>();
+        polls.forEach(poll -> byId.put(poll.id(), poll));
+        em.createQuery("select o.poll.id, o.id, o.caption, o.presentationOrder from VoteOption o "
+                        + "where o.poll.id in :polls order by o.id", Object[].class)
+                .setParameter("polls", byId.keySet())
+                .getResultList()
+                .forEach(row -> byId.get((Long) row[0]).voteOptions()
+                        .add(new PollSummary.Option((Long) row[1], (String) row[2], (Integer) row[3])));
+    }
+
+    // A query rather than em.find: a poll served from the second-level cache would come without its options
+    private static Poll findPoll(EntityManager em, Long id) {
+        return withGraph(em, em.createQuery("select p from Poll p where p.id = :id", Poll.class), Poll.WITH_CREATOR_AND_OPTIONS)
+                .setParameter("id", id).getResultStream().findFirst().orElse(null);
+    }
+
+    private static <T> TypedQuery<T> withGraph(EntityManager em, TypedQuery<T> query, String graphName) {
+        return query.setHint(FETCH_GRAPH, em.getEntityGraph(graphName));
+    }
+
+    private static Map<String, Object> graph(EntityManager em, String graphName) {
+        return Map.of(FETCH_GRAPH, em.getEntityGraph(graphName));
+    }
+
+    private <T> Stream<T> chunked(Long afterId, Function<T, Long> idOf, BiFunction<EntityManager, Long, TypedQuery<T>> query) {
+        return chunked(afterId, idOf, query, (em, chunk) -> {});
+    }
+
+    private <T> Stream<T> chunked(Long afterId, Function<T, Long> idOf, BiFunction<EntityManager, Long, TypedQuery<T>> query,
+                                  BiConsumer<EntityManager, List<T>> complete) {
+        Iterator<T> rows = new Iterator<>() {
+            private Iterator<T> current = Collections.emptyIterator();
+            private long cursor = afterId == null ? 0 : afterId;
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && !exhausted) {
+                    List<T> chunk = emf.callInTransaction(em -> {
+                        List<T> result = query.apply(em, cursor).setMaxResults(STREAM_CHUNK).getResultList();
+                        complete.accept(em, result);
+                        return result;
+                    });
+                    exhausted = chunk.size() < STREAM_CHUNK;
+                    if (!chunk.isEmpty()) {
+                        cursor = idOf.apply(chunk.get(chunk.size() - 1));
+                    }
+                    current = chunk.iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private static <T> T locked(StripedLocks locks, Long id, Supplier<T> action) {
+        ReentrantLock lock = locks.lockFor(id);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
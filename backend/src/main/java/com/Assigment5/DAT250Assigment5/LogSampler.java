@@ -0,0 +1,31 @@
+package com.Assigment5.DAT250Assigment5;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limit for log lines on hot paths: lets one message per interval through and counts
+ * the ones it drops, so debug logging on a busy node or a Redis outage (one warning per
+ * vote) cannot flood the log. The drop count goes out with the next message let through.
+ */
+final class LogSampler {
+    private final long intervalNanos;
+    private final AtomicLong nextAt = new AtomicLong(System.nanoTime());  // the first message goes through
+    private final LongAdder dropped = new LongAdder();
+
+    LogSampler(Duration interval) {
+        this.intervalNanos = interval.toNanos();
+    }
+
+    // -1: drop this message; otherwise log it, along with the number dropped since the last one
+    long sample() {
+        long now = System.nanoTime();
+        long next = nextAt.get();
+        if (now - next < 0 || !nextAt.compareAndSet(next, now + intervalNanos)) {
+            dropped.increment();
+            return -1;
+        }
+        return dropped.sumThenReset();
+    }
+}
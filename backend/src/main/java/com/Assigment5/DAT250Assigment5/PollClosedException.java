@@ -0,0 +1,12 @@
+package com.Assigment5.DAT250Assigment5;
+
+/**
+ * A vote for a poll that is past its validUntil (see PollExpiry). Thrown by createVote;
+ * batches report the same as a rejection instead.
+ */
+public class PollClosedException extends RuntimeException {
+
+    public PollClosedException(Long pollId) {
+        super("poll " + pollId + " is closed");
+    }
+}
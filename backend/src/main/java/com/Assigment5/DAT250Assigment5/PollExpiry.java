@@ -0,0 +1,89 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Closes polls at their validUntil. Closing times wait in a DelayQueue (a priority queue
+ * ordered by time), and one virtual thread takes each poll off it when it is due and
+ * hands it to onDue. Scheduling is O(log n) and nothing runs until the next poll is due.
+ * Polls deleted before their time are still handed over; onDue skips them. If onDue
+ * fails, the poll is tried again after RETRY_AFTER.
+ */
+final class PollExpiry implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(PollExpiry.class);
+    static final Duration RETRY_AFTER = Duration.ofSeconds(5);
+
+    private final DelayQueue<Closing> queue = new DelayQueue<>();
+    private final LongConsumer onDue;
+    private final Thread worker;
+
+    PollExpiry(LongConsumer onDue) {
+        this.onDue = onDue;
+        this.worker = Thread.ofVirtual().name("poll-expiry").start(this::run);
+    }
+
+    // Polls without a (readable) validUntil stay open; a time in the past closes the poll right away
+    void schedule(Poll poll) {
+        Instant closesAt = closingTime(poll);
+        if (closesAt != null) {
+            queue.put(new Closing(poll.getId(), closesAt.toEpochMilli()));
+        }
+    }
+
+    // validUntil as the frontend sends it (an ISO-8601 instant such as 2025-01-22T10:00:00Z), null if there is none
+    static Instant closingTime(Poll poll) {
+        if (poll.getValidUntil() == null || poll.getValidUntil().isBlank()) {
+            return null;
+        }
+        try {
+            return Instant.parse(poll.getValidUntil());
+        } catch (DateTimeException e) {
+            log.debug("Poll {} has an unreadable validUntil '{}' and stays open", poll.getId(), poll.getValidUntil());
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (true) {
+            Closing due;
+            try {
+                due = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                onDue.accept(due.pollId());
+            } catch (RuntimeException e) {
+                log.warn("Closing poll {} failed, retrying in {} s", due.pollId(), RETRY_AFTER.toSeconds(), e);
+                queue.put(new Closing(due.pollId(), System.currentTimeMillis() + RETRY_AFTER.toMillis()));
+            }
+        }
+    }
+
+    private record Closing(long pollId, long atMillis) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(atMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(atMillis, ((Closing) other).atMillis);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.Assigment5.DAT250Assigment5;
+
+/**
+ * Result of POST /polls/bulk: how many polls and vote options were stored, and the
+ * ids of the first and last poll (null if none). error is set if the import stopped at an
+ * entry it could not read; everything before that entry is stored.
+ */
+public record PollImport(int polls, int voteOptions, Long firstPollId, Long lastPollId, String error) {
+}
@@ -0,0 +1,119 @@
+package com.Assigment5.DAT250Assigment5;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPubSub;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+
+/**
+ * Redis pub/sub channel that tells the other backend nodes which poll changed,
+ * so they can evict their local caches for it.
+ *
+ * Messages are "nodeId:pollId"; a node ignores its own. The subscription runs on a
+ * daemon thread and reconnects with backoff when Redis goes away. Whenever the
+ * subscription is (re)established, onResync runs, because invalidations published
+ * while we were not listening are lost.
+ */
+class PollInvalidationBus implements AutoCloseable {
+    static final String CHANNEL = "polls:invalidate";
+
+    private static final Logger log = LoggerFactory.getLogger(PollInvalidationBus.class);
+
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final RedisGateway redis;
+    private final LongConsumer onRemoteChange;
+    private final Runnable onResync;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Thread listener;
+    private final LogSampler publishWarnings = new LogSampler(Duration.ofSeconds(10));  // every vote publishes
+    private final LogSampler messageWarnings = new LogSampler(Duration.ofSeconds(10));
+    private final LogSampler reconnectWarnings = new LogSampler(Duration.ofMinutes(1));  // a Redis outage retries for as long as it lasts
+
+    private volatile boolean running = true;
+    private volatile JedisPubSub subscription;
+
+    PollInvalidationBus(RedisGateway redis, LongConsumer onRemoteChange, Runnable onResync) {
+        this.redis = redis;
+        this.onRemoteChange = onRemoteChange;
+        this.onResync = onResync;
+        this.listener = new Thread(this::listen, "poll-invalidation-bus");
+        this.listener.setDaemon(true);
+        this.listener.start();
+    }
+
+    // Tell the other nodes that this poll changed; sent asynchronously, Redis errors are logged and ignored
+    void publish(Long pollId) {
+        redis.runAsync("publish", pollId, r -> r.publish(CHANNEL, nodeId + ":" + pollId)).whenComplete((ok, e) -> {
+            long skipped = e != null ? publishWarnings.sample() : -1;
+            if (skipped >= 0) {
+                log.warn("Redis PUBLISH failed ({} similar warnings suppressed): {}", skipped, e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        JedisPubSub current = subscription;
+        if (current != null && current.isSubscribed()) {
+            try {
+                current.unsubscribe();
+            } catch (Exception e) {
+                // connection already gone, the listener thread exits on its own
+            }
+        }
+        listener.interrupt();
+    }
+
+    private void listen() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running) {
+            JedisPubSub pubSub = new JedisPubSub() {
+                @Override
+                public void onSubscribe(String channel, int subscribedChannels) {
+                    onResync.run();
+                }
+
+                @Override
+                public void onMessage(String channel, String message) {
+                    int separator = message.lastIndexOf(':');
+                    if (separator < 0 || message.startsWith(nodeId + ":")) {
+                        return;  // malformed, or our own change
+                    }
+                    try {
+                        onRemoteChange.accept(Long.parseLong(message.substring(separator + 1)));
+                    } catch (NumberFormatException e) {
+                        long skipped = messageWarnings.sample();
+                        if (skipped >= 0) {
+                            log.warn("Ignoring invalidation message {} ({} similar warnings suppressed)", message, skipped);
+                        }
+                    }
+                }
+            };
+            subscription = pubSub;
+            try {
+                redis.jedis().subscribe(pubSub, CHANNEL);  // blocks until unsubscribed or the connection drops
+                backoff = MIN_BACKOFF_MILLIS;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                long skipped = reconnectWarnings.sample();
+                if (skipped >= 0) {
+                    log.warn("Invalidation bus disconnected, retrying in {} ms ({} similar warnings suppressed): {}", backoff, skipped, e.getMessage());
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+}
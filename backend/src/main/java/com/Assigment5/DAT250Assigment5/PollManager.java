@@ -2,37 +2,209 @@ package com.Assigment5.DAT250Assigment5;
 
 import com.Assigment5.DAT250Assigment5.model.User;
 import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.PollSummary;
 import com.Assigment5.DAT250Assigment5.model.Vote;
 import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.AbstractTransaction;
 import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.resps.Tuple;
 
 @Component
 public class PollManager {
-    private final Map<Long, User> users = new HashMap<>(); // key: user id
-    private final Map<Long, Poll> polls = new HashMap<>(); // key: poll id
-    private final Map<Long, Vote> votes = new HashMap<>(); // key: vote id
-    private final Map<Long, VoteOption> voteOptions = new HashMap<>(); // key vote option id
+    private static final Logger log = LoggerFactory.getLogger(PollManager.class);
 
-    private long userIdSeq = 1;
-    private long pollIdSeq = 1;
-    private long voteIdSeq = 1;
-    private long voteOptionIdSeq = 1;
+    // Users, polls, options and votes live here (in memory or JPA, see polls.store); safe for concurrent request threads
+    private final PollStore store;
 
     //private final JedisPooled jedis = new JedisPooled("localhost", 6379);
-    private final JedisPooled jedis;
+    // Every Redis call goes through here (timeouts, circuit breaker, async writes); null without Redis
+    private final RedisGateway redis;
 
-    public PollManager() {
-        JedisPooled tmp = null;
+    // Redis keys a write failed or was skipped for (Redis down, circuit open): their contents may be
+    // wrong, so reads go around them until the rebuild under the poll's lock has rewritten them
+    private final Set<String> staleKeys = ConcurrentHashMap.newKeySet();
+
+    // Keeps the local caches of other backend nodes coherent; null without Redis
+    private final PollInvalidationBus invalidationBus;
+
+    // Applies POST /votes/batch on a single thread, merging concurrent batches
+    private final VoteBatchWriter batchWriter;
+
+    // true: votes update poll:{id}:votes in place with HINCRBY; false: votes delete it and reads recompute
+    @Value("${polls.redis.counter-mode:true}")
+    private boolean counterMode = true;
+
+    // Idle expiry of counter hashes; every vote pushes it back, so hot polls never expire
+    @Value("${polls.redis.counter-ttl-seconds:3600}")
+    private int counterTtlSeconds = 3600;
+    static final int INVALIDATION_TTL_SECONDS = 60;  // expiry of the hashes reads write when counter mode is off
+
+    // Fill Redis with the counts of every poll right after startup (see warmUpResults)
+    @Value("${polls.redis.warm-up-on-startup:false}")
+    private boolean warmUpOnStartup;
+    static final int WARM_UP_BATCH_SIZE = 500;  // polls per pipelined round trip
+    private final AtomicReference<CompletableFuture<ResultsWarmUp>> runningWarmUp = new AtomicReference<>();
+
+    // Results loads in flight (L1 misses), by poll id: concurrent misses of a poll at the same
+    // generation share one Redis read or store count instead of each doing it (single flight)
+    private final Map<Long, ResultsLoad> resultsLoads = new ConcurrentHashMap<>();
+
+    private record ResultsLoad(long generation, CompletableFuture<Map<Long, Integer>> counts) {}
+
+    // In poll:{id}:final next to the option counts: the validUntil the results were frozen at,
+    // so a snapshot left over from an earlier poll with the same id is not taken for this one
+    static final String VALID_UNTIL_FIELD = "validUntil";
+    static final int IMPORT_BATCH_SIZE = 500;  // polls per store call (and transaction) in importPolls
+
+    // Final results of the polls closed at their validUntil (see closePoll); a poll is closed
+    // exactly while it has an entry here, which is what the store checks votes against
+    private final Map<Long, Map<Long, Integer>> finalResults = new ConcurrentHashMap<>();
+    private final PollExpiry expiry;
+
+    // This node's trending boards; Redis holds the ones of all nodes (polls:trending:*)
+    private final TrendingPolls trending = new TrendingPolls();
+
+    // Background user deletions (deleteUserInBackground), by user id; finished ones are kept for a while for their status
+    static final Duration USER_DELETION_RETENTION = Duration.ofHours(1);
+    private final Map<Long, UserDeletion> userDeletions = new ConcurrentHashMap<>();
+    private final ExecutorService cascades = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("user-delete-", 0).factory());
+
+    // L1: in-process results cache (Caffeine via spring.cache.*) in front of the Redis hashes (L2)
+    static final String RESULTS_CACHE = "pollResults";
+
+    @Autowired(required = false)
+    private CacheManager cacheManager;
+
+    // Bumped on every tally change of a poll; an L1 entry is only served while its generation is current,
+    // so a read that raced a vote can never re-insert counts from before that vote
+    private final Map<Long, Long> resultGenerations = new ConcurrentHashMap<>();
+
+    private record CachedResults(long generation, Map<Long, Integer> counts) {}
+
+    // Notified with the poll id whenever a poll's results may have changed (locally or on another node)
+    private final List<LongConsumer> resultsListeners = new CopyOnWriteArrayList<>();
+
+    // Operation, Redis and cache metrics (polls.*, see PollMetrics)
+    private final PollMetrics metrics;
+
+    // Results reads log at debug level and Redis failures warn once per vote, so both are sampled
+    private final LogSampler readLogs = new LogSampler(Duration.ofSeconds(1));
+    private final LogSampler redisWarnings = new LogSampler(Duration.ofSeconds(10));
+
+    @Autowired
+    public PollManager(PollStore store,
+                       @Value("${polls.redis.enabled:true}") boolean redisEnabled,
+                       @Value("${spring.data.redis.host:localhost}") String redisHost,
+                       @Value("${spring.data.redis.port:6379}") int redisPort,
+                       @Value("${polls.redis.timeout-ms:250}") long redisTimeoutMillis,
+                       @Value("${polls.redis.max-connections:64}") int redisMaxConnections,
+                       @Value("${polls.redis.breaker.failure-threshold:5}") int breakerFailureThreshold,
+                       @Value("${polls.redis.breaker.slow-call-ms:100}") long breakerSlowCallMillis,
+                       @Value("${polls.redis.breaker.open-ms:5000}") long breakerOpenMillis,
+                       ObjectProvider<MeterRegistry> meterRegistry) {
+        this(store,
+                redisEnabled ? connectRedis(redisHost, redisPort, Duration.ofMillis(redisTimeoutMillis), redisMaxConnections) : null,
+                meterRegistry.getIfAvailable(CompositeMeterRegistry::new),
+                new RedisCircuitBreaker(breakerFailureThreshold, Duration.ofMillis(breakerSlowCallMillis), Duration.ofMillis(breakerOpenMillis)));
+    }
+
+    // Used by tests to run against a given (or no) Redis connection with the in-memory store
+    PollManager(JedisPooled jedis) {
+        this(new InMemoryPollStore(), jedis);
+    }
+
+    // Without a registry: an empty composite registry records nothing
+    PollManager(PollStore store, JedisPooled jedis) {
+        this(store, jedis, new CompositeMeterRegistry());
+    }
+
+    PollManager(PollStore store, JedisPooled jedis, MeterRegistry meterRegistry) {
+        this(store, jedis, meterRegistry, new RedisCircuitBreaker(5, Duration.ofMillis(100), Duration.ofSeconds(5)));
+    }
+
+    PollManager(PollStore store, JedisPooled jedis, MeterRegistry meterRegistry, RedisCircuitBreaker breaker) {
+        this.store = store;
+        this.metrics = new PollMetrics(meterRegistry);
+        this.batchWriter = new VoteBatchWriter(store);
+        this.redis = jedis != null ? new RedisGateway(jedis, breaker, metrics) : null;
+        this.invalidationBus = redis != null
+                ? new PollInvalidationBus(redis, this::evictResults, this::evictAllResults)
+                : null;
+        store.setListener(new RedisVoteSync());
+        store.setClosedPolls(pollId -> finalResults.containsKey(pollId));
+        if (redis != null) {
+            store.setIdLeases((key, size) -> redis.call("incrby", r -> r.incrBy(key, size)));  // ids unique across the nodes
+        }
+        this.expiry = new PollExpiry(this::closePoll);
+        try (Stream<Poll> polls = store.streamPolls(null, null)) {
+            polls.forEach(expiry::schedule);  // recovered polls; those already past validUntil close right away
+        }
+    }
+
+    // Redis being down at startup no longer turns caching off for good: the pool connects
+    // lazily and the circuit breaker lets calls through again once Redis answers
+    private static JedisPooled connectRedis(String host, int port, Duration timeout, int maxConnections) {
+        JedisPooled jedis = RedisGateway.connect(host, port, timeout, maxConnections);
         try {
-            tmp = new JedisPooled("localhost", 6379);
-            tmp.ping(); // check connectivity
+            jedis.ping(); // check connectivity
         } catch (Exception e) {
-            tmp = null;
-            System.err.println("⚠ Redis not available — running without caching. Reason: " + e.getMessage());
+            log.warn("⚠ Redis not available at {}:{} — serving from the store until it is. Reason: {}", host, port, e.getMessage());
+        }
+        return jedis;
+    }
+
+    @PostConstruct
+    void warmUpInBackground() {
+        if (warmUpOnStartup && redis != null) {
+            Thread.ofVirtual().name("results-warm-up").start(() -> {
+                try {
+                    ResultsWarmUp result = warmUpResults();
+                    log.info("Warmed up the Redis results of {} polls in {} batches ({} ms)", result.polls(), result.batches(), result.millis());
+                } catch (RuntimeException e) {
+                    log.warn("Results warm-up failed, polls will be cached as they are read. Reason: {}", e.getMessage());
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        expiry.close();
+        cascades.close();  // lets running user deletions finish
+        batchWriter.close();
+        if (invalidationBus != null) {
+            invalidationBus.close();
+        }
+        if (redis != null) {
+            redis.close();
         }
-        this.jedis = tmp;
     }
 
     // User methods
@@ -40,41 +212,57 @@ public class PollManager {
         // Hibernate will assign ID on persist
         //String id = UUID.randomUUID().toString();  // Generate unique ID using UUID
         //user.setId(id);  // Set the generated ID on the user object
-        user.setId(userIdSeq++);  // assign next id
-
-        users.put(user.getId(), user); // Store user in the users map
-        return user;  // Return the created user with ID
+        return metrics.time("createUser", () -> store.createUser(user));  // Return the created user with ID
     }
 
     public List<User> getAllUsers() {
-        return new ArrayList<>(users.values());   // Return copy of all users as ArrayList
+        return store.getAllUsers();   // Return copy of all users as ArrayList
     }
 
     public User getUser(Long id) {
-        return users.get(id); // Return user from map or null if not found
+        return store.getUser(id); // Return user from map or null if not found
     }
 
     public void deleteUser(Long id) {
-        User user = users.get(id);
-        if (user != null) {
-            // Cascade delete: remove polls created by this user
-            for (Poll poll : new ArrayList<>(user.getCreatedPolls())) {
-                deletePoll(poll.getId());
-            }
-
-            // Cascade delete: remove votes cast by this user
-            for (Vote vote : new ArrayList<>(user.getVotes())) {
-                deleteVote(vote.getId());
-            }
+        // Cascade delete: polls created by and votes cast by this user go with it
+        metrics.time("deleteUser", () -> metrics.userDeleted(store.deleteUser(id)));
+    }
 
-            // Finally remove the user itself
-            users.remove(id);
+    // DELETE /users/{id}: the same cascade on a virtual thread of its own, so a user with
+    // 100k votes does not hold the request thread. Deleting a user whose deletion is still
+    // running returns that one instead of starting another.
+    public UserDeletion deleteUserInBackground(Long id) {
+        forgetOldUserDeletions();
+        UserDeletion[] started = new UserDeletion[1];
+        UserDeletion deletion = userDeletions.compute(id, (userId, current) ->
+                current != null && current.getState() == UserDeletion.State.RUNNING ? current : (started[0] = new UserDeletion(userId)));
+        if (started[0] != null) {
+            cascades.execute(() -> {
+                try {
+                    metrics.time("deleteUser", () -> metrics.userDeleted(store.deleteUser(id, started[0]::removed)));
+                    started[0].finished();
+                } catch (RuntimeException e) {
+                    log.error("Deleting user {} failed after {} entities", id, started[0].getRemoved(), e);
+                    started[0].failed(e);
+                }
+            });
         }
+        return deletion;
+    }
+
+    // The latest background deletion of the user, null if there was none (or it finished over USER_DELETION_RETENTION ago)
+    public UserDeletion getUserDeletion(Long id) {
+        return userDeletions.get(id);
+    }
+
+    private void forgetOldUserDeletions() {
+        Instant cutoff = Instant.now().minus(USER_DELETION_RETENTION);
+        userDeletions.values().removeIf(deletion -> deletion.getFinishedAt() != null && deletion.getFinishedAt().isBefore(cutoff));
     }
 
     // Helper method to find users by ID
     public User findUserById(Long userId) {
-        return users.get(userId);  // Return user from map or null if not found
+        return store.getUser(userId);  // Return user from map or null if not found
     }
 
     // Poll methods
@@ -82,77 +270,65 @@ public class PollManager {
         // Hibernate will assign ID on persist
         //String id = UUID.randomUUID().toString();  // Generate unique ID using UUID
         //poll.setId(id);   // Set the generated ID on the poll object
-        poll.setId(pollIdSeq++);
-
-        // Look up the full user object if only ID is provided
-        if (poll.getCreator() != null && poll.getCreator().getId() != null) {
-            User fullUser = users.get(poll.getCreator().getId());  // Get complete user object from storage
-            if (fullUser != null) {
-                poll.setCreator(fullUser); // Replace with complete user object (maintains relationship integrity)
-                fullUser.getCreatedPolls().add(poll); // Link poll directly to the correct user
-            }
-        }
+        Poll created = metrics.time("createPoll", () -> store.createPoll(poll));
+        expiry.schedule(created);
+        return created;
+    }
 
-        // ✅ PROCESS VOTEOPTIONS BUT DON'T RETURN THEM (to avoid duplicates)
-        if (poll.getVoteOptions() != null && !poll.getVoteOptions().isEmpty()) {
-            for (VoteOption option : poll.getVoteOptions()) {
-                // Set the poll reference for the options that came in the request
-                option.setPoll(poll);
-                // This ensures relationships are maintained even though we won't return these options
+    // Bulk import: polls are pulled from the iterator and stored IMPORT_BATCH_SIZE at a time,
+    // so a large import is never held in memory as a whole. An entry the iterator cannot
+    // produce (malformed input) ends the import; the batches before it stay stored.
+    public PollImport importPolls(Iterator<Poll> polls) {
+        List<Poll> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        int pollCount = 0;
+        int optionCount = 0;
+        Long firstId = null;
+        Long lastId = null;
+        String error = null;
+        while (error == null) {
+            batch.clear();
+            try {
+                while (batch.size() < IMPORT_BATCH_SIZE && polls.hasNext()) {
+                    batch.add(polls.next());
+                }
+            } catch (RuntimeException e) {
+                error = "Entry " + (pollCount + batch.size()) + ": " + e.getMessage();
             }
-
-            // ✅ CRITICAL: CLEAR THE VOTEOPTIONS FROM THE POLL RESPONSE
-            // This prevents the null-ID options from appearing in the JSON
-            poll.setVoteOptions(new ArrayList<>());
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (Poll poll : metrics.time("createPolls", () -> store.createPolls(batch))) {
+                expiry.schedule(poll);
+                firstId = firstId == null ? poll.getId() : firstId;
+                lastId = poll.getId();
+                optionCount += poll.getVoteOptions().size();
+            }
+            pollCount += batch.size();
         }
-
-        polls.put(poll.getId(), poll); // Store poll in the polls map
-
-        return poll;
+        return new PollImport(pollCount, optionCount, firstId, lastId, error);
     }
 
     public List<Poll> getAllPolls() {
-        return new ArrayList<>(polls.values());  // Return copy of all polls as ArrayList
+        return store.getAllPolls();  // Return copy of all polls as ArrayList
     }
 
     public Poll getPoll(Long id) {
-        return polls.get(id);  // Return poll from map or null if not found
+        return store.getPoll(id);  // Return poll from map or null if not found
     }
 
     public void deletePoll(Long id) {
-        Poll poll = polls.get(id);  // Get the poll to be deleted
-        if (poll != null) {
-            // Remove poll from creator's created polls (maintain relationship integrity)
-            if (poll.getCreator() != null) {
-                poll.getCreator().getCreatedPolls().remove(poll);  // Remove from user's created polls
-            }
-
-            // Delete associated votes (cascade delete)
-            deleteVotesByPollId(id);
-
-            // Delete associated vote options (cascade delete)
-            deleteVoteOptionsByPollId(id);
-
-            // Finally remove the poll itself
-            polls.remove(id);   // Remove poll from main storage
-        }
+        // Cascade delete: votes and vote options of the poll are removed as well
+        metrics.time("deletePoll", () -> metrics.pollDeleted(store.deletePoll(id)));
     }
 
     public void deleteVoteOptionsByPollId(Long pollId) {
         // Remove vote options associated with a poll when it's deleted
-        voteOptions.values().removeIf(voteOption ->  // Iterate through all vote options
-                voteOption.getPoll() != null &&  // Check if vote option has a poll reference
-                        voteOption.getPoll().getId().equals(pollId)  // Check if poll ID matches
-        );
+        store.deleteVoteOptionsByPollId(pollId);
     }
 
     public void deleteVotesByPollId(Long pollId) {
         // Remove votes associated with a poll when it's deleted
-        votes.values().removeIf(vote ->   // Iterate through all votes
-                vote.getVoteOption() != null &&  // Check if vote has a vote option reference
-                        vote.getVoteOption().getPoll() != null &&  // Check if vote option has a poll reference
-                        vote.getVoteOption().getPoll().getId().equals(pollId)  // Check if poll ID matches
-        );
+        store.deleteVotesByPollId(pollId);
     }
 
     // VoteOption methods (for poll options)
@@ -160,27 +336,15 @@ public class PollManager {
         // Hibernate will assign ID on persist
         //String id = UUID.randomUUID().toString();  // Generate unique ID using UUID
         //voteOption.setId(id);  // Set the generated ID on the vote option object
-        voteOption.setId(voteOptionIdSeq++);
-
-        if (voteOption.getPoll() != null && voteOption.getPoll().getId() != null) {
-            Poll poll = polls.get(voteOption.getPoll().getId());
-            if (poll != null) {
-                // Set the full poll object (not just the reference)
-                voteOption.setPoll(poll);
-                // Add this vote option to the poll's collection
-                if (poll.getVoteOptions() == null) {
-                    poll.setVoteOptions(new ArrayList<>());
-                }
-                poll.getVoteOptions().add(voteOption);
-            }
+        metrics.time("createVoteOption", () -> store.createVoteOption(voteOption));
+        if (voteOption.getPoll() != null) {
+            publishChange(voteOption.getPoll().getId());  // the poll's options changed
         }
-
-        voteOptions.put(voteOption.getId(), voteOption);  // Store vote option in the voteOptions map
         return voteOption;  // Return the created vote option with ID
     }
 
     public List<VoteOption> getAllVoteOptions() {
-        return new ArrayList<>(voteOptions.values());  // Return copy of all vote options as ArrayList
+        return store.getAllVoteOptions();  // Return copy of all vote options as ArrayList
     }
 
     // Vote methods
@@ -188,117 +352,724 @@ public class PollManager {
         // Hibernate will assign ID on persist
         //String id = UUID.randomUUID().toString();  // Generate unique ID using UUID
         //vote.setId(id);  // Set the generated ID on the vote object
-        vote.setId(voteIdSeq++);
+        // Resolves user and vote option, stores and counts the vote;
+        // the Redis cache (Assigment 5) is updated through RedisVoteSync
+        return metrics.time("createVote", () -> store.createVote(vote));
+    }
+
+    // Batch of votes through the single writer; blocks until the batch is applied.
+    // Throws IllegalArgumentException for oversized batches and RejectedExecutionException when the queue is full.
+    public List<VoteOutcome> createVotes(List<Vote> votes) {
+        return metrics.time("createVotes", () -> {
+            List<String> rejections = batchWriter.submit(votes).join();
+            List<VoteOutcome> outcomes = new ArrayList<>(votes.size());
+            int rejected = 0;
+            for (int i = 0; i < votes.size(); i++) {
+                String rejection = rejections.get(i);
+                outcomes.add(rejection == null ? VoteOutcome.created(i, votes.get(i)) : VoteOutcome.rejected(i, rejection));
+                rejected += rejection == null ? 0 : 1;
+            }
+            metrics.votesRejected(rejected);
+            return outcomes;
+        });
+    }
 
-        vote.setPublishedAt(String.valueOf(System.currentTimeMillis()));  // Set current timestamp
+    public void deleteVote(Long voteId) {
+        metrics.time("deleteVote", () -> store.deleteVote(voteId));  // uncounts the vote, Redis follows through RedisVoteSync
+    }
+
+    public List<Vote> getAllVotes() {
+        return store.getAllVotes();  // Return copy of all votes as ArrayList
+    }
+
+    // Per-poll/per-option lookups served from the store's indexes (no full scans)
+    public List<VoteOption> getVoteOptionsByPollId(Long pollId) {
+        return store.getVoteOptionsByPollId(pollId);
+    }
+
+    public List<Vote> getVotesByPollId(Long pollId) {
+        return store.getVotesByPollId(pollId);
+    }
+
+    public List<Vote> getVotesByOptionId(Long optionId) {
+        return store.getVotesByOptionId(optionId);
+    }
+
+    // Id-ordered, filterable views for the paginated and streaming list endpoints (see PollStore)
+    public Stream<User> findUsers(Long afterId) {
+        return store.streamUsers(afterId);
+    }
+
+    public Stream<Poll> findPolls(Long creatorId, Long afterId) {
+        return store.streamPolls(creatorId, afterId);
+    }
+
+    public Stream<PollSummary> findPollSummaries(Long creatorId, Long afterId) {
+        return store.streamPollSummaries(creatorId, afterId);
+    }
+
+    public Stream<VoteOption> findVoteOptions(Long pollId, Long afterId) {
+        return store.streamVoteOptions(pollId, afterId);
+    }
 
-        // PROPERLY SET USER RELATIONSHIP (resolve user reference)
-        if (vote.getUser() != null && vote.getUser().getId() != null) {
-            User user = users.get(vote.getUser().getId()); // Get complete user object from storage
-            if (user != null) {
-                vote.setUser(user); // Replace with full user object
-                user.getVotes().add(vote); // Add this vote to user's votes list (bidirectional relationship)
+    public Stream<Vote> findVotes(Long pollId, Long userId, Long afterId) {
+        return store.streamVotes(pollId, userId, afterId);
+    }
+
+    // Register for result changes; listeners may run under a poll lock, so they must only record the id
+    public void addResultsListener(LongConsumer listener) {
+        resultsListeners.add(listener);
+    }
+
+    //ASSIGMENT 5
+
+    // Get aggregated votes (from L1, Redis or the in-memory tallies)
+    public Map<Long, Integer> getVoteCountsForPoll(Long pollId) {
+        return metrics.time("getVoteCountsForPoll", () -> readVoteCounts(pollId));
+    }
+
+    private Map<Long, Integer> readVoteCounts(Long pollId) {
+        Map<Long, Integer> closed = finalResults.get(pollId);
+        if (closed != null) {
+            metrics.resultsRead("final");  // closed poll: the tally cannot change any more
+            return closed;
+        }
+        Cache l1 = cacheManager != null ? cacheManager.getCache(RESULTS_CACHE) : null;
+        long generation = resultGenerations.getOrDefault(pollId, 0L);
+        if (l1 != null) {
+            CachedResults cached = l1.get(pollId, CachedResults.class);
+            if (cached != null && cached.generation() == generation) {
+                metrics.resultsRead("l1");
+                return cached.counts();
+            }
+        }
+
+        Map<Long, Integer> counts = loadOnce(pollId, generation);
+        if (l1 != null) {
+            l1.put(pollId, new CachedResults(generation, counts));
+        }
+        return counts;
+    }
+
+    // Single flight: the first miss at a generation loads, concurrent ones wait for its result.
+    // A miss after a vote (a newer generation) never gets counts loaded before that vote
+    private Map<Long, Integer> loadOnce(Long pollId, long generation) {
+        ResultsLoad mine = new ResultsLoad(generation, new CompletableFuture<>());
+        ResultsLoad load = resultsLoads.compute(pollId,
+                (id, running) -> running != null && running.generation() == generation ? running : mine);
+        if (load != mine) {
+            metrics.resultsRead("shared");
+            try {
+                return load.counts().join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
             }
         }
+        try {
+            Map<Long, Integer> counts = Collections.unmodifiableMap(loadVoteCounts(pollId));
+            mine.counts().complete(counts);
+            return counts;
+        } catch (RuntimeException e) {
+            mine.counts().completeExceptionally(e);
+            throw e;
+        } finally {
+            resultsLoads.remove(pollId, mine);
+        }
+    }
 
-        // PROPERLY SET VOTEOPTION RELATIONSHIP (resolve vote option reference)
-        if (vote.getVoteOption() != null && vote.getVoteOption().getId() != null) {
-            VoteOption voteOption = voteOptions.get(vote.getVoteOption().getId());  // Get complete vote option
-            if (voteOption != null) {
-                vote.setVoteOption(voteOption); // Replace with full voteOption object
-                // The vote is properly connected to the voteOption and its poll
+    // L1 miss: read through Redis to the tallies
+    private Map<Long, Integer> loadVoteCounts(Long pollId) {
+        String redisKey = votesKey(pollId);
+
+        // 1. Try cache if Redis is available
+        if (redis != null && !staleKeys.contains(redisKey)) {
+            try {
+                // Counter hashes only exist when complete, so a single HGETALL tells hit from miss
+                if (counterMode || redis.call("exists", r -> r.exists(redisKey))) {
+                    Map<String, String> cached = redis.call("hgetall", r -> r.hgetAll(redisKey));
+                    if (!cached.isEmpty()) {
+                        logRead("Fetching aggregated votes for poll {} from Redis cache... ({} similar reads not logged)", pollId);
+                        metrics.resultsRead("redis");
+                        return parseCounts(cached);
+                    }
+                }
+            } catch (Exception e) {
+                // If Redis read fails, fallback to in-memory
+                warnRedis("read failed — computing in-memory", e);
             }
         }
 
-        // Invalidate cache for this poll (Assigment 5) — safe if Redis isn't available
-        if (vote.getVoteOption() != null && vote.getVoteOption().getPoll() != null) {
-            Long pollId = vote.getVoteOption().getPoll().getId();
-            String redisKey = "poll:" + pollId + ":votes";
-            if (jedis != null) {
+
+        // 2. Otherwise, read the running tallies (O(options), independent of total votes)
+        logRead("Computing aggregated votes for poll {} from in-memory store... ({} similar reads not logged)", pollId);
+        metrics.resultsRead("store");
+        if (counterMode && redis != null) {
+            // Rebuild path for cold or missing counters: snapshot and write them while no vote
+            // of this poll can be counted, so no concurrent HINCRBY is lost or applied twice
+            return store.withPollLock(pollId, () -> {
+                Map<Long, Integer> counts = store.countVotes(pollId);
                 try {
-                    jedis.del(redisKey);
+                    writeCounters(redisKey, counts);
                 } catch (Exception e) {
-                    // ignore Redis errors in tests/CI
-                    System.err.println("Warning: Redis DEL failed: " + e.getMessage());
+                    warnRedis("write failed; continuing without caching", e);
                 }
-            }
+                return counts;
+            });
+        }
+        Map<Long, Integer> counts = store.countVotes(pollId);
+
+        // 3. Store in Redis for next time, off the request thread
+        Map<String, String> redisHash = new HashMap<>();
+        counts.forEach((k, v) -> redisHash.put(String.valueOf(k), String.valueOf(v)));
+
+        if (!redisHash.isEmpty() && redis != null) {
+            redis.runAsync("hset", pollId, r -> {
+                r.hset(redisKey, redisHash);
+                r.expire(redisKey, INVALIDATION_TTL_SECONDS); // cache expires in 60 seconds
+            }).whenComplete((ok, e) -> {
+                if (e != null) {
+                    warnRedis("write failed; continuing without caching", e);
+                } else {
+                    staleKeys.remove(redisKey);
+                }
+            });
         }
 
-        votes.put(vote.getId(), vote); // Store vote in the votes map
-        return vote;
+
+        return counts;
     }
 
-    public void deleteVote(Long voteId) {
-        Vote vote = votes.get(voteId);  // find the vote first
-        if (vote != null) {
-            // maintain bidirectional relationship with user
-            if (vote.getUser() != null) {
-                vote.getUser().getVotes().remove(vote);
+    /**
+     * Writes the counts of every poll to Redis ahead of the reads, so a restart or a flushed
+     * Redis does not send the first read of each poll to the store at once. The counts come
+     * from one pass over the store (countAllVotes) and go out as DEL + HSET + EXPIRE,
+     * pipelined WARM_UP_BATCH_SIZE polls per round trip. A poll that took a vote meanwhile
+     * (its generation moved) may have been written with counts from before that vote, so it
+     * is rewritten under its lock like a cold counter. Closed polls are skipped.
+     * A warm-up started while one runs waits for that one and returns its result.
+     * Throws IllegalStateException without Redis, and the Redis failure if a batch fails.
+     */
+    public ResultsWarmUp warmUpResults() {
+        if (redis == null) {
+            throw new IllegalStateException("Redis is not enabled");
+        }
+        CompletableFuture<ResultsWarmUp> mine = new CompletableFuture<>();
+        CompletableFuture<ResultsWarmUp> running = runningWarmUp.compareAndExchange(null, mine);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
             }
-            // optional: you could also clean up from VoteOption if needed
+        }
+        try {
+            ResultsWarmUp result = metrics.time("warmUpResults", this::writeAllResults);
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            runningWarmUp.set(null);
+        }
+    }
 
-            votes.remove(voteId);  // remove from map
+    private ResultsWarmUp writeAllResults() {
+        long start = System.nanoTime();
+        // Taken before the counts: a poll whose generation differs afterwards had a tally change the counts may miss
+        Map<Long, Long> generations = new HashMap<>(resultGenerations);
+        Map<Long, Map<Long, Integer>> batch = new LinkedHashMap<>();
+        int[] totals = new int[3];  // polls, batches, rewritten
+        store.countAllVotes((pollId, counts) -> {
+            if (finalResults.containsKey(pollId)) {
+                return;  // served from poll:{id}:final
+            }
+            batch.put(pollId, counts);
+            if (batch.size() == WARM_UP_BATCH_SIZE) {
+                writeWarmUpBatch(batch, generations, totals);
+            }
+        });
+        if (!batch.isEmpty()) {
+            writeWarmUpBatch(batch, generations, totals);
         }
+        return new ResultsWarmUp(totals[0], totals[1], totals[2], Duration.ofNanos(System.nanoTime() - start).toMillis());
     }
 
-    public List<Vote> getAllVotes() {
-        return new ArrayList<>(votes.values());  // Return copy of all votes as ArrayList
+    private void writeWarmUpBatch(Map<Long, Map<Long, Integer>> batch, Map<Long, Long> generations, int[] totals) {
+        int ttl = counterMode ? counterTtlSeconds : INVALIDATION_TTL_SECONDS;
+        redis.run("pipeline", r -> {
+            try (AbstractPipeline pipeline = r.pipelined()) {
+                batch.forEach((pollId, counts) -> {
+                    String redisKey = votesKey(pollId);
+                    pipeline.del(redisKey);
+                    if (!counts.isEmpty()) {
+                        Map<String, String> redisHash = new HashMap<>();
+                        counts.forEach((k, v) -> redisHash.put(String.valueOf(k), String.valueOf(v)));
+                        pipeline.hset(redisKey, redisHash);
+                        pipeline.expire(redisKey, ttl);
+                    }
+                });
+                pipeline.sync();
+            }
+        });
+        for (Long pollId : batch.keySet()) {
+            // Under the lock: a vote counted before the batch was written has bumped the generation by now
+            boolean changed = store.withPollLock(pollId, () -> {
+                String redisKey = votesKey(pollId);
+                if (resultGenerations.getOrDefault(pollId, 0L).equals(generations.getOrDefault(pollId, 0L))) {
+                    staleKeys.remove(redisKey);  // written from counts no vote has changed since
+                    return false;
+                }
+                if (counterMode) {
+                    writeCounters(redisKey, store.countVotes(pollId));
+                }
+                return true;
+            });
+            if (changed) {
+                if (counterMode) {
+                    evictResults(pollId);  // a read may have cached what the batch wrote
+                    publishChange(pollId);
+                } else {
+                    deleteAsync(pollId, votesKey(pollId));  // the next read recomputes, as after any vote
+                }
+                totals[2]++;
+            }
+        }
+        totals[0] += batch.size();
+        totals[1]++;
+        batch.clear();
     }
 
-    //ASSIGMENT 5
+    // True once the poll reached its validUntil and its results were frozen
+    public boolean isClosed(Long pollId) {
+        return finalResults.containsKey(pollId);
+    }
 
-    // Get aggregated votes (from cache or compute)
-    public Map<Long, Integer> getVoteCountsForPoll(Long pollId) {
-        String redisKey = "poll:" + pollId + ":votes";
+    /**
+     * Closes a poll that reached its validUntil (PollExpiry calls this). The final tally is
+     * taken under the poll's lock together with the close, so no vote is counted after it,
+     * and kept for good: in memory, and in Redis as poll:{id}:final without an expiry. Results
+     * of the poll are served from it from then on, without touching votes, counters or L1.
+     * A snapshot already in Redis (written before a restart, or by another node) is used as is.
+     */
+    void closePoll(long pollId) {
+        Poll poll = store.getPoll(pollId);
+        if (poll == null || finalResults.containsKey(pollId)) {
+            return;
+        }
+        Map<Long, Integer> stored = readFinalResults(poll);
+        Map<Long, Integer> counts = store.withPollLock(pollId, () -> {
+            if (store.getPoll(pollId) == null) {
+                return null;  // deleted before it was due
+            }
+            Map<Long, Integer> result = Map.copyOf(stored != null ? stored : store.countVotes(pollId));
+            finalResults.put(pollId, result);
+            return result;
+        });
+        if (counts == null) {
+            return;
+        }
+        if (stored == null && redis != null) {
+            Map<String, String> redisHash = new HashMap<>();
+            counts.forEach((k, v) -> redisHash.put(String.valueOf(k), String.valueOf(v)));
+            redisHash.put(VALID_UNTIL_FIELD, poll.getValidUntil());  // also gives a poll without votes a hash
+            redis.runAsync("hset", pollId, r -> {
+                r.hset(finalKey(pollId), redisHash);
+                r.del(votesKey(pollId));  // the live counters are not read any more
+            }).whenComplete((ok, e) -> {
+                if (e != null) {
+                    warnRedis("final results write failed; kept in memory only", e);
+                }
+            });
+        }
+        evictResults(pollId);  // results listeners push the final counts
+        publishChange(pollId);
+        log.debug("Poll {} closed with {} votes", pollId, counts.values().stream().mapToInt(Integer::intValue).sum());
+    }
 
-        // 1. Try cache if Redis is available
-        if (jedis != null) {
+    // The final results another node or an earlier run stored, null if there are none (or Redis cannot tell)
+    private Map<Long, Integer> readFinalResults(Poll poll) {
+        if (redis == null) {
+            return null;
+        }
+        try {
+            Map<String, String> hash = redis.call("hgetall", r -> r.hgetAll(finalKey(poll.getId())));
+            if (!Objects.equals(hash.remove(VALID_UNTIL_FIELD), poll.getValidUntil())) {
+                return null;
+            }
+            return parseCounts(hash);
+        } catch (Exception e) {
+            warnRedis("final results read failed — counting from the store", e);
+            return null;
+        }
+    }
+
+    /**
+     * The polls with the most votes in the window (5m, 1h or 24h), decayed so that a vote
+     * counts half as much after every window; highest score first.
+     * Read from the polls:trending:{window}:{epoch} sorted sets that votes bump (see TrendingPolls),
+     * or from this node's boards without Redis: O(log n + limit) either way, no votes are counted.
+     * Throws IllegalArgumentException for another window or a limit outside 1..100.
+     */
+    public List<TrendingPoll> getTrendingPolls(String windowLabel, int limit) {
+        TrendingPolls.Window window = TrendingPolls.Window.parse(windowLabel);
+        if (limit < 1 || limit > TrendingPolls.MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + TrendingPolls.MAX_LIMIT);
+        }
+        return metrics.time("getTrendingPolls", () -> readTrending(window, limit));
+    }
+
+    private List<TrendingPoll> readTrending(TrendingPolls.Window window, int limit) {
+        long now = System.currentTimeMillis();
+        long epoch = window.epoch(now);
+        List<TrendingPolls.Entry> top = null;
+        if (redis != null) {
             try {
-                if (jedis.exists(redisKey)) {
-                    System.out.println("Fetching aggregated votes for poll " + pollId + " from Redis cache...");
-                    Map<String, String> cached = jedis.hgetAll(redisKey);
+                List<Tuple> ranked = redis.call("zrevrange", r -> r.zrevrangeWithScores(window.key(epoch), 0, limit - 1));
+                top = new ArrayList<>(ranked.size());
+                for (Tuple tuple : ranked) {
+                    top.add(new TrendingPolls.Entry(Long.parseLong(tuple.getElement()), tuple.getScore()));
+                }
+            } catch (Exception e) {
+                warnRedis("trending read failed — using this node's votes", e);
+            }
+        }
+        if (top == null) {
+            top = trending.top(window, limit, now);
+        }
+        List<TrendingPoll> polls = new ArrayList<>(top.size());
+        for (TrendingPolls.Entry entry : top) {
+            Poll poll = store.getPoll(entry.pollId());
+            if (poll != null) {  // deleted while its removal from Redis was still queued
+                double score = window.decayed(epoch, entry.score(), now);
+                polls.add(new TrendingPoll(poll.getId(), poll.getQuestion(), Math.round(score * 1000) / 1000.0));
+            }
+        }
+        return polls;
+    }
+
+    /**
+     * Turnout of a poll over time: bucket start (epoch millis) -> counted votes, oldest first.
+     * Served from the poll:{id}:turnout:{bucket} sorted sets (member: bucket start, score: votes)
+     * that votes update in the same transaction as the counters, or from the store's buckets;
+     * neither scans the votes. Minute buckets go back 48 hours.
+     * Throws IllegalArgumentException for a bucket other than 1m or 1h.
+     */
+    public Map<Long, Integer> getVoteTimeline(Long pollId, String bucketLabel) {
+        VoteTimeline.Bucket bucket = VoteTimeline.Bucket.parse(bucketLabel);
+        return metrics.time("getVoteTimeline", () -> readVoteTimeline(pollId, bucket));
+    }
 
-                    Map<Long, Integer> result = new HashMap<>();
-                    cached.forEach((k, v) -> result.put(Long.valueOf(k), Integer.valueOf(v)));
-                    return result;
+    private Map<Long, Integer> readVoteTimeline(Long pollId, VoteTimeline.Bucket bucket) {
+        if (redis == null || !counterMode) {
+            return store.countVotesOverTime(pollId, bucket);  // only counter mode mirrors the turnout
+        }
+        String redisKey = turnoutKey(pollId, bucket);
+        if (!staleKeys.contains(redisKey)) {
+            try {
+                List<Tuple> cached = redis.call("zrange", r -> r.zrangeWithScores(redisKey, 0, -1));
+                if (!cached.isEmpty()) {
+                    return parseTurnout(pollId, redisKey, cached, bucket);
                 }
             } catch (Exception e) {
-                // If Redis read fails, fallback to in-memory
-                System.err.println("Warning: Redis read failed — computing in-memory. Reason: " + e.getMessage());
+                warnRedis("read failed — computing in-memory", e);
             }
         }
+        // Cold or missing: snapshot and write the buckets while no vote of this poll can be counted
+        return store.withPollLock(pollId, () -> {
+            Map<Long, Integer> counts = store.countVotesOverTime(pollId, bucket);
+            try {
+                writeTurnout(redisKey, counts);
+            } catch (Exception e) {
+                warnRedis("write failed; continuing without caching", e);
+            }
+            return counts;
+        });
+    }
+
+    // Drop the poll's L1 entry; called under the poll's lock whenever its counts change,
+    // and by the invalidation bus when another node changed the poll
+    private void evictResults(long pollId) {
+        resultGenerations.merge(pollId, 1L, Long::sum);
+        Cache l1 = cacheManager != null ? cacheManager.getCache(RESULTS_CACHE) : null;
+        if (l1 != null) {
+            l1.evict(pollId);
+        }
+        for (LongConsumer listener : resultsListeners) {
+            listener.accept(pollId);
+        }
+    }
 
+    // After a gap in the invalidation bus anything cached locally may be stale
+    private void evictAllResults() {
+        Cache l1 = cacheManager != null ? cacheManager.getCache(RESULTS_CACHE) : null;
+        if (l1 != null) {
+            l1.clear();
+        }
+    }
 
-        // 2. Otherwise, compute manually
-        System.out.println("Computing aggregated votes for poll " + pollId + " from in-memory store...");
-        Map<Long, Integer> counts = new HashMap<>();
+    private void publishChange(Long pollId) {
+        if (invalidationBus != null) {
+            invalidationBus.publish(pollId);
+        }
+    }
 
-        for (Vote vote : votes.values()) {
-            if (vote.getVoteOption() != null
-                    && vote.getVoteOption().getPoll() != null
-                    && vote.getVoteOption().getPoll().getId().equals(pollId)) {
-                Long optionId = vote.getVoteOption().getId();
-                counts.put(optionId, counts.getOrDefault(optionId, 0) + 1);
+    // Debug line for a results read (message has placeholders for the poll id and the skipped count),
+    // at most one per second so debug logging stays usable under load
+    private void logRead(String message, Long pollId) {
+        if (log.isDebugEnabled()) {
+            long skipped = readLogs.sample();
+            if (skipped >= 0) {
+                log.debug(message, pollId, skipped);
             }
         }
+    }
 
-        // 3. Store in Redis for next time
-        Map<String, String> redisHash = new HashMap<>();
-        counts.forEach((k, v) -> redisHash.put(String.valueOf(k), String.valueOf(v)));
+    // Redis being down fails every read and vote; one warning per 10 seconds is enough to notice.
+    // Calls skipped while the circuit is open are not warned about (the breaker logs when it opens)
+    private void warnRedis(String what, Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof RejectedExecutionException) {
+            return;
+        }
+        long skipped = redisWarnings.sample();
+        if (skipped >= 0) {
+            log.warn("Redis {} ({} similar warnings suppressed). Reason: {}", what, skipped, e.getMessage());
+        }
+    }
 
-        if (!redisHash.isEmpty() && jedis != null) {
-            try {
-                jedis.hset(redisKey, redisHash);
-                jedis.expire(redisKey, 60); // cache expires in 60 seconds
-            } catch (Exception e) {
-                System.err.println("Warning: Redis write failed; continuing without caching. Reason: " + e.getMessage());
+    private static String votesKey(Long pollId) {
+        return "poll:" + pollId + ":votes";
+    }
+
+    private static String finalKey(Long pollId) {
+        return "poll:" + pollId + ":final";
+    }
+
+    private static String turnoutKey(Long pollId, VoteTimeline.Bucket bucket) {
+        return "poll:" + pollId + ":turnout:" + bucket.label;
+    }
+
+    // Redis hash (option id -> count) to result map; options counted down to zero are left out
+    private static Map<Long, Integer> parseCounts(Map<String, String> hash) {
+        Map<Long, Integer> result = new HashMap<>();
+        hash.forEach((k, v) -> {
+            int count = Integer.parseInt(v);
+            if (count > 0) {
+                result.put(Long.valueOf(k), count);
             }
+        });
+        return result;
+    }
+
+    // Sorted set (bucket start -> votes) to a timeline; minutes that rolled off are removed from Redis on the way
+    private Map<Long, Integer> parseTurnout(Long pollId, String redisKey, List<Tuple> buckets, VoteTimeline.Bucket bucket) {
+        long cutoff = bucket.cutoff(System.currentTimeMillis());
+        Map<Long, Integer> result = new TreeMap<>();
+        List<String> expired = new ArrayList<>();
+        for (Tuple tuple : buckets) {
+            long start = Long.parseLong(tuple.getElement());
+            int count = (int) tuple.getScore();
+            if (start < cutoff) {
+                expired.add(tuple.getElement());
+            } else if (count > 0) {
+                result.put(start, count);
+            }
+        }
+        if (!expired.isEmpty()) {
+            redis.runAsync("zrem", pollId, r -> r.zrem(redisKey, expired.toArray(String[]::new)));  // cleanup nobody waits for
         }
+        return result;
+    }
 
+    // Rewrite a turnout set from the store's buckets; called under the poll's lock
+    private void writeTurnout(String redisKey, Map<Long, Integer> counts) {
+        if (counts.isEmpty()) {
+            redis.call("del", r -> r.del(redisKey));
+        } else {
+            Map<String, Double> members = new HashMap<>();
+            counts.forEach((start, count) -> members.put(String.valueOf(start), (double) count));
+            redis.run("multi", r -> {
+                try (AbstractTransaction tx = r.multi()) {
+                    tx.del(redisKey);
+                    tx.zadd(redisKey, members);
+                    tx.expire(redisKey, counterTtlSeconds);
+                    tx.exec();
+                }
+            });
+        }
+        staleKeys.remove(redisKey);
+    }
 
-        return counts;
+    // Replace the counter hash with the given counts in one MULTI/EXEC round trip; called under the poll's lock
+    private void writeCounters(String redisKey, Map<Long, Integer> counts) {
+        if (counts.isEmpty()) {
+            redis.call("del", r -> r.del(redisKey));  // nothing to count: the next vote or read starts from scratch
+        } else {
+            Map<String, String> redisHash = new HashMap<>();
+            counts.forEach((k, v) -> redisHash.put(String.valueOf(k), String.valueOf(v)));
+            redis.run("multi", r -> {
+                try (AbstractTransaction tx = r.multi()) {
+                    tx.del(redisKey);
+                    tx.hset(redisKey, redisHash);
+                    tx.expire(redisKey, counterTtlSeconds);
+                    tx.exec();
+                }
+            });
+        }
+        staleKeys.remove(redisKey);
+    }
+
+    // Fire-and-forget DEL. L1 is evicted again once it ran, in case a read cached the old
+    // contents in the meantime; keys it could not delete are marked stale
+    private void deleteAsync(Long pollId, String... redisKeys) {
+        redis.runAsync("del", pollId, r -> r.del(redisKeys)).whenComplete((ok, e) -> {
+            if (e != null) {
+                staleKeys.addAll(Arrays.asList(redisKeys));
+                warnRedis("DEL failed", e);
+            }
+            evictResults(pollId);
+        });
     }
 
+    /**
+     * Mirrors tally changes into the L1 cache and Redis, and tells the other nodes.
+     * Runs under the poll's lock (see PollStoreListener),
+     * so the counter of a poll sees its increments in order and never races the rebuild.
+     * That is why the counter update stays on the voting thread (bounded by the Redis timeout
+     * and skipped while the circuit is open), while deletes and the invalidation message,
+     * which nothing has to be ordered against, go out asynchronously.
+     */
+    private class RedisVoteSync implements PollStoreListener {
+
+        // L1 is evicted after Redis has the new counts, so a read that starts after the
+        // eviction cannot pick up (and cache) the old Redis value.
+        // Batches: all option counters and turnout buckets of the poll in one transaction, one eviction and one message
+        @Override
+        public void talliesChanged(Long pollId, Map<Long, Integer> deltas, Map<Long, Integer> turnoutDeltas) {
+            long now = System.currentTimeMillis();
+            int cast = TrendingPolls.votesCast(deltas);
+            if (cast > 0) {
+                trending.add(pollId, cast, now);
+            }
+            updateCounters(pollId, deltas, turnoutDeltas, cast, now);
+            evictResults(pollId);
+            publishChange(pollId);
+        }
+
+        // The final results and trending scores go with the poll; called under its lock, so closePoll cannot put them back
+        @Override
+        public void pollDeleted(Long pollId) {
+            trending.remove(pollId);
+            if (redis == null) {
+                finalResults.remove(pollId);
+                return;
+            }
+            if (finalResults.remove(pollId) != null) {
+                deleteAsync(pollId, finalKey(pollId));
+            }
+            List<String> trendingKeys = TrendingPolls.keys(System.currentTimeMillis());
+            redis.runAsync("zrem", pollId, r -> {
+                try (AbstractTransaction tx = r.multi()) {
+                    trendingKeys.forEach(key -> tx.zrem(key, String.valueOf(pollId)));
+                    tx.exec();
+                }
+            }).whenComplete((ok, e) -> {
+                if (e != null) {
+                    warnRedis("trending cleanup failed", e);  // reads skip polls that are gone
+                }
+            });
+        }
+
+        @Override
+        public void votesCleared(Long pollId) {
+            if (redis != null) {
+                String[] keys = {votesKey(pollId), turnoutKey(pollId, VoteTimeline.Bucket.MINUTE), turnoutKey(pollId, VoteTimeline.Bucket.HOUR)};
+                Arrays.asList(keys).forEach(staleKeys::remove);  // the poll is gone; marked again if the DEL fails
+                deleteAsync(pollId, keys);
+            }
+            evictResults(pollId);
+            publishChange(pollId);
+        }
 
+        private void updateCounters(Long pollId, Map<Long, Integer> deltas, Map<Long, Integer> turnoutDeltas, int cast, long now) {
+            if (redis == null) {
+                return;
+            }
+            String redisKey = votesKey(pollId);
+            if (!counterMode) {
+                deleteAsync(pollId, redisKey);  // invalidate; the next read recomputes
+                if (cast > 0) {
+                    redis.runAsync("zincrby", pollId, r -> {
+                        try (AbstractTransaction tx = r.multi()) {
+                            TrendingPolls.add(tx, pollId, cast, now);
+                            tx.exec();
+                        }
+                    }).whenComplete((ok, e) -> {
+                        if (e != null) {
+                            warnRedis("trending update failed", e);
+                        }
+                    });
+                }
+                return;
+            }
+            Map<VoteTimeline.Bucket, Map<Long, Integer>> turnout = new EnumMap<>(VoteTimeline.Bucket.class);
+            for (VoteTimeline.Bucket bucket : VoteTimeline.Bucket.values()) {
+                Map<Long, Integer> bucketDeltas = bucket.rollUp(turnoutDeltas);
+                if (!bucketDeltas.isEmpty()) {
+                    turnout.put(bucket, bucketDeltas);
+                }
+            }
+            try {
+                // Pipelined: bump the counters and turnout buckets and push back their idle expiry in one round trip.
+                // Stale keys are not bumped: they are rewritten from the store below, which brings them back in sync
+                Map<String, Response<Boolean>> existed = new HashMap<>();  // key -> whether it was there before the increments
+                redis.run("multi", r -> {
+                    try (AbstractTransaction tx = r.multi()) {
+                        if (!deltas.isEmpty() && !staleKeys.contains(redisKey)) {
+                            existed.put(redisKey, tx.exists(redisKey));
+                            deltas.forEach((optionId, delta) -> tx.hincrBy(redisKey, String.valueOf(optionId), delta));
+                            tx.expire(redisKey, counterTtlSeconds);
+                        }
+                        if (cast > 0) {
+                            TrendingPolls.add(tx, pollId, cast, now);  // a missed bump only undercounts, nothing to rebuild
+                        }
+                        turnout.forEach((bucket, bucketDeltas) -> {
+                            String key = turnoutKey(pollId, bucket);
+                            if (!staleKeys.contains(key)) {
+                                existed.put(key, tx.exists(key));
+                                bucketDeltas.forEach((start, delta) -> tx.zincrby(key, delta, String.valueOf(start)));
+                                tx.expire(key, counterTtlSeconds);
+                            }
+                        });
+                        tx.exec();
+                    }
+                });
+                if (!deltas.isEmpty() && mustRewrite(existed, redisKey)) {
+                    // Cold key: HINCRBY just created a partial hash, overwrite it with the full tally
+                    writeCounters(redisKey, store.countVotes(pollId));
+                }
+                for (VoteTimeline.Bucket bucket : turnout.keySet()) {
+                    String key = turnoutKey(pollId, bucket);
+                    if (mustRewrite(existed, key)) {
+                        writeTurnout(key, store.countVotesOverTime(pollId, bucket));  // same for the buckets
+                    }
+                }
+            } catch (Exception e) {
+                warnRedis("counter update failed", e);
+                // a stale counter must not outlive the failure: read around it here, drop it for the other nodes
+                String[] keys = {redisKey, turnoutKey(pollId, VoteTimeline.Bucket.MINUTE), turnoutKey(pollId, VoteTimeline.Bucket.HOUR)};
+                staleKeys.addAll(Arrays.asList(keys));
+                deleteAsync(pollId, keys);
+            }
+        }
 
+        // Not bumped because it was stale, or created by the increment
+        private boolean mustRewrite(Map<String, Response<Boolean>> existed, String redisKey) {
+            Response<Boolean> response = existed.get(redisKey);
+            return response == null || !response.get();
+        }
+    }
 }
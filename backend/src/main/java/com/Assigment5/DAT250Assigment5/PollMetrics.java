@@ -0,0 +1,124 @@
+package com.Assigment5.DAT250Assigment5;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * PollManager's meters, exported through actuator (/actuator/metrics, /actuator/prometheus):
+ *   polls.operations{operation}           latency and count of every PollManager operation
+ *   polls.redis.commands{command,outcome} latency of every Redis call, outcome success or error
+ *   polls.redis.rejected{command}         Redis calls skipped: circuit open or async queue full
+ *   polls.redis.circuit.open              1 while the Redis circuit breaker is not closed
+ *   polls.results.reads{source}           where results were served from: l1, redis (a hit), store (a miss), final (a closed poll)
+ *                                         or shared (waited for a concurrent miss of the same poll to load them)
+ *   polls.cascade.size{entity}            entities a user or poll delete removed, itself included
+ *   polls.votes.rejected                  batch entries that were not stored
+ * Percentiles and histograms are switched on in application.properties (management.metrics.distribution.*).
+ * Without a registry (tests, benchmarks) the meters record nothing.
+ */
+final class PollMetrics {
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();  // key: name + tags, built once
+    private final Map<String, Counter> reads = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejectedCommands = new ConcurrentHashMap<>();
+    private final DistributionSummary pollCascades;
+    private final DistributionSummary userCascades;
+    private final Counter rejectedVotes;
+
+    PollMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.pollCascades = cascadeSize(registry, "poll");
+        this.userCascades = cascadeSize(registry, "user");
+        this.rejectedVotes = Counter.builder("polls.votes.rejected")
+                .description("Batch votes that were not stored").register(registry);
+    }
+
+    <T> T time(String operation, Supplier<T> action) {
+        Timer.Sample sample = Timer.start(registry);
+        try {
+            return action.get();
+        } finally {
+            sample.stop(timer("polls.operations", "operation", operation, null, null));
+        }
+    }
+
+    void time(String operation, Runnable action) {
+        time(operation, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // Times a Redis call; exceptions are counted as errors and rethrown
+    <T> T redis(String command, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "error";
+        try {
+            T result = call.get();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(timer("polls.redis.commands", "command", command, "outcome", outcome));
+        }
+    }
+
+    void redis(String command, Runnable call) {
+        redis(command, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    void redisRejected(String command) {
+        rejectedCommands.computeIfAbsent(command, c -> Counter.builder("polls.redis.rejected").tag("command", c)
+                .description("Redis calls skipped because the circuit was open or the queue full").register(registry)).increment();
+    }
+
+    void watchCircuit(RedisCircuitBreaker breaker) {
+        Gauge.builder("polls.redis.circuit.open", breaker, b -> b.state() == RedisCircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("1 while Redis calls are cut off by the circuit breaker").register(registry);
+    }
+
+    void resultsRead(String source) {
+        reads.computeIfAbsent(source, s -> Counter.builder("polls.results.reads").tag("source", s)
+                .description("Poll results reads by the layer that answered").register(registry)).increment();
+    }
+
+    void pollDeleted(int removed) {
+        if (removed > 0) {
+            pollCascades.record(removed);
+        }
+    }
+
+    void userDeleted(int removed) {
+        if (removed > 0) {
+            userCascades.record(removed);
+        }
+    }
+
+    void votesRejected(int count) {
+        rejectedVotes.increment(count);
+    }
+
+    private Timer timer(String name, String tag, String value, String tag2, String value2) {
+        return timers.computeIfAbsent(name + ':' + value + ':' + value2, key -> {
+            Timer.Builder builder = Timer.builder(name).tag(tag, value);
+            if (tag2 != null) {
+                builder.tag(tag2, value2);
+            }
+            return builder.register(registry);
+        });
+    }
+
+    private static DistributionSummary cascadeSize(MeterRegistry registry, String entity) {
+        return DistributionSummary.builder("polls.cascade.size").tag("entity", entity)
+                .description("Entities removed by one delete, the deleted entity included").register(registry);
+    }
+}
@@ -0,0 +1,211 @@
+package com.Assigment5.DAT250Assigment5;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pushes live poll results to Server-Sent Events subscribers.
+ *
+ * Vote writes only mark their poll as dirty. A single scheduler thread wakes up
+ * maxUpdatesPerSecond times a second, reads the counts of each dirty poll once and
+ * sends every subscriber of that poll the options whose count changed. Bursts of
+ * votes therefore cost one push per tick, however many votes or clients there are.
+ * SseEmitter runs on async servlet requests, so idle subscribers hold no thread.
+ * A poll's sends (a new subscriber's snapshot, a tick's deltas) are serialized by a
+ * per-poll lock, so every subscriber sees its snapshot first and deltas from it.
+ */
+@Component
+public class PollResultsBroadcaster {
+    private static final Logger log = LoggerFactory.getLogger(PollResultsBroadcaster.class);
+
+    @Autowired
+    private PollManager pollManager;
+
+    @Value("${polls.results.stream.max-updates-per-second:4}")
+    private int maxUpdatesPerSecond = 4;
+
+    @Value("${polls.results.stream.heartbeat-seconds:15}")
+    private int heartbeatSeconds = 15;
+
+    @Value("${polls.results.stream.timeout-minutes:30}")
+    private long timeoutMinutes = 30;
+
+    private final Map<Long, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>(); // key: poll id
+    private final Map<Long, Map<Long, Integer>> lastSent = new ConcurrentHashMap<>(); // key: poll id
+    private final Set<Long> dirtyPolls = ConcurrentHashMap.newKeySet();
+    private final StripedLocks sendLocks = new StripedLocks(64);  // by poll id
+    private final LogSampler flushWarnings = new LogSampler(Duration.ofSeconds(10));  // flushes run several times a second
+    private ScheduledExecutorService scheduler;
+
+    public PollResultsBroadcaster() {
+    }
+
+    // Used by tests to drive flush() by hand
+    PollResultsBroadcaster(PollManager pollManager) {
+        this.pollManager = pollManager;
+        pollManager.addResultsListener(this::markDirty);
+    }
+
+    @PostConstruct
+    void start() {
+        pollManager.addResultsListener(this::markDirty);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "poll-results-broadcaster");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tickMillis = Math.max(1, 1000 / Math.max(1, maxUpdatesPerSecond));
+        scheduler.scheduleAtFixedRate(this::flushQuietly, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        subscribers.values().forEach(emitters -> emitters.forEach(SseEmitter::complete));
+    }
+
+    // New subscriber: it gets the full counts right away, then only deltas
+    public SseEmitter subscribe(Long pollId) {
+        return subscribe(pollId, new SseEmitter(TimeUnit.MINUTES.toMillis(timeoutMinutes)));
+    }
+
+    SseEmitter subscribe(Long pollId, SseEmitter emitter) {
+        Runnable remove = () -> unsubscribe(pollId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+
+        ReentrantLock sendLock = sendLocks.lockFor(pollId);
+        sendLock.lock();
+        try {
+            // The current subscribers catch up to the counts of the snapshot first, so all of them
+            // take their next delta from the same counts
+            Map<Long, Integer> counts = pollManager.getVoteCountsForPoll(pollId);
+            Set<SseEmitter> emitters = subscribers.get(pollId);
+            if (emitters != null && !emitters.isEmpty()) {
+                sendChanges(pollId, emitters, counts);
+            }
+            lastSent.put(pollId, counts);
+            try {
+                emitter.send(SseEmitter.event().name("snapshot").data(counts).build());
+            } catch (IOException e) {
+                return emitter;  // gone already, never registered
+            }
+            subscribers.computeIfAbsent(pollId, id -> ConcurrentHashMap.newKeySet()).add(emitter);
+        } finally {
+            sendLock.unlock();
+        }
+        dirtyPolls.add(pollId); // a vote between the read and the registration may not have marked the poll
+        return emitter;
+    }
+
+    // Called from the vote path (under a poll lock): just remember the poll
+    private void markDirty(long pollId) {
+        if (subscribers.containsKey(pollId)) {
+            dirtyPolls.add(pollId);
+        }
+    }
+
+    // One tick: push the changed counts of every dirty poll to its subscribers
+    void flush() {
+        for (Long pollId : dirtyPolls) {
+            dirtyPolls.remove(pollId); // before reading, so a vote during the read marks it again
+            ReentrantLock sendLock = sendLocks.lockFor(pollId);
+            sendLock.lock();
+            try {
+                Set<SseEmitter> emitters = subscribers.get(pollId);
+                if (emitters == null || emitters.isEmpty()) {
+                    lastSent.remove(pollId);
+                    continue;
+                }
+                sendChanges(pollId, emitters, pollManager.getVoteCountsForPoll(pollId));
+            } finally {
+                sendLock.unlock();
+            }
+        }
+    }
+
+    // Send the options whose count changed since the last send; under the poll's send lock
+    private void sendChanges(Long pollId, Set<SseEmitter> emitters, Map<Long, Integer> counts) {
+        Map<Long, Integer> delta = delta(lastSent.getOrDefault(pollId, Map.of()), counts);
+        lastSent.put(pollId, counts);
+        if (!delta.isEmpty()) {
+            sendToAll(pollId, emitters, SseEmitter.event().name("delta").data(delta).build());
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            long skipped = flushWarnings.sample();
+            if (skipped >= 0) {
+                log.warn("Results stream flush failed ({} similar warnings suppressed): {}", skipped, e.getMessage());
+            }
+        }
+    }
+
+    // Keeps proxies from closing idle streams and finds clients that went away
+    private void heartbeat() {
+        Set<DataWithMediaType> keepalive = SseEmitter.event().comment("keepalive").build();
+        subscribers.forEach((pollId, emitters) -> sendToAll(pollId, emitters, keepalive));
+    }
+
+    // The event is serialized once and the same frames go to every subscriber
+    private void sendToAll(Long pollId, Set<SseEmitter> emitters, Set<DataWithMediaType> event) {
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(event);
+            } catch (Exception e) {
+                unsubscribe(pollId, emitter); // client disconnected
+            }
+        }
+    }
+
+    private void unsubscribe(Long pollId, SseEmitter emitter) {
+        Set<SseEmitter> remaining = subscribers.computeIfPresent(pollId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+        if (remaining == null) {
+            lastSent.remove(pollId); // nobody left to send deltas to
+        }
+    }
+
+    // Options whose count changed, with their new count; an option that lost all its votes is reported as 0
+    private static Map<Long, Integer> delta(Map<Long, Integer> before, Map<Long, Integer> after) {
+        Map<Long, Integer> delta = new HashMap<>();
+        after.forEach((optionId, count) -> {
+            if (!count.equals(before.get(optionId))) {
+                delta.put(optionId, count);
+            }
+        });
+        before.keySet().forEach(optionId -> {
+            if (!after.containsKey(optionId)) {
+                delta.put(optionId, 0);
+            }
+        });
+        return delta;
+    }
+}
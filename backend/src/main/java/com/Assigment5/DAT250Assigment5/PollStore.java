@@ -0,0 +1,149 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.PollSummary;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Storage behind PollManager, selected with polls.store (see PollStoreConfiguration):
+ * InMemoryPollStore keeps everything on the heap, JpaPollStore persists through Hibernate.
+ *
+ * Contract shared by both: every change to a poll's vote counts is reported to the
+ * listener while the poll's lock is held (the lock withPollLock takes), so PollManager
+ * can mirror the counts into Redis without racing other writers of the same poll.
+ */
+interface PollStore extends AutoCloseable {
+
+    void setListener(PollStoreListener listener);
+
+    // At most one vote per user and poll: a user's new vote replaces their previous one in the
+    // poll, atomically for the tallies. Anonymous votes are not limited. Set before first use.
+    void setSingleVotePerPoll(boolean singleVotePerPoll);
+
+    // Polls that take no more votes (PollManager closes them at their validUntil). Checked
+    // under the poll's lock, so a poll closed under withPollLock gets no vote after that:
+    // createVote throws PollClosedException, createVotes rejects the vote. Set before first use.
+    void setClosedPolls(LongPredicate closed);
+
+    // Where new ids come from once there is a Redis shared with other nodes (INCRBY on a
+    // counter per entity, see IdSequence). Set before first use.
+    void setIdLeases(IdSequence.Leases leases);
+
+    // Run an action while no vote of the poll can be counted or uncounted
+    <T> T withPollLock(Long pollId, Supplier<T> action);
+
+    // Users
+    User createUser(User user);
+
+    List<User> getAllUsers();
+
+    User getUser(Long id);
+
+    // Cascades to the polls created by and the votes cast by the user.
+    // Returns how many entities were removed, the user included (0 if there was none)
+    default int deleteUser(Long id) {
+        return deleteUser(id, removed -> {});
+    }
+
+    // deleteUser that reports its progress: progress gets the number of entities each step
+    // removed, as it goes (they add up to the returned total)
+    int deleteUser(Long id, IntConsumer progress);
+
+    // Polls
+    // Options sent along with the poll (poll.getVoteOptions()) are stored in the same step,
+    // see inlineOptions; the returned poll lists them with their ids
+    Poll createPoll(Poll poll);
+
+    // createPoll for each poll of a bulk import, with one commit for the whole batch
+    List<Poll> createPolls(List<Poll> batch);
+
+    List<Poll> getAllPolls();
+
+    Poll getPoll(Long id);
+
+    // Cascades to the poll's options and votes; returns how many entities were removed, like deleteUser
+    int deletePoll(Long id);
+
+    void deleteVoteOptionsByPollId(Long pollId);
+
+    void deleteVotesByPollId(Long pollId);
+
+    // Vote options
+    VoteOption createVoteOption(VoteOption voteOption);
+
+    List<VoteOption> getAllVoteOptions();
+
+    List<VoteOption> getVoteOptionsByPollId(Long pollId);
+
+    // Votes
+    Vote createVote(Vote vote);
+
+    // Per position in the batch: null if the vote was stored, otherwise the reason it was rejected
+    List<String> createVotes(List<Vote> batch);
+
+    void deleteVote(Long voteId);
+
+    List<Vote> getAllVotes();
+
+    List<Vote> getVotesByPollId(Long pollId);
+
+    List<Vote> getVotesByOptionId(Long optionId);
+
+    // Id-ordered, lazily evaluated queries for the list endpoints; afterId is an exclusive cursor
+    Stream<User> streamUsers(Long afterId);
+
+    Stream<Poll> streamPolls(Long creatorId, Long afterId);
+
+    // GET /polls: the same polls as streamPolls, as read-only projections
+    Stream<PollSummary> streamPollSummaries(Long creatorId, Long afterId);
+
+    Stream<VoteOption> streamVoteOptions(Long pollId, Long afterId);
+
+    Stream<Vote> streamVotes(Long pollId, Long userId, Long afterId);
+
+    // Vote counts of one poll (option id -> votes); options without votes are left out
+    Map<Long, Integer> countVotes(Long pollId);
+
+    // countVotes for every poll with votes, in one pass: perPoll gets each poll's id and counts
+    // in turn (possibly empty: the in-memory store also reports polls whose votes were all removed)
+    void countAllVotes(BiConsumer<Long, Map<Long, Integer>> perPoll);
+
+    // Turnout of one poll (bucket start in epoch millis -> votes), oldest first; empty buckets
+    // are left out and minute buckets only go back VoteTimeline.MINUTE_RETENTION_MILLIS
+    Map<Long, Integer> countVotesOverTime(Long pollId, VoteTimeline.Bucket bucket);
+
+    /*
+     * The options a poll was sent with, ready to be stored with it: null entries are dropped,
+     * and if none of them has a presentation order they are numbered 0, 1, ... in the order
+     * they were sent (as Poll.addVoteOption does). The poll's own list is emptied.
+     */
+    static List<VoteOption> inlineOptions(Poll poll) {
+        List<VoteOption> options = new ArrayList<>();
+        if (poll.getVoteOptions() != null) {
+            poll.getVoteOptions().stream().filter(Objects::nonNull).forEach(options::add);
+        }
+        if (options.stream().allMatch(option -> option.getPresentationOrder() == 0)) {
+            for (int i = 0; i < options.size(); i++) {
+                options.get(i).setPresentationOrder(i);
+            }
+        }
+        poll.setVoteOptions(new ArrayList<>());
+        return options;
+    }
+
+    @Override
+    default void close() {
+    }
+}
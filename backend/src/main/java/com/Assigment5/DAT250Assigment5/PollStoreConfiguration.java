@@ -0,0 +1,58 @@
+package com.Assigment5.DAT250Assigment5;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Picks the storage behind PollManager: polls.store=memory (default) keeps everything
+ * on the heap, polls.store=jpa persists through Hibernate to polls.jpa.url.
+ * With polls.wal.dir set, the in-memory store is recovered from and logged to a
+ * WriteAheadLog in that directory. Its ids come from the polls.ids.node-id range until
+ * PollManager connects it to Redis (see IdSequence).
+ */
+@Configuration
+public class PollStoreConfiguration {
+    private static final Logger log = LoggerFactory.getLogger(PollStoreConfiguration.class);
+
+    @Bean // closed on shutdown (PollStore.close)
+    PollStore pollStore(@Value("${polls.store:memory}") String type,
+                        @Value("${polls.jpa.url:jdbc:h2:file:./data/polls}") String jdbcUrl,
+                        @Value("${polls.jpa.user:sa}") String user,
+                        @Value("${polls.jpa.password:}") String password,
+                        @Value("${polls.jpa.schema-action:update}") String schemaAction,
+                        @Value("${polls.wal.dir:}") String walDir,
+                        @Value("${polls.wal.segment-size-mb:64}") int walSegmentSizeMb,
+                        @Value("${polls.wal.sync-interval-ms:0}") long walSyncIntervalMillis,
+                        @Value("${polls.wal.snapshot-segments:4}") int walSnapshotSegments,
+                        @Value("${polls.votes.single-per-poll:false}") boolean singleVotePerPoll,
+                        @Value("${polls.ids.node-id:0}") int idNode,
+                        @Value("${polls.ids.block-size:1000}") int idBlockSize) {
+        switch (type) {
+            case "memory":
+                InMemoryPollStore store = new InMemoryPollStore();
+                store.setSingleVotePerPoll(singleVotePerPoll);
+                store.setIdNode(idNode, idBlockSize);
+                if (!walDir.isBlank()) {
+                    try {
+                        WriteAheadLog.open(Path.of(walDir), store, walSegmentSizeMb << 20, walSyncIntervalMillis, walSnapshotSegments);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Cannot recover polls from " + walDir, e);
+                    }
+                }
+                return store;
+            case "jpa":
+                log.info("Storing polls in {}", jdbcUrl);
+                JpaPollStore jpaStore = JpaPollStore.create(jdbcUrl, user, password, schemaAction);
+                jpaStore.setSingleVotePerPoll(singleVotePerPoll);
+                return jpaStore;
+            default:
+                throw new IllegalArgumentException("Unknown polls.store '" + type + "', expected memory or jpa");
+        }
+    }
+}
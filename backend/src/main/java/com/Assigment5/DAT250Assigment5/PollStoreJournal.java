@@ -0,0 +1,53 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+
+/**
+ * Receives every change InMemoryPollStore makes, with the ids and links it resolved.
+ * The record calls are made while the store holds the locks that order the change
+ * against conflicting ones, so the calls come in an order that replays to the same
+ * state. commit() is called once the mutation is done and no lock is held.
+ * Does nothing by default; WriteAheadLog writes the changes to disk.
+ */
+interface PollStoreJournal extends AutoCloseable {
+
+    default void userCreated(User user) {
+    }
+
+    default void pollCreated(Poll poll) {
+    }
+
+    default void voteOptionCreated(VoteOption voteOption) {
+    }
+
+    default void voteCreated(Vote vote) {
+    }
+
+    // Only the user itself; the polls and votes it cascades to are reported one by one
+    default void userDeleted(Long userId) {
+    }
+
+    // Including the poll's options and votes
+    default void pollDeleted(Long pollId) {
+    }
+
+    default void voteOptionsDeleted(Long pollId) {
+    }
+
+    default void votesDeleted(Long pollId) {
+    }
+
+    default void voteDeleted(Long voteId) {
+    }
+
+    // Returns once what this thread recorded is durable
+    default void commit() {
+    }
+
+    @Override
+    default void close() {
+    }
+}
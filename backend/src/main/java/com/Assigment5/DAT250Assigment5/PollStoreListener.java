@@ -0,0 +1,35 @@
+package com.Assigment5.DAT250Assigment5;
+
+import java.util.Map;
+
+/**
+ * Callbacks from the PollStore. They run while the poll's lock is held,
+ * so a listener sees the tally changes of one poll in the order the store
+ * applied them and can mirror them elsewhere (e.g. Redis) without races.
+ */
+interface PollStoreListener {
+
+    // A vote was counted (+1) or uncounted (-1) for an option of the poll;
+    // minute is the start of the minute it was published in, null if it has no timestamp
+    default void tallyChanged(Long pollId, Long optionId, Long minute, int delta) {
+        talliesChanged(pollId, Map.of(optionId, delta), minute != null ? Map.of(minute, delta) : Map.of());
+    }
+
+    // A batch changed several counters of the poll at once: option id -> delta,
+    // and the same votes by the minute they were published in (see VoteTimeline)
+    default void talliesChanged(Long pollId, Map<Long, Integer> deltas, Map<Long, Integer> turnoutDeltas) {
+    }
+
+    // All votes of the poll were removed (poll deleted)
+    default void votesCleared(Long pollId) {
+    }
+
+    // The poll itself was deleted (after votesCleared)
+    default void pollDeleted(Long pollId) {
+    }
+
+    // Add to the deltas of a talliesChanged call; options whose changes cancel out are left out
+    static void addDelta(Map<Long, Integer> deltas, Long optionId, int delta) {
+        deltas.merge(optionId, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+}
@@ -0,0 +1,79 @@
+package com.Assigment5.DAT250Assigment5;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker in front of Redis.
+ *
+ * CLOSED: calls go through; failureThreshold failures in a row open it. A call slower than
+ * slowCall counts as a failure even if it succeeded, so a Redis that is slow rather than
+ * down is cut off as well.
+ * OPEN: calls are rejected without touching Redis until openFor has passed.
+ * HALF_OPEN: one probe call goes through; success closes the breaker, failure opens it again.
+ */
+final class RedisCircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(RedisCircuitBreaker.class);
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openForNanos;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger failures = new AtomicInteger();  // in a row, while CLOSED
+    private volatile long openedAt;  // System.nanoTime() when it last opened
+
+    RedisCircuitBreaker(int failureThreshold, Duration slowCall, Duration openFor) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallNanos = slowCall.toNanos();
+        this.openForNanos = openFor.toNanos();
+    }
+
+    State state() {
+        return state.get();
+    }
+
+    // true: make the call and report it with onSuccess/onFailure; false: skip Redis
+    boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        // OPEN past its time: the caller that moves it to HALF_OPEN makes the probe, everyone else waits for it
+        return current == State.OPEN && System.nanoTime() - openedAt >= openForNanos
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+    }
+
+    void onSuccess(long elapsedNanos) {
+        if (elapsedNanos > slowCallNanos) {
+            onFailure();
+            return;
+        }
+        failures.set(0);
+        if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            log.info("Redis is back, circuit closed");
+        }
+    }
+
+    void onFailure() {
+        // openedAt is set before the state changes, so nobody sees OPEN with an old opening time
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            openedAt = System.nanoTime();  // probe failed: wait another openFor
+            state.set(State.OPEN);
+        } else if (current == State.CLOSED && failures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.nanoTime();
+            if (state.compareAndSet(State.CLOSED, State.OPEN)) {
+                failures.set(0);
+                log.warn("Redis failed or was slow {} times in a row, circuit open; probing again in {} ms",
+                        failureThreshold, Duration.ofNanos(openForNanos).toMillis());
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.Assigment5.DAT250Assigment5;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The only way PollManager talks to Redis.
+ *
+ * Every call is timed (polls.redis.commands) and goes through a RedisCircuitBreaker: while it
+ * is open, calls fail at once with RejectedExecutionException instead of waiting on a slow or
+ * dead Redis, and callers fall back to the store. Connections from connect() time out after
+ * the given duration, so a call that does go out cannot stall its thread for longer either.
+ *
+ * Writes nobody has to wait for (invalidations, cleanup) go through runAsync: ASYNC_WRITERS
+ * virtual threads apply them, each from its own queue, so writes with the same order key
+ * (the poll id) run in submission order while one slow round trip does not hold up the
+ * others. A full queue drops the write.
+ */
+class RedisGateway implements AutoCloseable {
+    static final int ASYNC_WRITERS = 16;
+    static final int ASYNC_QUEUE_CAPACITY = 1_000;  // per writer
+
+    private final JedisPooled jedis;
+    private final RedisCircuitBreaker breaker;
+    private final PollMetrics metrics;
+    private final List<BlockingQueue<Runnable>> queues = new ArrayList<>(ASYNC_WRITERS);
+    private final List<Thread> writers = new ArrayList<>(ASYNC_WRITERS);
+    private volatile boolean running = true;
+
+    RedisGateway(JedisPooled jedis, RedisCircuitBreaker breaker, PollMetrics metrics) {
+        this.jedis = jedis;
+        this.breaker = breaker;
+        this.metrics = metrics;
+        metrics.watchCircuit(breaker);
+        for (int i = 0; i < ASYNC_WRITERS; i++) {
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(ASYNC_QUEUE_CAPACITY);
+            queues.add(queue);
+            writers.add(Thread.ofVirtual().name("redis-async-writer-" + i).start(() -> writeLoop(queue)));
+        }
+    }
+
+    // Pool whose connects, reads and waits for a free connection all give up after timeout.
+    // Nothing is connected yet: a Redis that is down at startup is picked up once it is reachable.
+    // With virtual request threads, maxConnections rather than the thread pool bounds concurrent Redis calls.
+    static JedisPooled connect(String host, int port, Duration timeout, int maxConnections) {
+        int millis = (int) timeout.toMillis();
+        GenericObjectPoolConfig<Connection> pool = new GenericObjectPoolConfig<>();
+        pool.setMaxTotal(maxConnections);
+        pool.setMaxIdle(maxConnections);
+        pool.setMaxWait(timeout);
+        return new JedisPooled(new HostAndPort(host, port),
+                DefaultJedisClientConfig.builder().connectionTimeoutMillis(millis).socketTimeoutMillis(millis).build(),
+                pool);
+    }
+
+    // The connection pool itself, for the pub/sub subscription (which has its own reconnect loop)
+    JedisPooled jedis() {
+        return jedis;
+    }
+
+    RedisCircuitBreaker.State state() {
+        return breaker.state();
+    }
+
+    // Run a command on the calling thread; RejectedExecutionException while the circuit is open
+    <T> T call(String command, Function<JedisPooled, T> call) {
+        if (!breaker.tryAcquire()) {
+            metrics.redisRejected(command);
+            throw new RejectedExecutionException("Redis circuit is open");
+        }
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = metrics.redis(command, () -> call.apply(jedis));
+        } catch (RuntimeException e) {
+            breaker.onFailure();
+            throw e;
+        }
+        breaker.onSuccess(System.nanoTime() - start);
+        return result;
+    }
+
+    void run(String command, Consumer<JedisPooled> call) {
+        call(command, redis -> {
+            call.accept(redis);
+            return null;
+        });
+    }
+
+    // Fire and forget: the future completes on a writer thread once the command ran, or
+    // exceptionally if it failed, the circuit was open or the queue was full.
+    // Writes with the same orderKey run in the order they were submitted.
+    CompletableFuture<Void> runAsync(String command, long orderKey, Consumer<JedisPooled> call) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                run(command, call);
+                done.complete(null);
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        };
+        if (!running || !queues.get(Math.floorMod(Long.hashCode(orderKey), ASYNC_WRITERS)).offer(task)) {
+            metrics.redisRejected(command);
+            done.completeExceptionally(new RejectedExecutionException("Redis write queue is full"));
+        }
+        return done;
+    }
+
+    // Completes once every write queued so far has run
+    CompletableFuture<Void> drained() {
+        List<CompletableFuture<Void>> markers = new ArrayList<>(ASYNC_WRITERS);
+        for (BlockingQueue<Runnable> queue : queues) {
+            CompletableFuture<Void> marker = new CompletableFuture<>();
+            try {
+                queue.put(() -> marker.complete(null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                marker.completeExceptionally(e);
+            }
+            markers.add(marker);
+        }
+        return CompletableFuture.allOf(markers.toArray(CompletableFuture[]::new));
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        writers.forEach(Thread::interrupt);
+        for (BlockingQueue<Runnable> queue : queues) {
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                task.run();  // with the writers gone, finish the rest here (each bounded by the timeout)
+            }
+        }
+    }
+
+    private void writeLoop(BlockingQueue<Runnable> queue) {
+        while (running) {
+            try {
+                queue.take().run();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.Assigment5.DAT250Assigment5;
+
+/**
+ * Result of a results cache warm-up (POST /admin/results-cache/warm-up): how many polls
+ * had their counters written to Redis, in how many pipelined batches, how many of them
+ * took a vote while the warm-up ran and were rewritten under their lock, and how long it took.
+ */
+public record ResultsWarmUp(int polls, int batches, int rewritten, long millis) {
+}
@@ -0,0 +1,25 @@
+package com.Assigment5.DAT250Assigment5;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks shared by id: entities whose ids hash to the same stripe
+ * share a lock, so memory stays constant no matter how many polls or users exist.
+ * ReentrantLock (not synchronized) so waiting threads never pin a carrier thread.
+ */
+class StripedLocks {
+    private final ReentrantLock[] stripes;
+
+    StripedLocks(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;  // round up to a power of two
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    ReentrantLock lockFor(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;  // spread sequential ids over all stripes
+        return stripes[(int) (h >>> 32) & (stripes.length - 1)];
+    }
+}
@@ -0,0 +1,8 @@
+package com.Assigment5.DAT250Assigment5;
+
+/**
+ * One entry of GET /polls/trending. score is the poll's votes in the window, decayed:
+ * a vote counts 1 when it is cast and half as much after every window (see TrendingPolls).
+ */
+public record TrendingPoll(Long pollId, String question, double score) {
+}
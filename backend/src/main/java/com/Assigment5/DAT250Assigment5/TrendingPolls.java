@@ -0,0 +1,193 @@
+package com.Assigment5.DAT250Assigment5;
+
+import redis.clients.jedis.AbstractTransaction;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Trending polls: a score per poll and window that every counted vote adds to, decaying
+ * so that a vote counts 1 when it is cast and half as much one window later.
+ *
+ * Forward decay: instead of lowering every score as time passes, a vote cast at t adds
+ * 2^((t - base) / window), so newer votes weigh more and ordering by the stored score is
+ * ordering by decayed score. Nothing is ever rescored, and the top N is one range read of
+ * a sorted set: O(log n + N). The weights double every window, so each epoch of
+ * EPOCH_WINDOWS windows has its own base (and set); a vote is added to the current epoch
+ * and to the next, where it weighs at most 1, so the next set holds the decayed past by
+ * the time it takes over.
+ *
+ * In Redis the sets are polls:trending:{window}:{epoch}, bumped with ZINCRBY on the vote
+ * write path. The same boards are kept in memory for this node's votes; they answer while
+ * Redis is missing or failing. Written under the poll's lock.
+ */
+final class TrendingPolls {
+    static final int EPOCH_WINDOWS = 64;  // weights grow up to 2^64 within an epoch, far from double's limits
+    static final int MAX_LIMIT = 100;
+
+    enum Window {
+        FIVE_MINUTES("5m", Duration.ofMinutes(5).toMillis()),
+        HOUR("1h", Duration.ofHours(1).toMillis()),
+        DAY("24h", Duration.ofDays(1).toMillis());
+
+        final String label;
+        final long millis;  // the half-life of a vote
+
+        Window(String label, long millis) {
+            this.label = label;
+            this.millis = millis;
+        }
+
+        static Window parse(String label) {
+            for (Window window : values()) {
+                if (window.label.equals(label)) {
+                    return window;
+                }
+            }
+            throw new IllegalArgumentException("window must be 5m, 1h or 24h, not " + label);
+        }
+
+        long epoch(long epochMillis) {
+            return Math.floorDiv(epochMillis, millis * EPOCH_WINDOWS);
+        }
+
+        // What one vote cast at the given time adds to a score of the epoch
+        double weight(long epoch, long castAt) {
+            return Math.pow(2, (double) (castAt - epoch * millis * EPOCH_WINDOWS) / millis);
+        }
+
+        // A stored score of the epoch as votes decayed to now
+        double decayed(long epoch, double score, long now) {
+            return score / weight(epoch, now);
+        }
+
+        String key(long epoch) {
+            return "polls:trending:" + label + ":" + epoch;
+        }
+
+        // The set of an epoch is written for two epochs (as the next one, then as the current one)
+        long keyTtlSeconds() {
+            return Duration.ofMillis(millis * EPOCH_WINDOWS * 2).toSeconds();
+        }
+    }
+
+    // Poll id and stored score; scores that tie rank by poll id
+    record Entry(long pollId, double score) implements Comparable<Entry> {
+        @Override
+        public int compareTo(Entry other) {
+            int byScore = Double.compare(other.score, score);  // highest first
+            return byScore != 0 ? byScore : Long.compare(pollId, other.pollId);
+        }
+    }
+
+    // One window and epoch: scores by poll id, and the same entries in rank order.
+    // The two are updated under the poll's lock; a read in between may see a poll twice or not at all
+    private static final class Board {
+        private final Map<Long, Double> scores = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>();
+
+        void add(long pollId, double weight) {
+            Double old = scores.get(pollId);
+            double score = (old == null ? 0 : old) + weight;
+            ranking.add(new Entry(pollId, score));
+            if (old != null) {
+                ranking.remove(new Entry(pollId, old));
+            }
+            scores.put(pollId, score);
+        }
+
+        void remove(long pollId) {
+            Double old = scores.remove(pollId);
+            if (old != null) {
+                ranking.remove(new Entry(pollId, old));
+            }
+        }
+
+        List<Entry> top(int limit) {
+            List<Entry> top = new ArrayList<>(limit);
+            Set<Long> seen = new HashSet<>();
+            Iterator<Entry> it = ranking.iterator();
+            while (top.size() < limit && it.hasNext()) {
+                Entry entry = it.next();
+                if (seen.add(entry.pollId())) {
+                    top.add(entry);
+                }
+            }
+            return top;
+        }
+    }
+
+    private final Map<Window, ConcurrentNavigableMap<Long, Board>> boards = new EnumMap<>(Window.class);  // window -> (epoch -> board)
+
+    TrendingPolls() {
+        for (Window window : Window.values()) {
+            boards.put(window, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    // Votes newly cast in a batch of tally changes (option id -> delta); uncounted votes do not take a poll off the board
+    static int votesCast(Map<Long, Integer> deltas) {
+        int cast = 0;
+        for (int delta : deltas.values()) {
+            cast += Math.max(delta, 0);
+        }
+        return cast;
+    }
+
+    // Count votes cast now on the local boards
+    void add(long pollId, int votes, long now) {
+        boards.forEach((window, epochs) -> {
+            long epoch = window.epoch(now);
+            if (!epochs.containsKey(epoch + 1)) {
+                epochs.headMap(epoch).clear();  // a new epoch: the old ones are not read any more
+            }
+            for (long e = epoch; e <= epoch + 1; e++) {
+                epochs.computeIfAbsent(e, key -> new Board()).add(pollId, votes * window.weight(e, now));
+            }
+        });
+    }
+
+    // The same in Redis, as part of the caller's transaction
+    static void add(AbstractTransaction tx, long pollId, int votes, long now) {
+        String member = String.valueOf(pollId);
+        for (Window window : Window.values()) {
+            long epoch = window.epoch(now);
+            for (long e = epoch; e <= epoch + 1; e++) {
+                String key = window.key(e);
+                tx.zincrby(key, votes * window.weight(e, now), member);
+                tx.expire(key, window.keyTtlSeconds());
+            }
+        }
+    }
+
+    void remove(long pollId) {
+        boards.values().forEach(epochs -> epochs.values().forEach(board -> board.remove(pollId)));
+    }
+
+    // The keys a deleted poll has to be removed from
+    static List<String> keys(long now) {
+        List<String> keys = new ArrayList<>();
+        for (Window window : Window.values()) {
+            long epoch = window.epoch(now);
+            keys.add(window.key(epoch));
+            keys.add(window.key(epoch + 1));
+        }
+        return keys;
+    }
+
+    // This node's top polls of the current epoch, highest score first
+    List<Entry> top(Window window, int limit, long now) {
+        Board board = boards.get(window).get(window.epoch(now));
+        return board != null ? board.top(limit) : List.of();
+    }
+}
@@ -0,0 +1,64 @@
+package com.Assigment5.DAT250Assigment5;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one DELETE /users/{id}: the cascade runs in the background and this is
+ * what GET /users/{id}/deletion reports while it does. removed counts the user, polls,
+ * options and votes deleted so far; state moves from RUNNING to DONE or FAILED once.
+ */
+public final class UserDeletion {
+
+    public enum State { RUNNING, DONE, FAILED }
+
+    private final Long userId;
+    private final Instant startedAt = Instant.now();
+    private final AtomicLong removed = new AtomicLong();
+    private volatile State state = State.RUNNING;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    UserDeletion(Long userId) {
+        this.userId = userId;
+    }
+
+    void removed(int count) {
+        removed.addAndGet(count);
+    }
+
+    void finished() {
+        finishedAt = Instant.now();
+        state = State.DONE;
+    }
+
+    void failed(Throwable cause) {
+        error = cause.toString();
+        finishedAt = Instant.now();
+        state = State.FAILED;  // last, so FAILED is never seen without its error
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getRemoved() {
+        return removed.get();
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,108 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Single writer for batched votes.
+ *
+ * Request threads only enqueue their batch and wait for its outcome. One daemon
+ * thread takes whatever has queued up (up to MAX_VOTES_PER_APPLY votes, possibly
+ * from several requests) and applies it with one PollStore.createVotes call,
+ * so a burst of batches costs one lock acquisition and one Redis update per poll
+ * instead of one per vote. A full queue rejects new batches rather than growing.
+ */
+class VoteBatchWriter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(VoteBatchWriter.class);
+
+    static final int MAX_BATCH_SIZE = 1_000;        // votes per submitted batch
+    static final int QUEUE_CAPACITY = 256;          // pending batches
+    static final int MAX_VOTES_PER_APPLY = 5_000;   // votes merged into one store call
+
+    private record Pending(List<Vote> votes, CompletableFuture<List<String>> result) {}
+
+    private final PollStore store;
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private final LogSampler failureWarnings = new LogSampler(Duration.ofSeconds(10));  // a failing store fails every batch
+    private volatile boolean running = true;
+
+    VoteBatchWriter(PollStore store) {
+        this.store = store;
+        this.writer = new Thread(this::applyLoop, "vote-batch-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Queue a batch; the future gets, per vote, null if it was stored or the reason it was rejected
+    CompletableFuture<List<String>> submit(List<Vote> votes) {
+        if (votes.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " votes per batch");
+        }
+        Pending pending = new Pending(votes, new CompletableFuture<>());
+        if (!running || !queue.offer(pending)) {
+            throw new RejectedExecutionException("Vote batch queue is full");
+        }
+        return pending.result();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        writer.interrupt();
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result().completeExceptionally(new RejectedExecutionException("Vote batch writer stopped"));
+        }
+    }
+
+    private void applyLoop() {
+        List<Pending> drained = new ArrayList<>();
+        while (running) {
+            try {
+                drained.add(queue.take());  // wait for work, then take what else is already queued
+            } catch (InterruptedException e) {
+                return;
+            }
+            int voteCount = drained.get(0).votes().size();
+            Pending next;
+            while (voteCount < MAX_VOTES_PER_APPLY && (next = queue.poll()) != null) {
+                drained.add(next);
+                voteCount += next.votes().size();
+            }
+            apply(drained, voteCount);
+            drained.clear();
+        }
+    }
+
+    private void apply(List<Pending> drained, int voteCount) {
+        List<Vote> merged = new ArrayList<>(voteCount);
+        for (Pending pending : drained) {
+            merged.addAll(pending.votes());
+        }
+        try {
+            List<String> rejections = store.createVotes(merged);
+            int offset = 0;
+            for (Pending pending : drained) {
+                int size = pending.votes().size();
+                pending.result().complete(rejections.subList(offset, offset + size));
+                offset += size;
+            }
+        } catch (RuntimeException e) {
+            long skipped = failureWarnings.sample();
+            if (skipped >= 0) {
+                log.warn("Vote batch of {} votes failed ({} similar warnings suppressed): {}", voteCount, skipped, e.getMessage());
+            }
+            drained.forEach(pending -> pending.result().completeExceptionally(e));
+        }
+    }
+}
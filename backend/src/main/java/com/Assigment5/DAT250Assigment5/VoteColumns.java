@@ -0,0 +1,201 @@
+package com.Assigment5.DAT250Assigment5;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Columnar storage of InMemoryPollStore's votes: per vote id, the user id, option id,
+ * poll id and epoch millis in primitive arrays, plus a state byte, instead of a Vote
+ * object (with boxed id, String timestamp and map entry) per vote. About 33 bytes a vote;
+ * Vote objects are built from the columns only when a vote leaves the store.
+ *
+ * Ids are split into chunks of CHUNK_SIZE consecutive ids, so sparse id ranges cost
+ * nothing and iterating the chunks in key order gives the votes in id order. A slot is
+ * written once: the columns first, then the state with release semantics, so a reader
+ * that sees a live state (acquire) sees the columns too. Removing a vote flips its state
+ * with a CAS, which also decides which of two concurrent removals wins.
+ */
+final class VoteColumns {
+    // Flags kept with a live vote
+    static final int USER_LINKED = 1;    // the user id named a stored user when the vote was stored
+    static final int OPTION_LINKED = 2;  // likewise for the option
+    static final int HAS_TIME = 4;       // publishedAt was set
+
+    private static final int LIVE = 0x10;
+    private static final int REMOVED = 0x20;
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final VarHandle STATE = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private static final class Chunk {
+        final long[] userIds = new long[CHUNK_SIZE];
+        final long[] optionIds = new long[CHUNK_SIZE];
+        final long[] pollIds = new long[CHUNK_SIZE];
+        final long[] millis = new long[CHUNK_SIZE];
+        final byte[] states = new byte[CHUNK_SIZE];
+    }
+
+    private final ConcurrentNavigableMap<Long, Chunk> chunks = new ConcurrentSkipListMap<>(); // key: id >> CHUNK_BITS
+
+    // Ids are never reused, so a slot is only ever written by the one writer that got its id
+    void put(long id, long userId, long optionId, long pollId, long millis, int flags) {
+        Chunk chunk = chunks.computeIfAbsent(id >>> CHUNK_BITS, key -> new Chunk());
+        int slot = slot(id);
+        chunk.userIds[slot] = userId;
+        chunk.optionIds[slot] = optionId;
+        chunk.pollIds[slot] = pollId;
+        chunk.millis[slot] = millis;
+        STATE.setRelease(chunk.states, slot, (byte) (LIVE | flags));
+    }
+
+    // True for the one caller that removed a live vote
+    boolean remove(long id) {
+        Chunk chunk = chunks.get(id >>> CHUNK_BITS);
+        if (chunk == null) {
+            return false;
+        }
+        int slot = slot(id);
+        while (true) {
+            byte state = (byte) STATE.getAcquire(chunk.states, slot);
+            if ((state & LIVE) == 0) {
+                return false;
+            }
+            if (STATE.compareAndSet(chunk.states, slot, state, (byte) REMOVED)) {
+                return true;
+            }
+        }
+    }
+
+    boolean contains(long id) {
+        return flags(id) >= 0;
+    }
+
+    // Flags of a live vote, -1 if there is none with this id
+    int flags(long id) {
+        Chunk chunk = chunks.get(id >>> CHUNK_BITS);
+        if (chunk == null) {
+            return -1;
+        }
+        int state = (byte) STATE.getAcquire(chunk.states, slot(id));
+        return (state & LIVE) != 0 ? state & ~LIVE : -1;
+    }
+
+    // The columns keep their values after a vote is removed, so a remover can still read them
+    long userId(long id) {
+        return chunks.get(id >>> CHUNK_BITS).userIds[slot(id)];
+    }
+
+    long optionId(long id) {
+        return chunks.get(id >>> CHUNK_BITS).optionIds[slot(id)];
+    }
+
+    // 0 if the vote is not counted for a poll
+    long pollId(long id) {
+        return chunks.get(id >>> CHUNK_BITS).pollIds[slot(id)];
+    }
+
+    long millis(long id) {
+        return chunks.get(id >>> CHUNK_BITS).millis[slot(id)];
+    }
+
+    // Ids of the live votes after afterId (null: all), ascending; weakly consistent like the store's maps
+    LongStream ids(Long afterId) {
+        long from = afterId == null ? Long.MIN_VALUE : afterId + 1;
+        Iterator<java.util.Map.Entry<Long, Chunk>> chunkIt = (afterId == null ? chunks : chunks.tailMap(from >>> CHUNK_BITS, true))
+                .entrySet().iterator();
+        PrimitiveIterator.OfLong ids = new PrimitiveIterator.OfLong() {
+            private Chunk chunk;
+            private long base;
+            private int slot = CHUNK_SIZE;
+            private long next;
+            private boolean ready;
+
+            @Override
+            public boolean hasNext() {
+                while (!ready) {
+                    if (slot == CHUNK_SIZE) {
+                        if (!chunkIt.hasNext()) {
+                            return false;
+                        }
+                        java.util.Map.Entry<Long, Chunk> entry = chunkIt.next();
+                        chunk = entry.getValue();
+                        base = entry.getKey() << CHUNK_BITS;
+                        slot = from > base ? (int) Math.min(from - base, CHUNK_SIZE) : 0;
+                        continue;
+                    }
+                    int s = slot++;
+                    if ((((byte) STATE.getAcquire(chunk.states, s)) & LIVE) != 0) {
+                        next = base + s;
+                        ready = true;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return next;
+            }
+        };
+        return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(ids,
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    private static int slot(long id) {
+        return (int) id & (CHUNK_SIZE - 1);
+    }
+
+    /**
+     * Growable list of vote ids, used for the per-poll and per-user indexes. Ids of removed
+     * votes are dropped lazily: the owner counts removals and the list compacts itself once
+     * they make up half of it. Not thread-safe; each list is guarded by its poll's or user's lock.
+     */
+    static final class IdList {
+        private long[] ids = new long[4];
+        private int size;
+        private int removed;
+
+        void add(long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        // One of the listed votes was removed from the columns
+        void removed(VoteColumns columns) {
+            if (++removed > 16 && removed * 2 > size) {
+                int kept = 0;
+                for (int i = 0; i < size; i++) {
+                    if (columns.contains(ids[i])) {
+                        ids[kept++] = ids[i];
+                    }
+                }
+                size = kept;
+                removed = 0;
+                if (ids.length > 16 && size * 4 < ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+                }
+            }
+        }
+
+        // May include removed votes; callers check the columns
+        long[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+}
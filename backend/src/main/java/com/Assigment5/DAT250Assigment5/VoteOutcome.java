@@ -0,0 +1,18 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Vote;
+
+/**
+ * Result for one entry of POST /votes/batch: either the stored vote
+ * or the reason it was rejected. index is the entry's position in the request.
+ */
+public record VoteOutcome(int index, boolean created, Vote vote, String error) {
+
+    static VoteOutcome created(int index, Vote vote) {
+        return new VoteOutcome(index, true, vote, null);
+    }
+
+    static VoteOutcome rejected(int index, String error) {
+        return new VoteOutcome(index, false, null, error);
+    }
+}
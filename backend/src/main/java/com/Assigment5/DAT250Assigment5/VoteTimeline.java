@@ -0,0 +1,115 @@
+package com.Assigment5.DAT250Assigment5;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turnout of each poll over time: the number of counted votes published in every minute
+ * and every hour, maintained on the vote write path next to the tallies, so a timeline
+ * costs one entry per bucket no matter how many votes the poll has.
+ * Minute buckets roll: once a new minute starts, those older than MINUTE_RETENTION are
+ * dropped. Hour buckets are kept as long as the poll. Written under the poll's lock.
+ */
+final class VoteTimeline {
+    static final long MINUTE_RETENTION_MILLIS = Duration.ofHours(48).toMillis();
+
+    enum Bucket {
+        MINUTE("1m", Duration.ofMinutes(1).toMillis()),
+        HOUR("1h", Duration.ofHours(1).toMillis());
+
+        final String label;
+        final long millis;
+
+        Bucket(String label, long millis) {
+            this.label = label;
+            this.millis = millis;
+        }
+
+        static Bucket parse(String label) {
+            for (Bucket bucket : values()) {
+                if (bucket.label.equals(label)) {
+                    return bucket;
+                }
+            }
+            throw new IllegalArgumentException("bucket must be 1m or 1h, not " + label);
+        }
+
+        long start(long epochMillis) {
+            return Math.floorDiv(epochMillis, millis) * millis;
+        }
+
+        // Per-minute deltas (minute start -> delta) summed up into this bucket size
+        Map<Long, Integer> rollUp(Map<Long, Integer> minuteDeltas) {
+            if (this == MINUTE) {
+                return minuteDeltas;
+            }
+            Map<Long, Integer> deltas = new HashMap<>();
+            minuteDeltas.forEach((minute, delta) -> PollStoreListener.addDelta(deltas, start(minute), delta));
+            return deltas;
+        }
+
+        // Oldest bucket start a timeline shows, Long.MIN_VALUE if there is no limit
+        long cutoff(long now) {
+            return this == MINUTE ? start(now - MINUTE_RETENTION_MILLIS) : Long.MIN_VALUE;
+        }
+    }
+
+    private final Map<Long, ConcurrentNavigableMap<Long, LongAdder>> minutes = new ConcurrentHashMap<>(); // key: poll id -> (minute start -> votes)
+    private final Map<Long, ConcurrentNavigableMap<Long, LongAdder>> hours = new ConcurrentHashMap<>();   // key: poll id -> (hour start -> votes)
+
+    // Start of the minute a vote was published in, null if it has no (numeric) timestamp
+    static Long minuteOf(String publishedAt) {
+        if (publishedAt == null) {
+            return null;
+        }
+        try {
+            return Bucket.MINUTE.start(Long.parseLong(publishedAt));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Apply per-minute deltas (minute start -> delta) of one poll
+    void add(Long pollId, Map<Long, Integer> minuteDeltas) {
+        ConcurrentNavigableMap<Long, LongAdder> pollMinutes = minutes.computeIfAbsent(pollId, id -> new ConcurrentSkipListMap<>());
+        ConcurrentNavigableMap<Long, LongAdder> pollHours = hours.computeIfAbsent(pollId, id -> new ConcurrentSkipListMap<>());
+        minuteDeltas.forEach((minute, delta) -> {
+            LongAdder counter = pollMinutes.get(minute);
+            if (counter == null && delta > 0) {
+                counter = new LongAdder();
+                pollMinutes.put(minute, counter);
+                pollMinutes.headMap(minute - MINUTE_RETENTION_MILLIS).clear();  // a new minute: roll off the old ones
+            }
+            if (counter != null) {
+                counter.add(delta);  // uncounting a vote from a minute that rolled off only touches its hour
+            }
+            pollHours.computeIfAbsent(Bucket.HOUR.start(minute), hour -> new LongAdder()).add(delta);
+        });
+    }
+
+    void clear(Long pollId) {
+        minutes.remove(pollId);
+        hours.remove(pollId);
+    }
+
+    // Bucket start -> votes, oldest first; empty buckets are left out
+    Map<Long, Integer> count(Long pollId, Bucket bucket) {
+        Map<Long, Integer> counts = new TreeMap<>();
+        ConcurrentNavigableMap<Long, LongAdder> buckets = (bucket == Bucket.MINUTE ? minutes : hours).get(pollId);
+        if (buckets != null) {
+            buckets.tailMap(bucket.cutoff(System.currentTimeMillis())).forEach((start, adder) -> {
+                int count = adder.intValue();
+                if (count > 0) {
+                    counts.put(start, count);
+                }
+            });
+        }
+        return counts;
+    }
+}
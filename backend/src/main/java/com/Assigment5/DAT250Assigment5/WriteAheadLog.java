@@ -0,0 +1,699 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log behind InMemoryPollStore (polls.wal.dir), so users, polls, votes and
+ * their ids survive a restart and Redis keys like poll:{id}:votes keep naming the same poll.
+ *
+ * Every change is appended as one record (length, CRC32C, then varint/UTF-8 fields) to a
+ * memory-mapped segment file, wal-N.log. Appends are serialized and made while the store
+ * holds its locks, so replaying the records in file order rebuilds the same store.
+ * Durability is group-committed: a writer returns once a force() covering its record has
+ * run, and one force() covers every record appended before it, so concurrent writers share
+ * the fsync. With polls.wal.sync-interval-ms > 0 writers do not wait at all and a background
+ * thread forces the log at that interval instead; a crash then loses at most that window.
+ *
+ * After every snapshotEvery filled segments a background thread replays the last snapshot
+ * and those segments into a scratch store and writes what is left as snapshot-N.bin (the
+ * creation records of the live entities, in the log's format), then deletes the files it
+ * covers. Building the snapshot from the files rather than the live maps keeps it exact
+ * without pausing writers. Startup loads the newest snapshot and replays the segments after
+ * it; a torn record (crash mid-append) ends its segment.
+ */
+final class WriteAheadLog implements PollStoreJournal {
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+    static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    // Record types
+    private static final byte USER = 1;
+    private static final byte POLL = 2;
+    private static final byte VOTE_OPTION = 3;
+    private static final byte VOTE = 4;
+    private static final byte USER_DELETED = 5;
+    private static final byte POLL_DELETED = 6;
+    private static final byte VOTE_OPTIONS_DELETED = 7;
+    private static final byte VOTES_DELETED = 8;
+    private static final byte VOTE_DELETED = 9;
+
+    private static final int FRAME_HEADER = 8;              // record length + CRC32C of the record
+    private static final int SNAPSHOT_MAGIC = 0x504F4C53;   // "POLS"
+    private static final int SNAPSHOT_VERSION = 2;  // 1: one next id per sequence, 2: shared and node next ids
+    private static final String SEGMENT = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long syncIntervalMillis;
+    private final int snapshotEvery;
+    private final int idNode;  // the live store's, so the scratch store keeps this node's own ids
+
+    // Appends: one at a time, into the mapped tail of the current segment
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final RecordEncoder encoder = new RecordEncoder();
+    private final CRC32C crc = new CRC32C();
+    private long segmentNumber;
+    private MappedByteBuffer segment;
+    private int forcedUpTo;      // offset in the current segment up to which it has been forced
+    private long appended;       // bytes appended since startup, over all segments
+    private boolean closed;
+
+    // Group commit: positions (in appended bytes) known to be on disk, and the last record of each thread
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final AtomicLong durable = new AtomicLong();
+    private final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+    private final ScheduledExecutorService syncer;
+
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private final LogSampler snapshotWarnings = new LogSampler(Duration.ofMinutes(1));  // retried at every full segment
+    private final LogSampler syncWarnings = new LogSampler(Duration.ofMinutes(1));      // retried at every sync interval
+    private final ExecutorService snapshotter;
+    private volatile long snapshotSegment;  // newest segment covered by a snapshot, 0 if none
+
+    private WriteAheadLog(Path dir, int segmentSize, long syncIntervalMillis, int snapshotEvery, long snapshotSegment, int idNode) {
+        this.dir = dir;
+        this.idNode = idNode;
+        this.segmentSize = segmentSize;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        this.snapshotSegment = snapshotSegment;
+        this.snapshotter = Executors.newSingleThreadExecutor(r -> daemon(r, "wal-snapshot"));
+        if (syncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "wal-sync"));
+            syncer.scheduleWithFixedDelay(this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Rebuild the (empty) store from dir, newest snapshot first and then the segments after it,
+     * and attach a log that continues in a new segment.
+     */
+    static WriteAheadLog open(Path dir, InMemoryPollStore store, int segmentSize,
+                              long syncIntervalMillis, int snapshotEvery) throws IOException {
+        Files.createDirectories(dir);
+        for (Path leftover : list(dir, ".tmp")) {
+            Files.delete(leftover);  // a snapshot that was being written when the process stopped
+        }
+        long start = System.nanoTime();
+        long covered = loadNewestSnapshot(dir, store);
+        long last = covered;
+        int records = 0;
+        for (long number : numbers(dir, SEGMENT, SEGMENT_SUFFIX)) {
+            if (number > covered) {
+                records += replaySegment(dir, number, store);
+            }
+            last = Math.max(last, number);
+        }
+        log.info("Recovered polls from {}: snapshot {} + {} log records in {} ms",
+                dir, covered, records, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        WriteAheadLog wal = new WriteAheadLog(dir, segmentSize, syncIntervalMillis, snapshotEvery, covered, store.idNode());
+        wal.openSegment(last + 1);
+        store.setJournal(wal);
+        return wal;
+    }
+
+    @Override
+    public void userCreated(User user) {
+        record(out -> encodeUser(out, user));
+    }
+
+    @Override
+    public void pollCreated(Poll poll) {
+        record(out -> encodePoll(out, poll));
+    }
+
+    @Override
+    public void voteOptionCreated(VoteOption voteOption) {
+        record(out -> encodeVoteOption(out, voteOption));
+    }
+
+    @Override
+    public void voteCreated(Vote vote) {
+        record(out -> encodeVote(out, vote));
+    }
+
+    @Override
+    public void userDeleted(Long userId) {
+        record(out -> out.start(USER_DELETED).id(userId));
+    }
+
+    @Override
+    public void pollDeleted(Long pollId) {
+        record(out -> out.start(POLL_DELETED).id(pollId));
+    }
+
+    @Override
+    public void voteOptionsDeleted(Long pollId) {
+        record(out -> out.start(VOTE_OPTIONS_DELETED).id(pollId));
+    }
+
+    @Override
+    public void votesDeleted(Long pollId) {
+        record(out -> out.start(VOTES_DELETED).id(pollId));
+    }
+
+    @Override
+    public void voteDeleted(Long voteId) {
+        record(out -> out.start(VOTE_DELETED).id(voteId));
+    }
+
+    // Wait until this thread's last record is on disk; whoever forces the log covers everyone before it
+    @Override
+    public void commit() {
+        long position = lastAppended.get()[0];
+        if (syncIntervalMillis == 0 && position > durable.get()) {
+            sync(position);
+        }
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segment.force();
+            durable.accumulateAndGet(appended, Math::max);
+        } finally {
+            appendLock.unlock();
+        }
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        snapshotter.shutdownNow();  // an unfinished snapshot is only a .tmp file, removed on the next start
+    }
+
+    // Roll to a new segment and snapshot everything before it, now (tests and benchmarks)
+    void snapshot() throws IOException {
+        long upTo;
+        appendLock.lock();
+        try {
+            upTo = segmentNumber;
+            roll(false);
+        } finally {
+            appendLock.unlock();
+        }
+        writeSnapshot(upTo);
+    }
+
+    private void record(Consumer<RecordEncoder> fields) {
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            fields.accept(encoder);
+            int length = encoder.size;
+            if (FRAME_HEADER + length > segmentSize) {
+                throw new IllegalArgumentException("Log record of " + length + " bytes does not fit in a segment");
+            }
+            if (segment.remaining() < FRAME_HEADER + length) {
+                roll(true);
+            }
+            crc.reset();
+            crc.update(encoder.bytes, 0, length);
+            segment.putInt(length).putInt((int) crc.getValue()).put(encoder.bytes, 0, length);
+            appended += FRAME_HEADER + length;
+            lastAppended.get()[0] = appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Called with appendLock held: the full segment is forced before the next one is started
+    private void roll(boolean scheduleSnapshot) {
+        segment.force();
+        durable.accumulateAndGet(appended, Math::max);
+        long full = segmentNumber;
+        try {
+            openSegment(full + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (scheduleSnapshot && full - snapshotSegment >= snapshotEvery && snapshotScheduled.compareAndSet(false, true)) {
+            snapshotter.execute(() -> {
+                snapshotScheduled.set(false);
+                try {
+                    writeSnapshot(full);
+                } catch (IOException | RuntimeException e) {
+                    long skipped = snapshotWarnings.sample();
+                    if (skipped >= 0) {
+                        log.warn("Snapshot of {} failed ({} similar warnings suppressed): {}", dir, skipped, e.getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    private void openSegment(long number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(dir, number),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);  // the mapping outlives the channel
+        }
+        segmentNumber = number;
+        forcedUpTo = 0;
+    }
+
+    private void sync(long position) {
+        syncLock.lock();
+        try {
+            if (durable.get() >= position) {
+                return;  // forced by whoever held the lock before us
+            }
+            MappedByteBuffer target;
+            int from;
+            int to;
+            long upTo;
+            appendLock.lock();
+            try {
+                target = segment;
+                from = forcedUpTo;
+                to = segment.position();
+                upTo = appended;
+                forcedUpTo = to;
+            } finally {
+                appendLock.unlock();
+            }
+            if (to > from) {
+                target.force(from, to - from);  // earlier segments were forced when they filled up
+            }
+            durable.accumulateAndGet(upTo, Math::max);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync(Long.MAX_VALUE);
+        } catch (RuntimeException e) {
+            long skipped = syncWarnings.sample();
+            if (skipped >= 0) {
+                log.warn("Syncing {} failed ({} similar warnings suppressed): {}", dir, skipped, e.getMessage());
+            }
+        }
+    }
+
+    // Snapshot up to segment upTo (inclusive), replacing the segments and snapshots it covers
+    private void writeSnapshot(long upTo) throws IOException {
+        snapshotLock.lock();
+        try {
+            if (upTo <= snapshotSegment) {
+                return;
+            }
+            long start = System.nanoTime();
+            InMemoryPollStore scratch = new InMemoryPollStore();
+            scratch.setIdNode(idNode, 1);  // it never leases, only counts what it replays
+            long covered = loadNewestSnapshot(dir, scratch);
+            for (long number : numbers(dir, SEGMENT, SEGMENT_SUFFIX)) {
+                if (number > covered && number <= upTo) {
+                    replaySegment(dir, number, scratch);
+                }
+            }
+
+            Path target = snapshotPath(dir, upTo);
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20))) {
+                writeSnapshot(scratch, out);
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            snapshotSegment = upTo;
+
+            for (long number : numbers(dir, SEGMENT, SEGMENT_SUFFIX)) {
+                if (number <= upTo) {
+                    Files.deleteIfExists(segmentPath(dir, number));
+                }
+            }
+            for (long number : numbers(dir, SNAPSHOT, SNAPSHOT_SUFFIX)) {
+                if (number < upTo) {
+                    Files.deleteIfExists(snapshotPath(dir, number));
+                }
+            }
+            log.info("Wrote {} in {} ms", target, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    // Header (magic, version, next ids), then the creation records of what the store holds, then a 0 length
+    private static void writeSnapshot(InMemoryPollStore store, DataOutputStream out) throws IOException {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        for (long nextId : store.nextIds()) {
+            out.writeLong(nextId);
+        }
+        RecordEncoder encoder = new RecordEncoder();
+        CRC32C checksum = new CRC32C();
+        for (Iterator<User> it = store.streamUsers(null).iterator(); it.hasNext(); ) {
+            encodeUser(encoder, it.next());
+            writeFrame(out, encoder, checksum);
+        }
+        List<Poll> polls = store.streamPolls(null, null).toList();
+        for (Poll poll : polls) {
+            encodePoll(encoder, poll);
+            writeFrame(out, encoder, checksum);
+        }
+        // Options in the order of their poll's list, so the lists come back in the same order
+        Set<Long> written = new HashSet<>();
+        for (Poll poll : polls) {
+            Set<Long> stored = new HashSet<>();
+            store.getVoteOptionsByPollId(poll.getId()).forEach(option -> stored.add(option.getId()));
+            for (VoteOption option : poll.getVoteOptions()) {
+                if (stored.contains(option.getId()) && written.add(option.getId())) {
+                    encodeVoteOption(encoder, option);
+                    writeFrame(out, encoder, checksum);
+                }
+            }
+        }
+        for (Iterator<VoteOption> it = store.streamVoteOptions(null, null).iterator(); it.hasNext(); ) {
+            VoteOption option = it.next();
+            if (!written.contains(option.getId())) {  // options without a stored poll
+                encodeVoteOption(encoder, option);
+                writeFrame(out, encoder, checksum);
+            }
+        }
+        for (Iterator<Vote> it = store.streamVotes(null, null, null).iterator(); it.hasNext(); ) {
+            encodeVote(encoder, it.next());
+            writeFrame(out, encoder, checksum);
+        }
+        out.writeInt(0);
+    }
+
+    private static void writeFrame(DataOutputStream out, RecordEncoder encoder, CRC32C checksum) throws IOException {
+        checksum.reset();
+        checksum.update(encoder.bytes, 0, encoder.size);
+        out.writeInt(encoder.size);
+        out.writeInt((int) checksum.getValue());
+        out.write(encoder.bytes, 0, encoder.size);
+    }
+
+    // Load the newest snapshot into the store; returns the last segment it covers, 0 if there is none
+    private static long loadNewestSnapshot(Path dir, InMemoryPollStore store) throws IOException {
+        List<Long> snapshots = numbers(dir, SNAPSHOT, SNAPSHOT_SUFFIX);
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        long number = snapshots.get(snapshots.size() - 1);
+        Path path = snapshotPath(dir, number);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 20))) {
+            int version;
+            if (in.readInt() != SNAPSHOT_MAGIC || (version = in.readInt()) < 1 || version > SNAPSHOT_VERSION) {
+                throw new IOException(path + " is not a poll snapshot");
+            }
+            long[] nextIds = new long[version == 1 ? 4 : 8];
+            for (int i = 0; i < nextIds.length; i++) {
+                nextIds[i] = in.readLong();
+            }
+            CRC32C checksum = new CRC32C();
+            byte[] record = new byte[256];
+            int length;
+            while ((length = in.readInt()) != 0) {
+                int expected = in.readInt();
+                if (length > record.length) {
+                    record = new byte[Math.max(length, record.length * 2)];
+                }
+                in.readFully(record, 0, length);
+                checksum.reset();
+                checksum.update(record, 0, length);
+                if ((int) checksum.getValue() != expected) {
+                    throw new IOException(path + " is corrupt");
+                }
+                apply(ByteBuffer.wrap(record, 0, length), store);
+            }
+            store.restoreNextIds(nextIds);
+        } catch (EOFException e) {
+            throw new IOException(path + " is truncated", e);
+        }
+        return number;
+    }
+
+    // Apply the records of one segment up to its end or its first torn record; returns how many were applied
+    private static int replaySegment(Path dir, long number, InMemoryPollStore store) throws IOException {
+        ByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(segmentPath(dir, number), StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        CRC32C checksum = new CRC32C();
+        int records = 0;
+        while (segment.remaining() >= FRAME_HEADER) {
+            int length = segment.getInt();
+            int expected = segment.getInt();
+            if (length == 0) {
+                break;  // the zero-filled rest of the segment
+            }
+            ByteBuffer record = length > 0 && length <= segment.remaining() ? segment.slice(segment.position(), length) : null;
+            if (record != null) {
+                checksum.reset();
+                checksum.update(record.duplicate());
+            }
+            if (record == null || (int) checksum.getValue() != expected) {
+                log.warn("{} ends in a torn record after {} records", segmentPath(dir, number), records);
+                break;
+            }
+            apply(record, store);
+            segment.position(segment.position() + length);
+            records++;
+        }
+        return records;
+    }
+
+    private static void apply(ByteBuffer record, InMemoryPollStore store) {
+        byte type = record.get();
+        switch (type) {
+            case USER -> {
+                Long id = readId(record);
+                String username = readText(record);
+                User user = new User(username, readText(record));
+                user.setId(id);
+                store.restoreUser(user);
+            }
+            case POLL -> {
+                Long id = readId(record);
+                User creator = userRef(readId(record));
+                Poll poll = new Poll(readText(record), creator);
+                poll.setId(id);
+                poll.setPublishedAt(readText(record));
+                poll.setValidUntil(readText(record));
+                store.restorePoll(poll);
+            }
+            case VOTE_OPTION -> {
+                Long id = readId(record);
+                Poll poll = pollRef(readId(record));
+                int order = (int) readNumber(record);
+                VoteOption option = new VoteOption(readText(record), order, poll);
+                option.setId(id);
+                store.restoreVoteOption(option);
+            }
+            case VOTE -> {
+                Long id = readId(record);
+                User user = userRef(readId(record));
+                Vote vote = new Vote(user, voteOptionRef(readId(record)));
+                vote.setId(id);
+                vote.setPublishedAt(readText(record));
+                store.restoreVote(vote);
+            }
+            case USER_DELETED -> store.restoreUserDeleted(readId(record));
+            case POLL_DELETED -> store.deletePoll(readId(record));
+            case VOTE_OPTIONS_DELETED -> store.deleteVoteOptionsByPollId(readId(record));
+            case VOTES_DELETED -> store.deleteVotesByPollId(readId(record));
+            case VOTE_DELETED -> store.deleteVote(readId(record));
+            default -> throw new IllegalStateException("Unknown log record type " + type);
+        }
+    }
+
+    // Records name related entities by id only; the store resolves them as it did originally
+    private static void encodeUser(RecordEncoder out, User user) {
+        out.start(USER).id(user.getId()).text(user.getUsername()).text(user.getEmail());
+    }
+
+    private static void encodePoll(RecordEncoder out, Poll poll) {
+        out.start(POLL).id(poll.getId()).id(poll.getCreator() != null ? poll.getCreator().getId() : null)
+                .text(poll.getQuestion()).text(poll.getPublishedAt()).text(poll.getValidUntil());
+    }
+
+    private static void encodeVoteOption(RecordEncoder out, VoteOption option) {
+        out.start(VOTE_OPTION).id(option.getId()).id(option.getPoll() != null ? option.getPoll().getId() : null)
+                .number(option.getPresentationOrder()).text(option.getCaption());
+    }
+
+    private static void encodeVote(RecordEncoder out, Vote vote) {
+        out.start(VOTE).id(vote.getId()).id(vote.getUser() != null ? vote.getUser().getId() : null)
+                .id(vote.getVoteOption() != null ? vote.getVoteOption().getId() : null).text(vote.getPublishedAt());
+    }
+
+    private static User userRef(Long id) {
+        if (id == null) {
+            return null;
+        }
+        User user = new User(null, null);
+        user.setId(id);
+        return user;
+    }
+
+    private static Poll pollRef(Long id) {
+        if (id == null) {
+            return null;
+        }
+        Poll poll = new Poll(null, null);
+        poll.setId(id);
+        return poll;
+    }
+
+    private static VoteOption voteOptionRef(Long id) {
+        if (id == null) {
+            return null;
+        }
+        VoteOption option = new VoteOption(null, 0, null);
+        option.setId(id);
+        return option;
+    }
+
+    private static long readNumber(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static Long readId(ByteBuffer in) {
+        long id = readNumber(in);
+        return id == 0 ? null : id;
+    }
+
+    private static String readText(ByteBuffer in) {
+        int length = (int) readNumber(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length - 1];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    // Growable buffer a record is encoded into: varint numbers (ids start at 1, so 0 means none), UTF-8 text
+    private static final class RecordEncoder {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        RecordEncoder start(byte type) {
+            size = 0;
+            bytes[size++] = type;
+            return this;
+        }
+
+        RecordEncoder number(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+            return this;
+        }
+
+        RecordEncoder id(Long id) {
+            return number(id == null ? 0 : id);
+        }
+
+        // Length + 1 first, so that 0 can stand for null
+        RecordEncoder text(String text) {
+            if (text == null) {
+                return number(0);
+            }
+            byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+            number(utf8.length + 1L);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+            }
+        }
+    }
+
+    private static Path segmentPath(Path dir, long number) {
+        return dir.resolve(String.format("%s%016d%s", SEGMENT, number, SEGMENT_SUFFIX));
+    }
+
+    private static Path snapshotPath(Path dir, long number) {
+        return dir.resolve(String.format("%s%016d%s", SNAPSHOT, number, SNAPSHOT_SUFFIX));
+    }
+
+    // Numbers of the files named prefix + number + suffix, ascending
+    private static List<Long> numbers(Path dir, String prefix, String suffix) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        for (Path path : list(dir, suffix)) {
+            String name = path.getFileName().toString();
+            if (name.startsWith(prefix)) {
+                numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static List<Path> list(Path dir, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(suffix)).toList();
+        }
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,30 @@
+package com.Assigment5.DAT250Assigment5.controllers;
+
+import com.Assigment5.DAT250Assigment5.PollManager;
+import com.Assigment5.DAT250Assigment5.ResultsWarmUp;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+@RequestMapping("/admin")
+@CrossOrigin
+@Tag(name = "Admin", description = "Operational APIs")
+public class AdminController {
+
+    @Autowired
+    private PollManager pollManager;
+
+    @Operation(summary = "Warm up the results cache", description = "Writes the vote counts of every poll to Redis in pipelined batches and returns how many were written; waits for a warm-up already running instead of starting another")
+    @PostMapping("/results-cache/warm-up")
+    public ResultsWarmUp warmUpResults() {
+        try {
+            return pollManager.warmUpResults();
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());  // no Redis to warm up
+        }
+    }
+}
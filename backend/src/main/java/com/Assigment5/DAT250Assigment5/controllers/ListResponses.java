@@ -0,0 +1,63 @@
+package com.Assigment5.DAT250Assigment5.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Shared handling of the list endpoints (GET /users, /polls, /votes, /voteoptions).
+ *
+ * Without afterId/limit the whole (filtered) list is returned as before. With them the
+ * response is one page in id order; the id of its last entry is the afterId of the next page.
+ * With format=ndjson the entities are written one per line with Jackson's streaming
+ * generator as they are read, so exports use constant memory however large the store is.
+ */
+final class ListResponses {
+    static final String NDJSON = "application/x-ndjson";
+    static final String NDJSON_PARAM = "format=ndjson";
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1_000;
+
+    private ListResponses() {
+    }
+
+    static <T> List<T> page(Stream<T> entities, Long afterId, Integer limit) {
+        if (afterId == null && limit == null) {
+            return entities.toList();  // unpaged, as the endpoints always behaved
+        }
+        int size = limit == null ? DEFAULT_LIMIT : limit;
+        if (size < 1 || size > MAX_LIMIT) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_LIMIT);
+        }
+        return entities.limit(size).toList();
+    }
+
+    static ResponseEntity<StreamingResponseBody> ndjson(ObjectMapper objectMapper, Stream<?> entities) {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.setRootValueSeparator(new SerializedString("\n"));
+                Iterator<?> it = entities.iterator();
+                if (!it.hasNext()) {
+                    return;
+                }
+                while (it.hasNext()) {
+                    writer.writeValue(generator, it.next());  // the generator buffers and flushes as it fills
+                }
+                generator.writeRaw('\n');  // terminate the last line too
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+}
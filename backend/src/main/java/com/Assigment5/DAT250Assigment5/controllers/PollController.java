@@ -1,11 +1,23 @@
 package com.Assigment5.DAT250Assigment5.controllers;
 
+import com.Assigment5.DAT250Assigment5.PollImport;
 import com.Assigment5.DAT250Assigment5.PollManager;
 import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.PollSummary;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -17,18 +29,42 @@ public class PollController {
     @Autowired
     private PollManager pollManager;
 
-    @Operation(summary = "Get all polls", description = "Returns a list of all polls") // Step 6: API Documentation
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Operation(summary = "Get all polls", description = "Returns all polls (optionally only those of creatorId), or one page of them in id order when afterId/limit are given") // Step 6: API Documentation
     @GetMapping
-    public List<Poll> getAllPolls() {
-        return pollManager.getAllPolls();
+    public List<PollSummary> getAllPolls(@RequestParam(required = false) Long creatorId,
+                                         @RequestParam(required = false) Long afterId,
+                                         @RequestParam(required = false) Integer limit) {
+        return ListResponses.page(pollManager.findPollSummaries(creatorId, afterId), afterId, limit);
+    }
+
+    @Operation(summary = "Export polls", description = "Streams polls as newline-delimited JSON (format=ndjson)")
+    @GetMapping(params = ListResponses.NDJSON_PARAM, produces = ListResponses.NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportPolls(@RequestParam(required = false) Long creatorId,
+                                             @RequestParam(required = false) Long afterId) {
+        return ListResponses.ndjson(objectMapper, pollManager.findPollSummaries(creatorId, afterId));
     }
 
-    @Operation(summary = "Create a new poll", description = "Creates a new poll and returns it") // Step 6: API Documentation
+    @Operation(summary = "Create a new poll", description = "Creates a new poll together with the voteOptions it is sent with and returns it") // Step 6: API Documentation
     @PostMapping
     public Poll createPoll(@RequestBody Poll poll) {
         return pollManager.createPoll(poll);
     }
 
+    @Operation(summary = "Import polls in bulk", description = "Creates the polls of a JSON array or newline-delimited JSON body, each with its voteOptions, reading and storing them in batches; returns how many were created")
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, ListResponses.NDJSON})
+    public ResponseEntity<PollImport> importPolls(InputStream body) throws IOException {
+        // readValues reads one poll at a time, from an array or from a sequence of root values
+        try (MappingIterator<Poll> polls = objectMapper.readerFor(Poll.class).readValues(body)) {
+            PollImport result = pollManager.importPolls(polls);
+            return result.error() == null ? ResponseEntity.ok(result) : ResponseEntity.badRequest().body(result);
+        } catch (JsonProcessingException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getOriginalMessage());  // not even the start could be read
+        }
+    }
+
     @Operation(summary = "Delete a poll", description = "Deletes a poll by its ID") // Step 6: API Documentation
     @DeleteMapping("/{id}")
     public void deletePoll(@PathVariable Long id) {
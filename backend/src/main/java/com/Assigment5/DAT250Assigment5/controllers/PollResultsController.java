@@ -1,9 +1,16 @@
 package com.Assigment5.DAT250Assigment5.controllers;
 
 import com.Assigment5.DAT250Assigment5.PollManager;
+import com.Assigment5.DAT250Assigment5.PollResultsBroadcaster;
+import com.Assigment5.DAT250Assigment5.TrendingPoll;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -14,6 +21,9 @@ public class PollResultsController {
     @Autowired
     private PollManager pollManager;
 
+    @Autowired
+    private PollResultsBroadcaster resultsBroadcaster;
+
     /**
      * Return aggregated vote counts for a poll.
      * Response: JSON object mapping voteOptionId -> count
@@ -22,5 +32,44 @@ public class PollResultsController {
     public Map<Long, Integer> getPollResults(@PathVariable Long pollId) {
         return pollManager.getVoteCountsForPoll(pollId);
     }
+
+    /**
+     * The most voted polls of the last window (5m, 1h or 24h), at most limit (1-100) of them.
+     * Response: JSON array of {pollId, question, score}, highest score first; score is the
+     * number of votes, each counting half as much for every window since it was cast
+     */
+    @GetMapping("/trending")
+    public List<TrendingPoll> getTrendingPolls(@RequestParam(defaultValue = "5m") String window,
+                                               @RequestParam(defaultValue = "20") int limit) {
+        try {
+            return pollManager.getTrendingPolls(window, limit);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());  // unknown window or limit out of range
+        }
+    }
+
+    /**
+     * Turnout over time: counted votes per minute (bucket=1m, last 48 hours) or per hour (bucket=1h).
+     * Response: JSON object mapping bucket start (epoch millis) -> count, oldest first; empty buckets are left out
+     */
+    @GetMapping("/{pollId}/results/timeline")
+    public Map<Long, Integer> getPollTimeline(@PathVariable Long pollId,
+                                              @RequestParam(defaultValue = "1m") String bucket) {
+        try {
+            return pollManager.getVoteTimeline(pollId, bucket);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());  // unknown bucket size
+        }
+    }
+
+    /**
+     * Live results as Server-Sent Events.
+     * First a "snapshot" event with all counts, then "delta" events with only the
+     * options whose count changed (at most polls.results.stream.max-updates-per-second).
+     */
+    @GetMapping(path = "/{pollId}/results/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamPollResults(@PathVariable Long pollId) {
+        return resultsBroadcaster.subscribe(pollId);
+    }
 }
 
@@ -1,12 +1,18 @@
 package com.Assigment5.DAT250Assigment5.controllers;
 
 import com.Assigment5.DAT250Assigment5.PollManager;
+import com.Assigment5.DAT250Assigment5.UserDeletion;
 import com.Assigment5.DAT250Assigment5.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import java.net.URI;
 import java.util.List;
 
 @RestController
@@ -18,10 +24,20 @@ public class UserController {
     @Autowired
     private PollManager pollManager;
 
-    @Operation(summary = "Get all users", description = "Returns a list of all registered users") // Step 6: API Documentation
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Operation(summary = "Get all users", description = "Returns all registered users, or one page of them in id order when afterId/limit are given") // Step 6: API Documentation
     @GetMapping
-    public List<User> getAllUsers() {
-        return pollManager.getAllUsers();
+    public List<User> getAllUsers(@RequestParam(required = false) Long afterId,
+                                  @RequestParam(required = false) Integer limit) {
+        return ListResponses.page(pollManager.findUsers(afterId), afterId, limit);
+    }
+
+    @Operation(summary = "Export users", description = "Streams users as newline-delimited JSON (format=ndjson)")
+    @GetMapping(params = ListResponses.NDJSON_PARAM, produces = ListResponses.NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportUsers(@RequestParam(required = false) Long afterId) {
+        return ListResponses.ndjson(objectMapper, pollManager.findUsers(afterId));
     }
 
     @Operation(summary = "Create a new user", description = "Creates a new user account and returns the created user") // Step 6: API Documentation
@@ -30,9 +46,20 @@ public class UserController {
         return pollManager.createUser(user);
     }
 
+    @Operation(summary = "Delete a user", description = "Deletes the user with its polls and votes in the background; returns 202 with the progress, which GET /users/{id}/deletion keeps reporting")
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteUser(@PathVariable Long id) {
-        pollManager.deleteUser(id);
-        return ResponseEntity.noContent().build();
+    public ResponseEntity<UserDeletion> deleteUser(@PathVariable Long id) {
+        UserDeletion deletion = pollManager.deleteUserInBackground(id);
+        return ResponseEntity.accepted().location(URI.create("/users/" + id + "/deletion")).body(deletion);
+    }
+
+    @Operation(summary = "User deletion progress", description = "Entities removed so far and whether the deletion of the user is still running")
+    @GetMapping("/{id}/deletion")
+    public UserDeletion getUserDeletion(@PathVariable Long id) {
+        UserDeletion deletion = pollManager.getUserDeletion(id);
+        if (deletion == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No deletion of user " + id);
+        }
+        return deletion;
     }
 }
@@ -1,12 +1,20 @@
 package com.Assigment5.DAT250Assigment5.controllers;
 
+import com.Assigment5.DAT250Assigment5.PollClosedException;
 import com.Assigment5.DAT250Assigment5.PollManager;
+import com.Assigment5.DAT250Assigment5.VoteOutcome;
 import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/votes")
@@ -17,10 +25,29 @@ public class VoteController {
     @Autowired
     private PollManager pollManager;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Operation(summary = "Create a new vote", description = "Creates a new vote and returns it") // Step 6: API Documentation
     @PostMapping
     public Vote createVote(@RequestBody Vote vote) {
-        return pollManager.createVote(vote);
+        try {
+            return pollManager.createVote(vote);
+        } catch (PollClosedException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());  // past the poll's validUntil
+        }
+    }
+
+    @Operation(summary = "Create votes in bulk", description = "Stores an array of votes in one request and returns one outcome per entry")
+    @PostMapping("/batch")
+    public List<VoteOutcome> createVotes(@RequestBody List<Vote> votes) {
+        try {
+            return pollManager.createVotes(votes);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());  // batch too large
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());  // writer backlog full, retry later
+        }
     }
 
     @Operation(summary = "Remove a vote", description = "Deletes a user's vote for a given vote option")
@@ -29,9 +56,20 @@ public class VoteController {
         pollManager.deleteVote(voteId);
     }
 
-    @Operation(summary = "Get all votes", description = "Returns a list of all votes") // Step 6: API Documentation
+    @Operation(summary = "Get all votes", description = "Returns all votes (optionally filtered by pollId and/or userId), or one page of them in id order when afterId/limit are given") // Step 6: API Documentation
     @GetMapping
-    public List<Vote> getAllVotes() {
-        return pollManager.getAllVotes();
+    public List<Vote> getAllVotes(@RequestParam(required = false) Long pollId,
+                                  @RequestParam(required = false) Long userId,
+                                  @RequestParam(required = false) Long afterId,
+                                  @RequestParam(required = false) Integer limit) {
+        return ListResponses.page(pollManager.findVotes(pollId, userId, afterId), afterId, limit);
+    }
+
+    @Operation(summary = "Export votes", description = "Streams votes as newline-delimited JSON (format=ndjson)")
+    @GetMapping(params = ListResponses.NDJSON_PARAM, produces = ListResponses.NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportVotes(@RequestParam(required = false) Long pollId,
+                                             @RequestParam(required = false) Long userId,
+                                             @RequestParam(required = false) Long afterId) {
+        return ListResponses.ndjson(objectMapper, pollManager.findVotes(pollId, userId, afterId));
     }
 }
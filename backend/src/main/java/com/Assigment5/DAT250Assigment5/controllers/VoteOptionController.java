@@ -2,10 +2,13 @@ package com.Assigment5.DAT250Assigment5.controllers;
 
 import com.Assigment5.DAT250Assigment5.PollManager;
 import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import java.util.List;
 
 @RestController
@@ -17,15 +20,27 @@ public class VoteOptionController {
     @Autowired
     private PollManager pollManager;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Operation(summary = "Create a new vote option", description = "Creates a new vote option and returns it") // Step 6: API Documentation
     @PostMapping
     public VoteOption createVoteOption(@RequestBody VoteOption voteOption) {
         return pollManager.createVoteOption(voteOption);
     }
 
-    @Operation(summary = "Get all vote options", description = "Returns a list of all vote options") // Step 6: API Documentation
+    @Operation(summary = "Get all vote options", description = "Returns all vote options (optionally only those of pollId), or one page of them in id order when afterId/limit are given") // Step 6: API Documentation
     @GetMapping
-    public List<VoteOption> getAllVoteOptions() {
-        return pollManager.getAllVoteOptions();
+    public List<VoteOption> getAllVoteOptions(@RequestParam(required = false) Long pollId,
+                                              @RequestParam(required = false) Long afterId,
+                                              @RequestParam(required = false) Integer limit) {
+        return ListResponses.page(pollManager.findVoteOptions(pollId, afterId), afterId, limit);
+    }
+
+    @Operation(summary = "Export vote options", description = "Streams vote options as newline-delimited JSON (format=ndjson)")
+    @GetMapping(params = ListResponses.NDJSON_PARAM, produces = ListResponses.NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportVoteOptions(@RequestParam(required = false) Long pollId,
+                                                   @RequestParam(required = false) Long afterId) {
+        return ListResponses.ndjson(objectMapper, pollManager.findVoteOptions(pollId, afterId));
     }
 }
@@ -6,9 +6,17 @@ import java.util.ArrayList;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 @Entity
+// Fetch plan for reads that hand the poll to Jackson (creator and options are serialized with it)
+@NamedEntityGraph(name = Poll.WITH_CREATOR_AND_OPTIONS,
+        attributeNodes = {@NamedAttributeNode("createdBy"), @NamedAttributeNode("options")})
+@Cacheable // second-level cache: polls are read on every vote and rarely change
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Poll {
+    public static final String WITH_CREATOR_AND_OPTIONS = "Poll.withCreatorAndOptions";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -18,12 +26,13 @@ public class Poll {
     private String publishedAt;
     private String validUntil;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY) // loaded through a fetch plan where needed, not on every poll load
     @JsonIgnoreProperties("createdPolls") // ignore back reference
     private User createdBy;                          // Poll has a creator
 
     @OneToMany(mappedBy = "poll", cascade = CascadeType.ALL, orphanRemoval = true)
     @JsonIgnoreProperties("poll") // prevent infinite recursion
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private List<VoteOption> options = new ArrayList<>(); // Poll has options
 
     @OneToMany(mappedBy = "poll", cascade = CascadeType.ALL, orphanRemoval = true)
@@ -0,0 +1,38 @@
+package com.Assigment5.DAT250Assigment5.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read model behind GET /polls. Serializes exactly like a Poll (creator and options
+ * included, no back references), but under JPA it is projected straight from two
+ * queries per page instead of loading Poll, User and VoteOption entities.
+ */
+public record PollSummary(Long id, String question, String publishedAt, String validUntil,
+                          Creator creator, List<Option> voteOptions) {
+
+    public record Creator(Long id, String username, String email) {}
+
+    public record Option(Long id, String caption, int presentationOrder) {}
+
+    // Constructor expression for JPQL (select new ...); the options are added afterwards
+    public PollSummary(Long id, String question, String publishedAt, String validUntil,
+                       Long creatorId, String creatorUsername, String creatorEmail) {
+        this(id, question, publishedAt, validUntil,
+                creatorId != null ? new Creator(creatorId, creatorUsername, creatorEmail) : null,
+                new ArrayList<>());
+    }
+
+    public static PollSummary of(Poll poll) {
+        User creator = poll.getCreator();
+        List<Option> options = new ArrayList<>();
+        if (poll.getVoteOptions() != null) {
+            for (VoteOption option : poll.getVoteOptions()) {
+                options.add(new Option(option.getId(), option.getCaption(), option.getPresentationOrder()));
+            }
+        }
+        return new PollSummary(poll.getId(), poll.getQuestion(), poll.getPublishedAt(), poll.getValidUntil(),
+                creator != null ? new Creator(creator.getId(), creator.getUsername(), creator.getEmail()) : null,
+                options);
+    }
+}
@@ -4,22 +4,31 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 
 @Entity
+// Fetch plan for reads that hand the vote to Jackson: voter, option, the option's poll and its creator
+@NamedEntityGraph(name = Vote.WITH_USER_AND_OPTION,
+        attributeNodes = {@NamedAttributeNode("castBy"), @NamedAttributeNode(value = "votesOn", subgraph = "option")},
+        subgraphs = {
+                @NamedSubgraph(name = "option", attributeNodes = @NamedAttributeNode(value = "poll", subgraph = "poll")),
+                @NamedSubgraph(name = "poll", attributeNodes = @NamedAttributeNode("createdBy"))})
 public class Vote {
+    public static final String WITH_USER_AND_OPTION = "Vote.withUserAndOption";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "vote_seq")
+    @SequenceGenerator(name = "vote_seq", allocationSize = 50) // ids in blocks, so inserts can be JDBC-batched (IDENTITY cannot)
     private Long id;
 
     private String publishedAt;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JsonIgnoreProperties("votes") // break cycle
     private User castBy;        // Vote is made by a User
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JsonIgnoreProperties("votes") // break cycle
     private VoteOption votesOn; // Vote is for an Option
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     private Poll poll;
 
     protected Vote() {}
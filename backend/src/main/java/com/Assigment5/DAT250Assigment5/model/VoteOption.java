@@ -2,21 +2,30 @@ package com.Assigment5.DAT250Assigment5.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.util.LinkedHashSet;
 import java.util.Set;
 
 @Entity
+// Fetch plan for reads that hand the option to Jackson (its poll and the poll's creator are serialized with it)
+@NamedEntityGraph(name = VoteOption.WITH_POLL,
+        attributeNodes = @NamedAttributeNode(value = "poll", subgraph = "poll"),
+        subgraphs = @NamedSubgraph(name = "poll", attributeNodes = @NamedAttributeNode("createdBy")))
+@Cacheable // second-level cache: options are read on every vote and rarely change
+@org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class VoteOption {
+    public static final String WITH_POLL = "VoteOption.withPoll";
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "vote_option_seq")
+    @SequenceGenerator(name = "vote_option_seq", allocationSize = 50) // ids in blocks, so inserts can be JDBC-batched
     private Long id;
 
     private String caption;
     private int presentationOrder;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JsonIgnoreProperties("voteOptions") // avoid loop
     private Poll poll; // VoteOption belongs to a Poll
 
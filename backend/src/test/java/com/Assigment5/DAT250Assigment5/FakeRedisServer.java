@@ -0,0 +1,387 @@
+package com.Assigment5.DAT250Assigment5;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal stand-in for a local Redis, enough for the commands PollManager uses.
+ * Speaks RESP2 over a real socket, so the production Jedis client is exercised as is.
+ * Expiry is recorded but never enforced; tests drop keys explicitly instead.
+ */
+public class FakeRedisServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    private final Map<String, Object> data = new HashMap<>(); // String, Map<String, String> (hash) or SortedSet
+    private final Map<String, Long> ttls = new HashMap<>();
+    private final Map<String, AtomicInteger> commandCounts = new ConcurrentHashMap<>();
+    private final Map<String, List<OutputStream>> subscribers = new ConcurrentHashMap<>(); // key: channel
+    private volatile long latencyMillis; // fault injection: round trip delay
+
+    public FakeRedisServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "fake-redis-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // How often a command (upper case name) was received, including inside MULTI
+    public int commandCount(String command) {
+        AtomicInteger count = commandCounts.get(command);
+        return count == null ? 0 : count.get();
+    }
+
+    // Delay every round trip (the replies to a pipelined batch of commands) by this much,
+    // to stand in for a remote or slow (rather than down) Redis
+    public void setLatency(Duration latency) {
+        latencyMillis = latency.toMillis();
+    }
+
+    public synchronized Map<String, String> hash(String key) {
+        Object value = data.get(key);
+        return value instanceof Map<?, ?> ? new HashMap<>(castHash(value)) : Map.of();
+    }
+
+    // Members of a sorted set with their scores
+    public synchronized Map<String, Double> sortedSet(String key) {
+        Object value = data.get(key);
+        return value instanceof SortedSet sortedSet ? new HashMap<>(sortedSet.scores) : Map.of();
+    }
+
+    public synchronized Long ttl(String key) {
+        return ttls.get(key);
+    }
+
+    public synchronized void delete(String key) {
+        data.remove(key);
+        ttls.remove(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                clients.add(client);
+                Thread handler = new Thread(() -> serve(client), "fake-redis-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return; // server closed
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        OutputStream out;
+        try {
+            out = new BufferedOutputStream(client.getOutputStream());
+        } catch (IOException e) {
+            return;
+        }
+        try (client) {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            List<List<String>> queued = null; // commands inside MULTI
+            List<String> command;
+            while ((command = readCommand(in)) != null) {
+                String name = command.get(0).toUpperCase(Locale.ROOT);
+                commandCounts.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+                String reply;
+                if (name.equals("MULTI")) {
+                    queued = new ArrayList<>();
+                    reply = "+OK\r\n";
+                } else if (name.equals("EXEC") && queued != null) {
+                    StringBuilder replies = new StringBuilder("*" + queued.size() + "\r\n");
+                    synchronized (this) {
+                        for (List<String> q : queued) {
+                            replies.append(execute(q));
+                        }
+                    }
+                    queued = null;
+                    reply = replies.toString();
+                } else if (name.equals("DISCARD") && queued != null) {
+                    queued = null;
+                    reply = "+OK\r\n";
+                } else if (queued != null) {
+                    queued.add(command);
+                    reply = "+QUEUED\r\n";
+                } else if (name.equals("SUBSCRIBE") || name.equals("UNSUBSCRIBE")) {
+                    reply = subscription(name, command.subList(1, command.size()), out);
+                } else if (name.equals("PUBLISH")) {
+                    reply = integer(publish(command.get(1), command.get(2)));
+                } else {
+                    synchronized (this) {
+                        reply = execute(command);
+                    }
+                }
+                boolean flush = in.available() == 0; // answer pipelined commands in one go
+                if (flush && latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                send(out, reply, flush);
+            }
+        } catch (IOException | InterruptedException e) {
+            // client went away
+        } finally {
+            clients.remove(client);
+            subscribers.values().forEach(list -> list.remove(out));
+        }
+    }
+
+    private String subscription(String name, List<String> channels, OutputStream out) {
+        String kind = name.toLowerCase(Locale.ROOT);
+        StringBuilder reply = new StringBuilder();
+        for (String channel : channels) {
+            List<OutputStream> list = subscribers.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>());
+            if (name.equals("SUBSCRIBE")) {
+                list.add(out);
+            } else {
+                list.remove(out);
+            }
+            int count = (int) subscribers.values().stream().filter(l -> l.contains(out)).count();
+            reply.append("*3\r\n").append(bulk(kind)).append(bulk(channel)).append(integer(count));
+        }
+        return reply.toString();
+    }
+
+    private long publish(String channel, String message) {
+        List<OutputStream> list = subscribers.getOrDefault(channel, List.of());
+        String frame = "*3\r\n" + bulk("message") + bulk(channel) + bulk(message);
+        for (OutputStream out : list) {
+            try {
+                send(out, frame, true);
+            } catch (IOException e) {
+                list.remove(out);
+            }
+        }
+        return list.size();
+    }
+
+    private static void send(OutputStream out, String reply, boolean flush) throws IOException {
+        synchronized (out) {
+            out.write(reply.getBytes(StandardCharsets.UTF_8));
+            if (flush) {
+                out.flush();
+            }
+        }
+    }
+
+    // Runs one command with the server lock held and returns its RESP reply
+    private String execute(List<String> command) {
+        String name = command.get(0).toUpperCase(Locale.ROOT);
+        List<String> args = command.subList(1, command.size());
+        switch (name) {
+            case "PING":
+                return "+PONG\r\n";
+            case "CLIENT":
+            case "SELECT":
+            case "FLUSHALL":
+                if (name.equals("FLUSHALL")) {
+                    data.clear();
+                    ttls.clear();
+                }
+                return "+OK\r\n";
+            case "EXISTS": {
+                long n = args.stream().filter(data::containsKey).count();
+                return integer(n);
+            }
+            case "DEL": {
+                long n = 0;
+                for (String key : args) {
+                    ttls.remove(key);
+                    if (data.remove(key) != null) {
+                        n++;
+                    }
+                }
+                return integer(n);
+            }
+            case "EXPIRE":
+                if (!data.containsKey(args.get(0))) {
+                    return integer(0);
+                }
+                ttls.put(args.get(0), Long.parseLong(args.get(1)));
+                return integer(1);
+            case "HSET": {
+                Map<String, String> hash = hashForWrite(args.get(0));
+                long added = 0;
+                for (int i = 1; i + 1 < args.size(); i += 2) {
+                    if (hash.put(args.get(i), args.get(i + 1)) == null) {
+                        added++;
+                    }
+                }
+                return integer(added);
+            }
+            case "INCRBY": {
+                long value = Long.parseLong((String) data.getOrDefault(args.get(0), "0")) + Long.parseLong(args.get(1));
+                data.put(args.get(0), String.valueOf(value));
+                return integer(value);
+            }
+            case "HINCRBY": {
+                Map<String, String> hash = hashForWrite(args.get(0));
+                long value = Long.parseLong(hash.getOrDefault(args.get(1), "0")) + Long.parseLong(args.get(2));
+                hash.put(args.get(1), String.valueOf(value));
+                return integer(value);
+            }
+            case "HGETALL": {
+                Object value = data.get(args.get(0));
+                Map<String, String> hash = value instanceof Map<?, ?> ? castHash(value) : Map.of();
+                StringBuilder reply = new StringBuilder("*" + hash.size() * 2 + "\r\n");
+                hash.forEach((k, v) -> reply.append(bulk(k)).append(bulk(v)));
+                return reply.toString();
+            }
+            case "ZADD": {
+                SortedSet sortedSet = sortedSetForWrite(args.get(0));
+                long added = 0;
+                for (int i = 1; i + 1 < args.size(); i += 2) {
+                    if (sortedSet.scores.put(args.get(i + 1), Double.parseDouble(args.get(i))) == null) {
+                        added++;
+                    }
+                }
+                return integer(added);
+            }
+            case "ZINCRBY": {
+                SortedSet sortedSet = sortedSetForWrite(args.get(0));
+                double score = sortedSet.scores.merge(args.get(2), Double.parseDouble(args.get(1)), Double::sum);
+                return bulk(score(score));
+            }
+            case "ZREM": {
+                Object value = data.get(args.get(0));
+                long removed = 0;
+                if (value instanceof SortedSet sortedSet) {
+                    for (String member : args.subList(1, args.size())) {
+                        if (sortedSet.scores.remove(member) != null) {
+                            removed++;
+                        }
+                    }
+                    if (sortedSet.scores.isEmpty()) {
+                        data.remove(args.get(0));
+                    }
+                }
+                return integer(removed);
+            }
+            case "ZRANGE":
+            case "ZREVRANGE": {
+                Object value = data.get(args.get(0));
+                List<Map.Entry<String, Double>> members = new ArrayList<>();
+                if (value instanceof SortedSet sortedSet) {
+                    members.addAll(sortedSet.scores.entrySet());
+                }
+                members.sort(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+                if (name.equals("ZREVRANGE")) {
+                    Collections.reverse(members);
+                }
+                int size = members.size();
+                int start = Math.max(0, index(Integer.parseInt(args.get(1)), size));
+                int stop = Math.min(size - 1, index(Integer.parseInt(args.get(2)), size));
+                boolean withScores = args.size() > 3 && args.get(3).equalsIgnoreCase("WITHSCORES");
+                List<String> items = new ArrayList<>();
+                for (int i = start; i <= stop; i++) {
+                    items.add(members.get(i).getKey());
+                    if (withScores) {
+                        items.add(score(members.get(i).getValue()));
+                    }
+                }
+                StringBuilder reply = new StringBuilder("*" + items.size() + "\r\n");
+                items.forEach(item -> reply.append(bulk(item)));
+                return reply.toString();
+            }
+            default:
+                return "-ERR unknown command '" + name + "'\r\n";
+        }
+    }
+
+    private static final class SortedSet {
+        final Map<String, Double> scores = new HashMap<>();
+    }
+
+    private SortedSet sortedSetForWrite(String key) {
+        return (SortedSet) data.computeIfAbsent(key, k -> new SortedSet());
+    }
+
+    // Negative indexes count from the end, as in Redis
+    private static int index(int index, int size) {
+        return index < 0 ? size + index : index;
+    }
+
+    // Scores as Redis prints them: whole numbers without a fraction
+    private static String score(double score) {
+        return score == Math.rint(score) && Math.abs(score) < 0x1p53 ? String.valueOf((long) score) : String.valueOf(score);
+    }
+
+    private Map<String, String> hashForWrite(String key) {
+        Object value = data.computeIfAbsent(key, k -> new LinkedHashMap<String, String>());
+        return castHash(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> castHash(Object value) {
+        return (Map<String, String>) value;
+    }
+
+    private static String integer(long n) {
+        return ":" + n + "\r\n";
+    }
+
+    private static String bulk(String s) {
+        return "$" + s.getBytes(StandardCharsets.UTF_8).length + "\r\n" + s + "\r\n";
+    }
+
+    // Reads one RESP array of bulk strings, or null at end of stream
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        int count = Integer.parseInt(header.substring(1));
+        List<String> parts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = in.readNBytes(length);
+            in.readNBytes(2); // CRLF
+            parts.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return parts;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\r') {
+                in.read(); // '\n'
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return null;
+    }
+}
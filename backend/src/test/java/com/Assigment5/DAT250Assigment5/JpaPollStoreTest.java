@@ -0,0 +1,211 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.PollSummary;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// PollManager on the Hibernate-backed store (polls.store=jpa), against an in-memory H2 database
+public class JpaPollStoreTest {
+
+    private JpaPollStore store;
+    private PollManager pollManager;
+
+    private User alice;
+    private Poll poll;
+    private VoteOption vim;
+    private VoteOption emacs;
+
+    @BeforeEach
+    public void setUp() {
+        store = new JpaPollStore(JpaPollStore.configuration(
+                        "jdbc:h2:mem:" + UUID.randomUUID(), "sa", "", "create-drop")
+                .property("hibernate.generate_statistics", true)
+                .createEntityManagerFactory());
+        pollManager = new PollManager(store, null);
+
+        alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        emacs = pollManager.createVoteOption(new VoteOption("Emacs", 1, poll));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pollManager.close();
+        store.close();
+    }
+
+    @Test
+    public void testCountsComeFromTheDatabase() {
+        Vote first = pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVote(new Vote(alice, emacs));
+        assertEquals(Map.of(vim.getId(), 2, emacs.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+
+        pollManager.deleteVote(first.getId());
+        pollManager.deleteVote(first.getId()); // deleting twice must not count twice
+        assertEquals(Map.of(vim.getId(), 1, emacs.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        assertEquals(2, pollManager.getVotesByPollId(poll.getId()).size());
+        assertEquals(List.of(vim.getId(), emacs.getId()),
+                pollManager.getPoll(poll.getId()).getVoteOptions().stream().map(VoteOption::getId).toList());
+    }
+
+    @Test
+    public void testInlineOptionsAndImportsArePersistedWithTheirPolls() {
+        Poll inline = pollManager.createPoll(PollManagerTest.withOptions(new Poll("Tabs or spaces?", alice), "Tabs", "Spaces"));
+        VoteOption spaces = inline.getVoteOptions().get(1);
+        pollManager.createVote(new Vote(alice, spaces));
+        assertEquals(Map.of(spaces.getId(), 1), pollManager.getVoteCountsForPoll(inline.getId()));
+        assertEquals(List.of("Tabs", "Spaces"), pollManager.getVoteOptionsByPollId(inline.getId()).stream()
+                .map(VoteOption::getCaption).toList());
+
+        List<Poll> imported = List.of(
+                PollManagerTest.withOptions(new Poll("Light or dark?", alice), "Light", "Dark"),
+                PollManagerTest.withOptions(new Poll("Cats or dogs?", null), "Cats", "Dogs", "Neither"));
+        PollImport result = pollManager.importPolls(imported.iterator());
+        assertEquals(2, result.polls());
+        assertEquals(5, result.voteOptions());
+        assertEquals(List.of(0, 1, 2), pollManager.getVoteOptionsByPollId(imported.get(1).getId()).stream()
+                .map(VoteOption::getPresentationOrder).toList());
+        assertEquals(alice.getId(), pollManager.getPoll(imported.get(0).getId()).getCreator().getId());
+    }
+
+    @Test
+    public void testTimelineIsBucketedByTheDatabase() {
+        List<Vote> counted = new ArrayList<>();
+        Vote first = pollManager.createVote(new Vote(alice, vim));
+        counted.add(pollManager.createVote(new Vote(alice, emacs)));
+        pollManager.createVotes(List.of(new Vote(alice, vim))).forEach(outcome -> counted.add(outcome.vote()));
+        pollManager.deleteVote(first.getId());
+
+        assertEquals(PollManagerTest.turnout(counted, 60_000), pollManager.getVoteTimeline(poll.getId(), "1m"));
+        assertEquals(PollManagerTest.turnout(counted, 3_600_000), pollManager.getVoteTimeline(poll.getId(), "1h"));
+    }
+
+    @Test
+    public void testCascades() {
+        User bob = pollManager.createUser(new User("bob", "bob@example.com"));
+        Poll bobsPoll = pollManager.createPoll(new Poll("Tabs or spaces?", bob));
+        VoteOption tabs = pollManager.createVoteOption(new VoteOption("Tabs", 0, bobsPoll));
+        pollManager.createVote(new Vote(alice, tabs));
+        pollManager.createVote(new Vote(bob, vim));
+        pollManager.createVote(new Vote(alice, vim));
+
+        pollManager.deleteUser(bob.getId());  // his poll (with alice's vote) and his vote on alice's poll
+        assertNull(pollManager.getUser(bob.getId()));
+        assertNull(pollManager.getPoll(bobsPoll.getId()));
+        assertEquals(Map.of(vim.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        assertEquals(1, pollManager.getAllVotes().size());
+
+        pollManager.deletePoll(poll.getId());
+        assertTrue(pollManager.getAllVotes().isEmpty());
+        assertTrue(pollManager.getAllVoteOptions().isEmpty());
+        assertTrue(pollManager.getVoteCountsForPoll(poll.getId()).isEmpty());
+    }
+
+    @Test
+    public void testBatchAndStreams() {
+        List<Vote> batch = new ArrayList<>();
+        for (int i = 0; i < 900; i++) {
+            batch.add(new Vote(alice, i % 3 == 0 ? emacs : vim));
+        }
+        User ghost = new User("ghost", "ghost@example.com");
+        ghost.setId(999L);
+        batch.add(new Vote(ghost, vim));
+
+        List<VoteOutcome> outcomes = pollManager.createVotes(batch);
+        assertEquals(900, outcomes.stream().filter(VoteOutcome::created).count());
+        assertEquals("unknown user 999", outcomes.get(900).error());
+        assertEquals(Map.of(vim.getId(), 600, emacs.getId(), 300), pollManager.getVoteCountsForPoll(poll.getId()));
+
+        // Streams read in chunks, in id order, from the cursor on
+        List<Long> ids = pollManager.findVotes(poll.getId(), alice.getId(), null).map(Vote::getId).toList();
+        assertEquals(900, ids.size());
+        assertEquals(ids.subList(501, 511),
+                pollManager.findVotes(null, null, ids.get(500)).limit(10).map(Vote::getId).toList());
+        assertEquals(List.of(poll.getId()), pollManager.findPolls(alice.getId(), null).map(Poll::getId).toList());
+        assertEquals(2, pollManager.findPolls(null, null).findFirst().orElseThrow().getVoteOptions().size());
+    }
+
+    @Test
+    public void testSingleVotePerPollReplacesThePreviousVote() {
+        store.setSingleVotePerPoll(true);
+        pollManager.createVote(new Vote(alice, vim));
+        Vote current = pollManager.createVote(new Vote(alice, emacs));
+        pollManager.createVote(new Vote(null, emacs));  // anonymous: not limited
+        assertEquals(Map.of(emacs.getId(), 2), pollManager.getVoteCountsForPoll(poll.getId()));
+
+        List<VoteOutcome> outcomes = pollManager.createVotes(List.of(new Vote(alice, vim), new Vote(alice, vim)));
+        assertEquals(2, outcomes.stream().filter(VoteOutcome::created).count());
+        assertEquals(Map.of(vim.getId(), 1, emacs.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        assertEquals(List.of(outcomes.get(1).vote().getId()),
+                pollManager.findVotes(poll.getId(), alice.getId(), null).map(Vote::getId).toList());
+        assertTrue(pollManager.getAllVotes().stream().map(Vote::getId).noneMatch(current.getId()::equals));
+    }
+
+    @Test
+    public void testPollsAndOptionsComeFromTheSecondLevelCache() {
+        Statistics statistics = store.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVote(new Vote(alice, vim));
+
+        assertTrue(statistics.getDomainDataRegionStatistics(VoteOption.class.getName()).getHitCount() > 0);
+        assertEquals(0, statistics.getEntityStatistics(VoteOption.class.getName()).getLoadCount());
+    }
+
+    @Test
+    public void testReadsUseAFixedNumberOfStatements() throws JsonProcessingException {
+        for (int i = 0; i < 20; i++) {
+            Poll extra = pollManager.createPoll(new Poll("Poll " + i, alice));
+            pollManager.createVoteOption(new VoteOption("Yes", 0, extra));
+            pollManager.createVoteOption(new VoteOption("No", 1, extra));
+        }
+        pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVote(new Vote(alice, emacs));
+        Statistics statistics = store.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+
+        statistics.clear();
+        List<PollSummary> summaries = pollManager.findPollSummaries(null, null).toList();
+        assertEquals(21, summaries.size());
+        assertEquals(List.of("Vim", "Emacs"), summaries.get(0).voteOptions().stream().map(PollSummary.Option::caption).toList());
+        assertEquals("alice", summaries.get(0).creator().username());
+        assertEquals(2, statistics.getPrepareStatementCount());  // polls with creators, then all their options
+
+        statistics.clear();
+        pollManager.getVoteCountsForPoll(poll.getId());
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        statistics.clear();
+        List<Vote> votes = pollManager.getAllVotes();
+        List<Poll> polls = pollManager.getAllPolls();
+        assertEquals(2, statistics.getPrepareStatementCount());  // one joined query each, no select per row
+
+        // Everything the controllers return serializes without touching an uninitialized association
+        ObjectMapper objectMapper = new ObjectMapper();
+        String json = objectMapper.writeValueAsString(List.of(votes, polls, pollManager.getAllVoteOptions(),
+                pollManager.getPoll(poll.getId()), pollManager.findVotes(null, null, null).toList()));
+        assertTrue(json.contains("\"username\":\"alice\""));
+        assertEquals(objectMapper.writeValueAsString(PollSummary.of(pollManager.getPoll(poll.getId()))),
+                objectMapper.writeValueAsString(summaries.get(0)));
+    }
+}
@@ -2,6 +2,7 @@ package com.Assigment5.DAT250Assigment5;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.*;
@@ -13,6 +14,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@AutoConfigureObservability(tracing = false)  // tests disable metrics export (/actuator/prometheus) by default
 public class PollAppIntegrationTest {
 
     @Autowired
@@ -83,7 +85,7 @@ public class PollAppIntegrationTest {
             {
                 "question": "What's your favorite color?",
                 "publishedAt": "2024-01-15T10:00:00Z",
-                "validUntil": "2024-01-22T10:00:00Z",
+                "validUntil": "2099-01-22T10:00:00Z",
                 "creator": {
                     "id": "%s",
                     "username": "alice",
@@ -233,6 +235,138 @@ public class PollAppIntegrationTest {
         System.out.println("=== All steps completed successfully! ===");
     }
 
+    @Test
+    public void testResultsCacheStatisticsOnActuator() throws Exception {
+        // Two reads of the same poll: the second one is an L1 hit
+        restTemplate.getForEntity("/polls/1/results", String.class);
+        restTemplate.getForEntity("/polls/1/results", String.class);
+
+        ResponseEntity<String> caches = restTemplate.getForEntity("/actuator/caches", String.class);
+        assertEquals(HttpStatus.OK, caches.getStatusCode());
+        assertTrue(caches.getBody().contains("pollResults"));
+
+        ResponseEntity<String> hits = restTemplate.getForEntity(
+                "/actuator/metrics/cache.gets?tag=cache:pollResults&tag=result:hit", String.class);
+        assertEquals(HttpStatus.OK, hits.getStatusCode());
+        JsonNode measurement = objectMapper.readTree(hits.getBody()).get("measurements").get(0);
+        assertEquals(1.0, measurement.get("value").asDouble());
+    }
+
+    @Test
+    public void testOperationAndEndpointMetricsOnPrometheus() throws Exception {
+        restTemplate.getForEntity("/polls/1/results", String.class);
+
+        // The request timer is stopped after the response went out, so poll the scrape for it
+        String scrape = "";
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!scrape.contains("uri=\"/polls/{pollId}/results\"") && System.currentTimeMillis() < deadline) {
+            ResponseEntity<String> response = restTemplate.getForEntity("/actuator/prometheus", String.class);
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            scrape = response.getBody();
+            Thread.sleep(20);
+        }
+        assertTrue(scrape.contains("polls_operations_seconds_count{operation=\"getVoteCountsForPoll\"} 1"));
+        assertTrue(scrape.contains("polls_operations_seconds{operation=\"getVoteCountsForPoll\",quantile=\"0.99\"}"));
+        assertTrue(scrape.contains("polls_results_reads_total{source=\"store\"} 1.0"));
+        // latency histogram per endpoint
+        assertTrue(scrape.lines().anyMatch(line -> line.startsWith("http_server_requests_seconds_bucket")
+                && line.contains("uri=\"/polls/{pollId}/results\"")));
+    }
+
+    @Test
+    public void testListPaginationAndNdjsonExport() throws Exception {
+        for (String name : new String[]{"carol", "dave", "erin"}) {
+            restTemplate.postForEntity("/users",
+                    new HttpEntity<>("{\"username\": \"" + name + "\", \"email\": \"" + name + "@example.com\"}", createJsonHeaders()),
+                    String.class);
+        }
+
+        // First page, then the rest starting after the last id of the first page
+        JsonNode firstPage = objectMapper.readTree(restTemplate.getForEntity("/users?limit=2", String.class).getBody());
+        assertEquals(2, firstPage.size());
+        assertEquals("carol", firstPage.get(0).get("username").asText());
+        long cursor = firstPage.get(1).get("id").asLong();
+        JsonNode secondPage = objectMapper.readTree(
+                restTemplate.getForEntity("/users?afterId=" + cursor + "&limit=2", String.class).getBody());
+        assertEquals(1, secondPage.size());
+        assertEquals("erin", secondPage.get(0).get("username").asText());
+
+        assertEquals(HttpStatus.BAD_REQUEST, restTemplate.getForEntity("/users?limit=0", String.class).getStatusCode());
+
+        // NDJSON export: one user per line
+        ResponseEntity<String> export = restTemplate.getForEntity("/users?format=ndjson", String.class);
+        assertEquals(HttpStatus.OK, export.getStatusCode());
+        assertEquals("application/x-ndjson", export.getHeaders().getContentType().toString());
+        String[] lines = export.getBody().split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("dave", objectMapper.readTree(lines[1]).get("username").asText());
+    }
+
+    @Test
+    public void testInlineOptionsAndBulkImport() throws Exception {
+        String pollJson = """
+            {"question": "Vim or Emacs?", "voteOptions": [{"caption": "Vim"}, {"caption": "Emacs"}]}
+            """;
+        JsonNode poll = objectMapper.readTree(restTemplate.postForEntity("/polls",
+                new HttpEntity<>(pollJson, createJsonHeaders()), String.class).getBody());
+        assertEquals(2, poll.get("voteOptions").size());
+        assertTrue(poll.get("voteOptions").get(1).get("id").isNumber());
+        assertEquals(1, poll.get("voteOptions").get(1).get("presentationOrder").asInt());
+
+        // NDJSON: one poll per line
+        HttpHeaders ndjson = new HttpHeaders();
+        ndjson.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+        String lines = """
+            {"question": "Tabs or spaces?", "voteOptions": [{"caption": "Tabs"}, {"caption": "Spaces"}]}
+            {"question": "Light or dark?", "voteOptions": [{"caption": "Light"}, {"caption": "Dark"}, {"caption": "Both"}]}
+            """;
+        ResponseEntity<String> response = restTemplate.postForEntity("/polls/bulk", new HttpEntity<>(lines, ndjson), String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        JsonNode result = objectMapper.readTree(response.getBody());
+        assertEquals(2, result.get("polls").asInt());
+        assertEquals(5, result.get("voteOptions").asInt());
+
+        // A JSON array works the same; a malformed entry stops the import after the ones before it
+        String array = """
+            [{"question": "Cats or dogs?"}, {"question": "Broken?", "voteOptions": 7}]
+            """;
+        response = restTemplate.postForEntity("/polls/bulk", new HttpEntity<>(array, createJsonHeaders()), String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        result = objectMapper.readTree(response.getBody());
+        assertEquals(1, result.get("polls").asInt());
+        assertTrue(result.get("error").asText().startsWith("Entry 1: "));
+
+        assertEquals(4, objectMapper.readTree(restTemplate.getForEntity("/polls", String.class).getBody()).size());
+        assertEquals(7, objectMapper.readTree(restTemplate.getForEntity("/voteoptions", String.class).getBody()).size());
+    }
+
+    @Test
+    public void testUserDeletionIsAcceptedAndReportsProgress() throws Exception {
+        JsonNode user = objectMapper.readTree(restTemplate.postForEntity("/users",
+                new HttpEntity<>("{\"username\": \"zoe\", \"email\": \"zoe@example.com\"}", createJsonHeaders()),
+                String.class).getBody());
+        String pollJson = "{\"question\": \"Zoe's poll?\", \"creator\": {\"id\": " + user.get("id") + "}, "
+                + "\"voteOptions\": [{\"caption\": \"Yes\"}, {\"caption\": \"No\"}]}";
+        restTemplate.postForEntity("/polls", new HttpEntity<>(pollJson, createJsonHeaders()), String.class);
+
+        ResponseEntity<String> accepted = restTemplate.exchange("/users/" + user.get("id"), HttpMethod.DELETE, null, String.class);
+        assertEquals(HttpStatus.ACCEPTED, accepted.getStatusCode());
+        assertEquals("/users/" + user.get("id") + "/deletion", accepted.getHeaders().getLocation().toString());
+
+        JsonNode progress = objectMapper.readTree(accepted.getBody());
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (progress.get("state").asText().equals("RUNNING") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            progress = objectMapper.readTree(restTemplate.getForEntity(
+                    accepted.getHeaders().getLocation().toString(), String.class).getBody());
+        }
+        assertEquals("DONE", progress.get("state").asText());
+        assertEquals(4, progress.get("removed").asInt());  // user, poll and its two options
+        assertEquals("[]", restTemplate.getForEntity("/polls", String.class).getBody());
+
+        assertEquals(HttpStatus.NOT_FOUND, restTemplate.getForEntity("/users/12345/deletion", String.class).getStatusCode());
+    }
+
     private HttpHeaders createJsonHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
@@ -0,0 +1,451 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.clients.jedis.JedisPooled;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// PollManager against a stand-in Redis (FakeRedisServer), no real Redis needed
+public class PollManagerRedisTest {
+
+    private FakeRedisServer redis;
+    private JedisPooled jedis;
+    private PollManager pollManager;
+
+    private User alice;
+    private Poll poll;
+    private VoteOption yes;
+    private VoteOption no;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        redis = new FakeRedisServer();
+        jedis = new JedisPooled("localhost", redis.getPort());
+        pollManager = new PollManager(jedis);
+
+        alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        poll = pollManager.createPoll(new Poll("Pineapple on pizza?", alice));
+        yes = pollManager.createVoteOption(new VoteOption("Yes", 0, poll));
+        no = pollManager.createVoteOption(new VoteOption("No", 1, poll));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        pollManager.close();
+        jedis.close();
+        redis.close();
+    }
+
+    @Test
+    public void testCounterModeIncrementsInPlace() throws Exception {
+        String key = "poll:" + poll.getId() + ":votes";
+        Vote first = pollManager.createVote(new Vote(alice, yes));
+        pollManager.createVote(new Vote(alice, yes));
+        pollManager.createVote(new Vote(alice, no));
+
+        // The hash is current after every vote, without a read having to rebuild it
+        assertEquals(Map.of(yes.getId().toString(), "2", no.getId().toString(), "1"), redis.hash(key));
+        assertEquals(3, redis.commandCount("HINCRBY"));
+        assertEquals(3600L, redis.ttl(key));
+
+        pollManager.deleteVote(first.getId());
+        assertEquals("1", redis.hash(key).get(yes.getId().toString()));
+        assertEquals(Map.of(yes.getId(), 1, no.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+
+        pollManager.deletePoll(poll.getId());
+        awaitTrue(() -> redis.hash(key).isEmpty());  // deleted asynchronously
+    }
+
+    @Test
+    public void testMissingCounterIsRebuilt() {
+        String key = "poll:" + poll.getId() + ":votes";
+        pollManager.createVote(new Vote(alice, yes));
+        pollManager.createVote(new Vote(alice, no));
+
+        redis.delete(key); // e.g. Redis restarted or the key expired
+        assertEquals(Map.of(yes.getId(), 1, no.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        assertEquals(Map.of(yes.getId().toString(), "1", no.getId().toString(), "1"), redis.hash(key));
+
+        // A vote on a cold key must not leave a partial hash behind
+        redis.delete(key);
+        pollManager.createVote(new Vote(alice, yes));
+        assertEquals(Map.of(yes.getId().toString(), "2", no.getId().toString(), "1"), redis.hash(key));
+    }
+
+    @Test
+    public void testTurnoutIsMirroredAndRebuilt() throws Exception {
+        String key = "poll:" + poll.getId() + ":turnout:1m";
+        List<Vote> counted = new ArrayList<>();
+        counted.add(pollManager.createVote(new Vote(alice, yes)));
+        counted.add(pollManager.createVote(new Vote(alice, no)));
+        counted.add(pollManager.createVote(new Vote(alice, yes)));
+
+        // Updated by the vote writes, in the counters' transaction
+        Map<String, Double> expected = new HashMap<>();
+        PollManagerTest.turnout(counted, 60_000).forEach((start, count) -> expected.put(start.toString(), count.doubleValue()));
+        assertEquals(expected, redis.sortedSet(key));
+        assertEquals(PollManagerTest.turnout(counted, 60_000), pollManager.getVoteTimeline(poll.getId(), "1m"));
+        assertEquals(PollManagerTest.turnout(counted, 3_600_000), pollManager.getVoteTimeline(poll.getId(), "1h"));
+
+        redis.delete(key); // e.g. Redis restarted or the key expired
+        assertEquals(PollManagerTest.turnout(counted, 60_000), pollManager.getVoteTimeline(poll.getId(), "1m"));
+        assertEquals(expected, redis.sortedSet(key));
+
+        pollManager.deletePoll(poll.getId());
+        awaitTrue(() -> redis.sortedSet(key).isEmpty());
+    }
+
+    @Test
+    public void testBatchUpdatesEachPollOnce() {
+        Poll other = pollManager.createPoll(new Poll("Cats or dogs?", alice));
+        VoteOption cats = pollManager.createVoteOption(new VoteOption("Cats", 0, other));
+        pollManager.createVote(new Vote(alice, yes));  // warm both counters, so no rebuild is involved
+        pollManager.createVote(new Vote(alice, cats));
+        awaitAsyncWrites(pollManager);
+        int multiBefore = redis.commandCount("MULTI");
+        int publishBefore = redis.commandCount("PUBLISH");
+
+        List<Vote> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.add(new Vote(alice, i % 2 == 0 ? yes : no));
+            batch.add(new Vote(alice, cats));
+        }
+        pollManager.createVotes(batch);
+
+        assertEquals(multiBefore + 2, redis.commandCount("MULTI"));  // one transaction per poll
+        awaitAsyncWrites(pollManager);
+        assertEquals(publishBefore + 2, redis.commandCount("PUBLISH"));
+        assertEquals(Map.of(yes.getId().toString(), "26", no.getId().toString(), "25"),
+                redis.hash("poll:" + poll.getId() + ":votes"));
+        assertEquals(Map.of(cats.getId().toString(), "51"), redis.hash("poll:" + other.getId() + ":votes"));
+    }
+
+    @Test
+    public void testInvalidationModeDeletesOnVote() throws Exception {
+        ReflectionTestUtils.setField(pollManager, "counterMode", false);
+        String key = "poll:" + poll.getId() + ":votes";
+        pollManager.createVote(new Vote(alice, yes));
+        assertEquals(Map.of(yes.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        awaitTrue(() -> Map.of(yes.getId().toString(), "1").equals(redis.hash(key)));  // cached asynchronously
+
+        pollManager.createVote(new Vote(alice, no));
+        awaitTrue(() -> redis.hash(key).isEmpty());  // and invalidated asynchronously
+        assertEquals(0, redis.commandCount("HINCRBY"));
+    }
+
+    @Test
+    public void testOtherNodesEvictTheirL1OnVote() throws Exception {
+        // Second backend node sharing the same Redis, with its own L1 cache
+        JedisPooled otherJedis = new JedisPooled("localhost", redis.getPort());
+        PollManager otherNode = new PollManager(otherJedis);
+        ReflectionTestUtils.setField(otherNode, "cacheManager", new CaffeineCacheManager(PollManager.RESULTS_CACHE));
+        try {
+            awaitTrue(() -> redis.commandCount("SUBSCRIBE") >= 2); // both nodes listen
+
+            pollManager.createVote(new Vote(alice, yes));
+            assertEquals(Map.of(yes.getId(), 1), otherNode.getVoteCountsForPoll(poll.getId())); // now in its L1
+
+            pollManager.createVote(new Vote(alice, yes));
+            awaitTrue(() -> Map.of(yes.getId(), 2).equals(otherNode.getVoteCountsForPoll(poll.getId())));
+        } finally {
+            otherNode.close();
+            otherJedis.close();
+        }
+    }
+
+    @Test
+    public void testVotesKeepWorkingWhenRedisGoesAway() throws Exception {
+        pollManager.createVote(new Vote(alice, yes));
+        redis.close();
+
+        // Counter update and invalidation publish fail, the vote itself still counts
+        pollManager.createVote(new Vote(alice, yes));
+        assertEquals(Map.of(yes.getId(), 2), pollManager.getVoteCountsForPoll(poll.getId()));
+    }
+
+    @Test
+    public void testRedisCallsAreMetered() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        JedisPooled meteredJedis = new JedisPooled("localhost", redis.getPort());
+        PollManager metered = new PollManager(new InMemoryPollStore(), meteredJedis, registry);
+        try {
+            User bob = metered.createUser(new User("bob", "bob@example.com"));
+            Poll other = metered.createPoll(new Poll("Tabs or spaces?", bob));
+            VoteOption tabs = metered.createVoteOption(new VoteOption("Tabs", 0, other));
+            metered.createVote(new Vote(bob, tabs));
+            metered.getVoteCountsForPoll(other.getId());
+
+            assertTrue(registry.get("polls.redis.commands").tags("command", "multi", "outcome", "success").timer().count() >= 1);
+            assertEquals(1, registry.get("polls.redis.commands").tags("command", "hgetall", "outcome", "success").timer().count());
+            assertEquals(1.0, registry.get("polls.results.reads").tag("source", "redis").counter().count());
+
+            redis.close();
+            metered.createVote(new Vote(bob, tabs));
+            assertEquals(1, registry.get("polls.redis.commands").tags("command", "multi", "outcome", "error").timer().count());
+        } finally {
+            metered.close();
+            meteredJedis.close();
+        }
+    }
+
+    @Test
+    public void testSlowRedisTripsTheCircuitAndCachingComesBack() throws Exception {
+        JedisPooled slowJedis = RedisGateway.connect("localhost", redis.getPort(), Duration.ofMillis(250), 8);
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker(3, Duration.ofMillis(50), Duration.ofMillis(300));
+        PollManager node = new PollManager(new InMemoryPollStore(), slowJedis, new SimpleMeterRegistry(), breaker);
+        try {
+            User bob = node.createUser(new User("bob", "bob@example.com"));
+            Poll other = node.createPoll(new Poll("Tabs or spaces?", bob));
+            VoteOption tabs = node.createVoteOption(new VoteOption("Tabs", 0, other));
+            String key = "poll:" + other.getId() + ":votes";
+            node.createVote(new Vote(bob, tabs));
+            awaitAsyncWrites(node);
+            assertEquals(Map.of(tabs.getId().toString(), "1"), redis.hash(key));
+
+            // Slow, not down: calls succeed, but too slowly, until the breaker cuts Redis off
+            redis.setLatency(Duration.ofMillis(60));
+            for (int i = 0; i < 3 && breaker.state() == RedisCircuitBreaker.State.CLOSED; i++) {
+                node.createVote(new Vote(bob, tabs));
+            }
+            assertEquals(RedisCircuitBreaker.State.OPEN, breaker.state());
+
+            // Open: votes and reads no longer wait for Redis, and reads are still right
+            long start = System.nanoTime();
+            for (int i = 0; i < 20; i++) {
+                node.createVote(new Vote(bob, tabs));
+            }
+            int votes = node.getVoteCountsForPoll(other.getId()).get(tabs.getId());
+            assertTrue(System.nanoTime() - start < Duration.ofMillis(500).toNanos(), "votes waited on Redis");
+            assertEquals(node.getVotesByPollId(other.getId()).size(), votes);
+
+            // Redis recovers: a probe closes the circuit, the counter that missed votes is rebuilt, not trusted
+            redis.setLatency(Duration.ZERO);
+            Thread.sleep(350);
+            awaitAsyncWrites(node);
+            awaitTrue(() -> {
+                node.getVoteCountsForPoll(other.getId());
+                return breaker.state() == RedisCircuitBreaker.State.CLOSED;
+            });
+            node.getVoteCountsForPoll(other.getId());
+            assertEquals(Map.of(tabs.getId().toString(), String.valueOf(votes)), redis.hash(key));
+            node.createVote(new Vote(bob, tabs));
+            assertEquals(Map.of(tabs.getId().toString(), String.valueOf(votes + 1)), redis.hash(key));
+        } finally {
+            node.close();
+            slowJedis.close();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadsAreNotPinnedOnRedisCalls() throws Exception {
+        List<RecordedEvent> pinned = new CopyOnWriteArrayList<>();
+        try (RecordingStream recording = new RecordingStream()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(1)).withStackTrace();
+            recording.onEvent("jdk.VirtualThreadPinned", pinned::add);
+            recording.startAsync();
+
+            // Every vote and read blocks on Redis (under the poll lock for the vote) while many others wait for it
+            redis.setLatency(Duration.ofMillis(2));
+            ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+            for (int i = 0; i < 200; i++) {
+                VoteOption option = i % 2 == 0 ? yes : no;
+                executor.submit(() -> {
+                    pollManager.createVote(new Vote(alice, option));
+                    return pollManager.getVoteCountsForPoll(poll.getId());
+                });
+            }
+            executor.shutdown();
+            // Threads pinned while waiting for a lock can starve its holder of a carrier: that shows up as a hang
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS), "virtual threads deadlocked on pinned carriers");
+            redis.setLatency(Duration.ZERO);
+            awaitAsyncWrites(pollManager);
+            recording.stop();
+        }
+        assertEquals(List.of(), pinned.stream().map(event -> event.getStackTrace().getFrames().get(0).getMethod().getType().getName()
+                + " <- " + event.getThread().getJavaName()).toList());
+        assertEquals(Map.of(yes.getId(), 100, no.getId(), 100), pollManager.getVoteCountsForPoll(poll.getId()));
+    }
+
+    @Test
+    public void testClosedPollsKeepTheirFinalResultsInRedis() throws Exception {
+        Poll closing = PollManagerTest.withOptions(new Poll("Tabs or spaces?", alice), "Tabs", "Spaces");
+        String validUntil = Instant.now().plusMillis(200).toString();
+        closing.setValidUntil(validUntil);
+        Poll closed = pollManager.createPoll(closing);
+        VoteOption tabs = closed.getVoteOptions().get(0);
+        pollManager.createVote(new Vote(alice, tabs));
+
+        String key = "poll:" + closed.getId() + ":final";
+        awaitTrue(() -> !redis.hash(key).isEmpty());
+        assertEquals(Map.of(tabs.getId().toString(), "1", PollManager.VALID_UNTIL_FIELD, validUntil), redis.hash(key));
+        assertNull(redis.ttl(key));  // never expires
+        awaitTrue(() -> redis.hash("poll:" + closed.getId() + ":votes").isEmpty());  // the live counters are dropped
+
+        // A restarted node takes the snapshot from Redis instead of counting the votes again
+        jedis.hset(key, tabs.getId().toString(), "5");
+        PollStore store = (PollStore) ReflectionTestUtils.getField(pollManager, "store");
+        JedisPooled restartedJedis = new JedisPooled("localhost", redis.getPort());
+        PollManager restarted = new PollManager(store, restartedJedis);
+        try {
+            awaitTrue(() -> restarted.isClosed(closed.getId()));
+            assertEquals(Map.of(tabs.getId(), 5), restarted.getVoteCountsForPoll(closed.getId()));
+
+            restarted.deletePoll(closed.getId());
+            awaitTrue(() -> redis.hash(key).isEmpty());
+        } finally {
+            restarted.close();
+            restartedJedis.close();
+        }
+    }
+
+    @Test
+    public void testTrendingPollsAreRankedInRedis() throws Exception {
+        Poll other = pollManager.createPoll(PollManagerTest.withOptions(new Poll("Tabs or spaces?", alice), "Tabs", "Spaces"));
+        pollManager.createVote(new Vote(alice, yes));
+        pollManager.createVote(new Vote(alice, no));
+        pollManager.createVote(new Vote(alice, other.getVoteOptions().get(0)));
+
+        // Bumped in the same transaction as the counters, in the current epoch's set and the next one's
+        TrendingPolls.Window window = TrendingPolls.Window.FIVE_MINUTES;
+        long epoch = window.epoch(System.currentTimeMillis());
+        assertEquals(Set.of(poll.getId().toString(), other.getId().toString()), redis.sortedSet(window.key(epoch)).keySet());
+        assertEquals(Set.of(poll.getId().toString(), other.getId().toString()), redis.sortedSet(window.key(epoch + 1)).keySet());
+        assertEquals(List.of(poll.getId(), other.getId()), trendingIds("5m"));
+
+        // Read from Redis: a score only Redis has reorders the ranking
+        jedis.zadd(window.key(epoch), 1e30, other.getId().toString());
+        assertEquals(List.of(other.getId(), poll.getId()), trendingIds("5m"));
+
+        pollManager.deletePoll(other.getId());
+        awaitTrue(() -> !redis.sortedSet(window.key(epoch)).containsKey(other.getId().toString()));
+        assertEquals(List.of(poll.getId()), trendingIds("5m"));
+
+        // Redis gone: this node's own boards answer
+        Poll third = pollManager.createPoll(PollManagerTest.withOptions(new Poll("Light or dark?", alice), "Light", "Dark"));
+        redis.close();
+        pollManager.createVote(new Vote(alice, third.getVoteOptions().get(0)));
+        assertEquals(List.of(poll.getId(), third.getId()), trendingIds("5m"));
+    }
+
+    @Test
+    public void testWarmUpWritesEveryPollsCountsInBatches() {
+        List<Poll> polls = new ArrayList<>();
+        for (int i = 0; i < 2 * PollManager.WARM_UP_BATCH_SIZE + 1; i++) {
+            Poll created = pollManager.createPoll(PollManagerTest.withOptions(new Poll("Poll " + i, alice), "A", "B"));
+            polls.add(created);
+            for (int n = 0; n <= i % 3; n++) {
+                pollManager.createVote(new Vote(alice, created.getVoteOptions().get(n % 2)));
+            }
+        }
+        jedis.flushAll();  // a restarted Redis
+
+        ResultsWarmUp result = pollManager.warmUpResults();
+        assertEquals(polls.size(), result.polls());
+        assertEquals(3, result.batches());
+        assertEquals(0, result.rewritten());
+        for (Poll warmed : polls) {
+            Map<String, String> expected = new HashMap<>();
+            pollManager.getVoteCountsForPoll(warmed.getId()).forEach((option, count) -> expected.put(option.toString(), count.toString()));
+            assertEquals(expected, redis.hash("poll:" + warmed.getId() + ":votes"));
+            assertEquals(3600L, redis.ttl("poll:" + warmed.getId() + ":votes"));
+        }
+    }
+
+    @Test
+    public void testWarmUpRewritesPollsVotedOnMeanwhile() {
+        // A vote lands in Redis right after the warm-up counted the poll, before its batch overwrites the counter
+        List<Runnable> afterCount = new CopyOnWriteArrayList<>();
+        InMemoryPollStore store = new InMemoryPollStore() {
+            @Override
+            public void countAllVotes(BiConsumer<Long, Map<Long, Integer>> perPoll) {
+                super.countAllVotes((pollId, counts) -> {
+                    afterCount.forEach(Runnable::run);
+                    perPoll.accept(pollId, counts);
+                });
+            }
+        };
+        PollManager manager = new PollManager(store, jedis);
+        try {
+            User bob = manager.createUser(new User("bob", "bob@example.com"));
+            Poll racing = manager.createPoll(PollManagerTest.withOptions(new Poll("Cats or dogs?", bob), "Cats", "Dogs"));
+            VoteOption cats = racing.getVoteOptions().get(0);
+            manager.createVote(new Vote(bob, cats));
+            jedis.flushAll();
+            afterCount.add(() -> manager.createVote(new Vote(bob, cats)));
+
+            ResultsWarmUp result = manager.warmUpResults();
+            assertEquals(1, result.rewritten());
+            assertEquals(Map.of(cats.getId().toString(), "2"), redis.hash("poll:" + racing.getId() + ":votes"));
+            assertEquals(Map.of(cats.getId(), 2), manager.getVoteCountsForPoll(racing.getId()));
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        pollManager.createVote(new Vote(alice, yes));
+        jedis.del("poll:" + poll.getId() + ":votes");
+        redis.setLatency(Duration.ofMillis(500));
+        int readsBefore = redis.commandCount("HGETALL");
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<java.util.concurrent.Future<Map<Long, Integer>>> reads = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                reads.add(executor.submit(() -> pollManager.getVoteCountsForPoll(poll.getId())));
+            }
+            for (var read : reads) {
+                assertEquals(Map.of(yes.getId(), 1), read.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(readsBefore + 1, redis.commandCount("HGETALL"));  // one miss went to Redis and the store, the rest waited for it
+    }
+
+    private List<Long> trendingIds(String window) {
+        return pollManager.getTrendingPolls(window, 20).stream().map(TrendingPoll::pollId).toList();
+    }
+
+    // Invalidations and deletes go out on the gateway's writer threads: wait for those queued so far
+    private static void awaitAsyncWrites(PollManager node) {
+        RedisGateway gateway = (RedisGateway) ReflectionTestUtils.getField(node, "redis");
+        gateway.drained().join();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition not met within 5s");
+            Thread.sleep(20);
+        }
+    }
+}
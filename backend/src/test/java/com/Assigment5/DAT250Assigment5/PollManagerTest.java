@@ -0,0 +1,758 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PollManagerTest {
+
+    private PollManager pollManager;
+
+    @BeforeEach
+    public void setUp() {
+        pollManager = new PollManager(null); // no Redis: results always come from the in-memory store
+    }
+
+    @Test
+    public void testTalliesFollowVoteWrites() {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        VoteOption emacs = pollManager.createVoteOption(new VoteOption("Emacs", 1, poll));
+
+        Vote first = pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVote(new Vote(alice, emacs));
+        assertEquals(Map.of(vim.getId(), 2, emacs.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+
+        pollManager.deleteVote(first.getId());
+        pollManager.deleteVote(first.getId()); // deleting twice must not count twice
+        assertEquals(Map.of(vim.getId(), 1, emacs.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+
+        pollManager.deleteUser(alice.getId());
+        assertTrue(pollManager.getVoteCountsForPoll(poll.getId()).isEmpty());
+    }
+
+    @Test
+    public void testVotesForUnknownOptionsAreStoredUncounted() {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+
+        // {"voteOption":{"poll":{"id":...}}}: an option without id, naming a poll that exists
+        Vote withoutOptionId = pollManager.createVote(new Vote(alice, new VoteOption(null, 0, poll)));
+        VoteOption unknown = new VoteOption("Nano", 1, poll);
+        unknown.setId(vim.getId() + 100);
+        Vote withUnknownOption = pollManager.createVote(new Vote(alice, unknown));
+        assertNotNull(withoutOptionId.getId());
+        assertNotNull(withUnknownOption.getId());
+        assertEquals(2, pollManager.getAllVotes().size());
+        assertTrue(pollManager.getVoteCountsForPoll(poll.getId()).isEmpty());
+    }
+
+    @Test
+    public void testInlineOptionsAreStoredWithThePoll() {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(withOptions(new Poll("Vim or Emacs?", alice), "Vim", "Emacs"));
+
+        List<VoteOption> options = poll.getVoteOptions();
+        assertEquals(List.of("Vim", "Emacs"), options.stream().map(VoteOption::getCaption).toList());
+        assertEquals(List.of(0, 1), options.stream().map(VoteOption::getPresentationOrder).toList());
+        assertEquals(options.stream().map(VoteOption::getId).toList(),
+                pollManager.getVoteOptionsByPollId(poll.getId()).stream().map(VoteOption::getId).toList());
+        assertSame(poll, options.get(0).getPoll());
+
+        pollManager.createVote(new Vote(alice, options.get(1)));
+        assertEquals(Map.of(options.get(1).getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+
+        // Orders sent by the client (the frontend numbers from 1) are kept
+        Poll numbered = new Poll("Tabs or spaces?", alice);
+        numbered.setVoteOptions(List.of(new VoteOption("Tabs", 1, null), new VoteOption("Spaces", 2, null)));
+        assertEquals(List.of(1, 2), pollManager.createPoll(numbered).getVoteOptions().stream()
+                .map(VoteOption::getPresentationOrder).toList());
+    }
+
+    @Test
+    public void testImportStoresPollsInBatches() {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        int count = PollManager.IMPORT_BATCH_SIZE * 2 + 1;
+        Iterator<Poll> polls = IntStream.range(0, count)
+                .mapToObj(i -> withOptions(new Poll("Question " + i + "?", alice), "Yes", "No"))
+                .iterator();
+
+        PollImport result = pollManager.importPolls(polls);
+        assertEquals(new PollImport(count, count * 2, 1L, (long) count, null), result);
+        assertEquals(count, pollManager.getAllPolls().size());
+        assertEquals(count * 2, pollManager.getAllVoteOptions().size());
+        assertEquals(count, pollManager.findPolls(alice.getId(), null).count());
+
+        // An unreadable entry stops the import; what came before it is stored
+        Iterator<Poll> broken = new Iterator<>() {
+            private int next;
+
+            public boolean hasNext() {
+                return true;
+            }
+
+            public Poll next() {
+                if (next == 3) {
+                    throw new IllegalArgumentException("unexpected token");
+                }
+                return new Poll("Broken " + next++ + "?", null);
+            }
+        };
+        result = pollManager.importPolls(broken);
+        assertEquals(3, result.polls());
+        assertEquals("Entry 3: unexpected token", result.error());
+        assertEquals(count + 3, pollManager.getAllPolls().size());
+    }
+
+    @Test
+    public void testUserDeletionRunsInTheBackgroundWithProgress() throws Exception {
+        User power = pollManager.createUser(new User("power", "power@example.com"));
+        User other = pollManager.createUser(new User("other", "other@example.com"));
+        Poll own = pollManager.createPoll(withOptions(new Poll("Own?", power), "Yes", "No"));
+        Poll kept = pollManager.createPoll(withOptions(new Poll("Kept?", other), "Yes", "No"));
+        VoteOption keptYes = kept.getVoteOptions().get(0);
+        int votes = 20_000;
+        for (int i = 0; i < votes; i++) {
+            pollManager.createVote(new Vote(power, keptYes));
+        }
+        pollManager.createVote(new Vote(other, keptYes));
+        pollManager.createVote(new Vote(other, own.getVoteOptions().get(1)));
+
+        UserDeletion deletion = pollManager.deleteUserInBackground(power.getId());
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (deletion.getState() == UserDeletion.State.RUNNING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(UserDeletion.State.DONE, deletion.getState());
+        // the user, its poll with 2 options and the other user's vote on it, and its own votes
+        assertEquals(1 + 4 + votes, deletion.getRemoved());
+        assertSame(deletion, pollManager.getUserDeletion(power.getId()));
+
+        assertNull(pollManager.getUser(power.getId()));
+        assertNull(pollManager.getPoll(own.getId()));
+        assertEquals(0, pollManager.findPolls(power.getId(), null).count());
+        assertEquals(Map.of(keptYes.getId(), 1), pollManager.getVoteCountsForPoll(kept.getId()));
+        assertEquals(1, pollManager.findVotes(null, other.getId(), null).count());
+    }
+
+    @Test
+    public void testPollsCloseAtValidUntilWithFrozenResults() throws Exception {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll closing = withOptions(new Poll("Vim or Emacs?", alice), "Vim", "Emacs");
+        closing.setValidUntil(Instant.now().plusMillis(300).toString());
+        Poll poll = pollManager.createPoll(closing);
+        VoteOption vim = poll.getVoteOptions().get(0);
+        VoteOption emacs = poll.getVoteOptions().get(1);
+        Vote first = pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVote(new Vote(alice, emacs));
+        assertFalse(pollManager.isClosed(poll.getId()));
+
+        awaitClosed(poll);
+        assertThrows(PollClosedException.class, () -> pollManager.createVote(new Vote(alice, vim)));
+        assertEquals("poll " + poll.getId() + " is closed", pollManager.createVotes(List.of(new Vote(alice, emacs))).get(0).error());
+        pollManager.deleteVote(first.getId());  // the votes may still change, the results do not
+        assertEquals(Map.of(vim.getId(), 1, emacs.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+
+        // Past its validUntil already: closed as soon as it is created
+        Poll expired = new Poll("Tabs or spaces?", alice);
+        expired.setValidUntil("2024-01-22T10:00:00Z");
+        awaitClosed(pollManager.createPoll(expired));
+
+        pollManager.deletePoll(poll.getId());
+        assertFalse(pollManager.isClosed(poll.getId()));
+        assertTrue(pollManager.getVoteCountsForPoll(poll.getId()).isEmpty());
+    }
+
+    @Test
+    public void testTrendingPollsRankByRecentVotes() {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll hot = pollManager.createPoll(withOptions(new Poll("Vim or Emacs?", alice), "Vim", "Emacs"));
+        Poll warm = pollManager.createPoll(withOptions(new Poll("Tabs or spaces?", alice), "Tabs", "Spaces"));
+        pollManager.createPoll(withOptions(new Poll("Light or dark?", alice), "Light", "Dark"));  // no votes, not trending
+
+        Vote first = pollManager.createVote(new Vote(alice, hot.getVoteOptions().get(0)));
+        pollManager.createVote(new Vote(alice, hot.getVoteOptions().get(1)));
+        pollManager.createVotes(List.of(new Vote(alice, hot.getVoteOptions().get(0)), new Vote(alice, warm.getVoteOptions().get(0))));
+        pollManager.deleteVote(first.getId());  // uncounting does not take back the score
+
+        List<TrendingPoll> trending = pollManager.getTrendingPolls("5m", 20);
+        assertEquals(List.of(hot.getId(), warm.getId()), trending.stream().map(TrendingPoll::pollId).toList());
+        assertEquals("Vim or Emacs?", trending.get(0).question());
+        assertEquals(3.0, trending.get(0).score(), 0.01);
+        assertEquals(1.0, trending.get(1).score(), 0.01);
+        assertEquals(List.of(hot.getId()), pollManager.getTrendingPolls("24h", 1).stream().map(TrendingPoll::pollId).toList());
+        assertThrows(IllegalArgumentException.class, () -> pollManager.getTrendingPolls("2m", 20));
+        assertThrows(IllegalArgumentException.class, () -> pollManager.getTrendingPolls("5m", 0));
+
+        pollManager.deletePoll(hot.getId());
+        assertEquals(List.of(warm.getId()), pollManager.getTrendingPolls("5m", 20).stream().map(TrendingPoll::pollId).toList());
+    }
+
+    @Test
+    public void testTrendingScoresDecayAcrossEpochs() {
+        TrendingPolls.Window window = TrendingPolls.Window.FIVE_MINUTES;
+        long nextEpoch = (window.epoch(System.currentTimeMillis()) + 1) * window.millis * TrendingPolls.EPOCH_WINDOWS;
+        long castAt = nextEpoch - window.millis;  // one window before the next epoch starts
+        TrendingPolls trending = new TrendingPolls();
+        trending.add(1, 4, castAt);
+        trending.add(2, 1, castAt + window.millis / 2);
+
+        // Still in the epoch the votes were cast in: poll 1 has lost half a window's worth, poll 2 nothing
+        long now = castAt + window.millis / 2;
+        List<TrendingPolls.Entry> top = trending.top(window, 10, now);
+        assertEquals(List.of(1L, 2L), top.stream().map(TrendingPolls.Entry::pollId).toList());
+        assertEquals(4 / Math.sqrt(2), window.decayed(window.epoch(now), top.get(0).score(), now), 1e-9);
+        assertEquals(1.0, window.decayed(window.epoch(now), top.get(1).score(), now), 1e-9);
+
+        // The next epoch took the votes over, decayed the same way
+        now = nextEpoch + 2 * window.millis;
+        top = trending.top(window, 10, now);
+        assertEquals(List.of(1L, 2L), top.stream().map(TrendingPolls.Entry::pollId).toList());
+        assertEquals(4 / 8.0, window.decayed(window.epoch(now), top.get(0).score(), now), 1e-9);
+        assertEquals(1 / Math.pow(2, 2.5), window.decayed(window.epoch(now), top.get(1).score(), now), 1e-9);
+
+        // Many fresh votes overtake older ones
+        trending.add(2, 3, now);
+        assertEquals(List.of(2L, 1L), trending.top(window, 10, now).stream().map(TrendingPolls.Entry::pollId).toList());
+        assertEquals(List.of(2L), trending.top(window, 1, now).stream().map(TrendingPolls.Entry::pollId).toList());
+    }
+
+    @Test
+    public void testIdsComeFromLeasedBlocksOrTheNodesRange() {
+        Map<String, Long> counters = new HashMap<>();  // stands in for INCRBY on a shared Redis
+        AtomicBoolean redisUp = new AtomicBoolean(true);
+        IdSequence.Leases leases = (key, size) -> {
+            if (!redisUp.get()) {
+                throw new IllegalStateException("Redis is down");
+            }
+            return counters.merge(key, size, Long::sum);
+        };
+        IdSequence first = new IdSequence("poll");
+        IdSequence second = new IdSequence("poll");
+        first.setNode(1, 3);
+        second.setNode(2, 3);
+        first.setLeases(leases);
+        second.setLeases(leases);
+
+        // Blocks of 3, one lease each: the nodes take turns without handing out an id twice
+        assertEquals(List.of(1L, 2L, 4L, 3L, 5L, 6L, 7L),
+                List.of(first.next(), first.next(), second.next(), first.next(), second.next(), second.next(), first.next()));
+        assertEquals(9L, counters.get("polls:ids:poll"));
+
+        // Redis gone: each node counts in its own range once its block is used up
+        redisUp.set(false);
+        assertEquals(List.of(8L, 9L), List.of(first.next(), first.next()));
+        assertEquals(IdSequence.NODE_RANGE, first.next());
+        assertEquals(2 * IdSequence.NODE_RANGE, second.next());
+        assertTrue(first.next() < 1L << 53);
+
+        // Node 0 without Redis counts on from the ids it restored, as the store always did
+        IdSequence single = new IdSequence("vote");
+        single.setNode(0, 3);
+        single.advance(41);
+        single.advance(IdSequence.NODE_RANGE + 5);  // another node's id
+        assertEquals(42L, single.next());
+        // and a lease (Redis back, or its counter lost) never hands those ids out again
+        single.setLeases(leases);
+        redisUp.set(true);
+        assertEquals(43L, single.next());
+        assertEquals(46L, single.nextSharedId());
+        assertThrows(IllegalArgumentException.class, () -> single.setNode(IdSequence.MAX_NODE_ID + 1, 1));
+    }
+
+    @Test
+    public void testNodeZeroFallsBackToARangeOfItsOwnWhileItLeases() {
+        Map<String, Long> counters = new HashMap<>();
+        AtomicBoolean redisUp = new AtomicBoolean(true);
+        IdSequence.Leases leases = (key, size) -> {
+            if (!redisUp.get()) {
+                throw new IllegalStateException("Redis is down");
+            }
+            return counters.merge(key, size, Long::sum);
+        };
+        IdSequence zero = new IdSequence("poll");
+        IdSequence one = new IdSequence("poll");
+        zero.setNode(0, 2);
+        one.setNode(1, 2);
+        zero.setLeases(leases);
+        one.setLeases(leases);
+        assertEquals(List.of(1L, 3L), List.of(zero.next(), one.next()));
+
+        // Redis gone: node 1 finishes its block, node 0 must not count into it from the shared range
+        redisUp.set(false);
+        Set<Long> ids = new HashSet<>(List.of(1L, 3L));
+        assertTrue(ids.add(one.next()));
+        assertEquals(2L, zero.next());
+        for (int i = 0; i < 5; i++) {
+            long id = zero.next();
+            assertEquals(IdSequence.NODE_ZERO_RANGE, id / IdSequence.NODE_RANGE);
+            assertTrue(ids.add(id));
+            assertTrue(ids.add(one.next()));
+        }
+        assertEquals(IdSequence.NODE_ZERO_RANGE * IdSequence.NODE_RANGE + 5, zero.nextNodeId());
+    }
+
+    @Test
+    public void testOperationsAreMetered() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        pollManager = new PollManager(new InMemoryPollStore(), null, registry);
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVotes(List.of(new Vote(alice, vim), new Vote(alice, new VoteOption("Nano", 2, poll))));
+        pollManager.getVoteCountsForPoll(poll.getId());
+
+        assertEquals(1, registry.get("polls.operations").tag("operation", "createVote").timer().count());
+        assertEquals(1, registry.get("polls.operations").tag("operation", "createVotes").timer().count());
+        assertEquals(1.0, registry.get("polls.votes.rejected").counter().count());  // the unsaved option
+        assertEquals(1.0, registry.get("polls.results.reads").tag("source", "store").counter().count());
+
+        // alice, her poll, its option and both counted votes
+        pollManager.deleteUser(alice.getId());
+        assertEquals(1, registry.get("polls.cascade.size").tag("entity", "user").summary().count());
+        assertEquals(5.0, registry.get("polls.cascade.size").tag("entity", "user").summary().totalAmount());
+        pollManager.deleteUser(alice.getId());  // nothing left to remove: not recorded
+        assertEquals(1, registry.get("polls.cascade.size").tag("entity", "user").summary().count());
+        assertEquals(2, registry.get("polls.operations").tag("operation", "deleteUser").timer().count());
+    }
+
+    @Test
+    public void testTimelineFollowsVoteWrites() {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        VoteOption emacs = pollManager.createVoteOption(new VoteOption("Emacs", 1, poll));
+
+        List<Vote> counted = new ArrayList<>();
+        Vote first = pollManager.createVote(new Vote(alice, vim));
+        counted.add(first);
+        counted.add(pollManager.createVote(new Vote(null, emacs)));
+        pollManager.createVotes(List.of(new Vote(alice, emacs), new Vote(alice, vim)))
+                .forEach(outcome -> counted.add(outcome.vote()));
+        assertEquals(turnout(counted, 60_000), pollManager.getVoteTimeline(poll.getId(), "1m"));
+        assertEquals(turnout(counted, 3_600_000), pollManager.getVoteTimeline(poll.getId(), "1h"));
+        assertEquals(4, pollManager.getVoteTimeline(poll.getId(), "1h").values().stream().mapToInt(Integer::intValue).sum());
+
+        pollManager.deleteVote(first.getId());
+        counted.remove(first);
+        assertEquals(turnout(counted, 60_000), pollManager.getVoteTimeline(poll.getId(), "1m"));
+        assertThrows(IllegalArgumentException.class, () -> pollManager.getVoteTimeline(poll.getId(), "5m"));
+
+        pollManager.deletePoll(poll.getId());
+        assertTrue(pollManager.getVoteTimeline(poll.getId(), "1m").isEmpty());
+    }
+
+    @Test
+    public void testResultsAreServedFromL1UntilTheNextVote() {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager(PollManager.RESULTS_CACHE);
+        cacheManager.setCacheSpecification("maximumSize=100,recordStats");
+        ReflectionTestUtils.setField(pollManager, "cacheManager", cacheManager);
+        com.github.benmanes.caffeine.cache.Cache<?, ?> l1 = (com.github.benmanes.caffeine.cache.Cache<?, ?>)
+                cacheManager.getCache(PollManager.RESULTS_CACHE).getNativeCache();
+
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        Vote vote = pollManager.createVote(new Vote(alice, vim));
+
+        assertEquals(Map.of(vim.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        assertEquals(Map.of(vim.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        assertEquals(1, l1.stats().hitCount());
+
+        // Writes evict, the next read sees the new counts
+        pollManager.createVote(new Vote(alice, vim));
+        assertEquals(Map.of(vim.getId(), 2), pollManager.getVoteCountsForPoll(poll.getId()));
+        pollManager.deleteVote(vote.getId());
+        assertEquals(Map.of(vim.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        pollManager.deletePoll(poll.getId());
+        assertTrue(pollManager.getVoteCountsForPoll(poll.getId()).isEmpty());
+        assertEquals(1, l1.stats().hitCount());
+    }
+
+    @Test
+    public void testIndexesFollowCascades() {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll kept = pollManager.createPoll(new Poll("Kept?", alice));
+        Poll deleted = pollManager.createPoll(new Poll("Deleted?", alice));
+        VoteOption keptYes = pollManager.createVoteOption(new VoteOption("Yes", 0, kept));
+        VoteOption deletedYes = pollManager.createVoteOption(new VoteOption("Yes", 0, deleted));
+        Vote keptVote = pollManager.createVote(new Vote(alice, keptYes));
+        pollManager.createVote(new Vote(alice, deletedYes));
+
+        assertEquals(List.of(keptYes), pollManager.getVoteOptionsByPollId(kept.getId()));
+        assertEquals(List.of(keptVote.getId()), ids(pollManager.getVotesByOptionId(keptYes.getId())));
+
+        pollManager.deletePoll(deleted.getId());
+        assertTrue(pollManager.getVotesByPollId(deleted.getId()).isEmpty());
+        assertTrue(pollManager.getVoteOptionsByPollId(deleted.getId()).isEmpty());
+        assertTrue(pollManager.getVotesByOptionId(deletedYes.getId()).isEmpty());
+        assertEquals(List.of(keptVote.getId()), ids(pollManager.getVotesByPollId(kept.getId())));
+        assertEquals(List.of(keptVote.getId()), ids(pollManager.getAllVotes()));
+        assertEquals(List.of(keptVote.getId()), pollManager.findVotes(null, alice.getId(), null).map(Vote::getId).toList());
+
+        pollManager.deleteVote(keptVote.getId());
+        assertTrue(pollManager.getVotesByPollId(kept.getId()).isEmpty());
+        assertTrue(pollManager.getVotesByOptionId(keptYes.getId()).isEmpty());
+    }
+
+    @Test
+    public void testFindersFilterAndPageInIdOrder() {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        User bob = pollManager.createUser(new User("bob", "bob@example.com"));
+        Poll first = pollManager.createPoll(new Poll("First?", alice));
+        Poll second = pollManager.createPoll(new Poll("Second?", bob));
+        VoteOption a = pollManager.createVoteOption(new VoteOption("A", 0, first));
+        VoteOption b = pollManager.createVoteOption(new VoteOption("B", 0, second));
+        List<Long> aliceOnFirst = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            aliceOnFirst.add(pollManager.createVote(new Vote(alice, a)).getId());
+            pollManager.createVote(new Vote(bob, a));
+            pollManager.createVote(new Vote(alice, b));
+        }
+
+        assertEquals(List.of(second.getId()), pollManager.findPolls(bob.getId(), null).map(Poll::getId).toList());
+        assertEquals(List.of(b.getId()), pollManager.findVoteOptions(second.getId(), null).map(VoteOption::getId).toList());
+        assertEquals(10, pollManager.findVotes(null, alice.getId(), null).count());
+        assertEquals(aliceOnFirst, pollManager.findVotes(first.getId(), alice.getId(), null).map(Vote::getId).toList());
+
+        // Cursor: everything after the second of alice's votes on the first poll
+        assertEquals(aliceOnFirst.subList(2, 4),
+                pollManager.findVotes(first.getId(), alice.getId(), aliceOnFirst.get(1)).limit(2).map(Vote::getId).toList());
+        assertEquals(15, pollManager.findVotes(null, null, null).count());
+        assertEquals(List.of(bob.getId()), pollManager.findUsers(alice.getId()).map(User::getId).toList());
+    }
+
+    @Test
+    public void testBatchVotesReportOutcomePerEntry() {
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Tabs or spaces?", alice));
+        VoteOption tabs = pollManager.createVoteOption(new VoteOption("Tabs", 0, poll));
+        VoteOption spaces = pollManager.createVoteOption(new VoteOption("Spaces", 1, poll));
+        VoteOption missingOption = new VoteOption("Missing", 2, poll);
+        missingOption.setId(999L);
+        User missingUser = new User("ghost", "ghost@example.com");
+        missingUser.setId(999L);
+
+        List<VoteOutcome> outcomes = pollManager.createVotes(Arrays.asList(
+                new Vote(alice, tabs),
+                new Vote(alice, missingOption),
+                new Vote(missingUser, spaces),
+                null,
+                new Vote(alice, spaces),
+                new Vote(null, tabs)));
+
+        assertEquals(List.of(true, false, false, false, true, true), outcomes.stream().map(VoteOutcome::created).toList());
+        assertEquals("unknown vote option 999", outcomes.get(1).error());
+        assertEquals("unknown user 999", outcomes.get(2).error());
+        assertSame(alice, outcomes.get(0).vote().getUser());
+        assertEquals(Map.of(tabs.getId(), 2, spaces.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        assertEquals(3, pollManager.getVotesByPollId(poll.getId()).size());
+        assertEquals(2, pollManager.findVotes(null, alice.getId(), null).count());
+    }
+
+    @Test
+    public void testSingleVotePerPollReplacesThePreviousVote() {
+        InMemoryPollStore store = new InMemoryPollStore();
+        store.setSingleVotePerPoll(true);
+        pollManager = new PollManager(store, null);
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        VoteOption emacs = pollManager.createVoteOption(new VoteOption("Emacs", 1, poll));
+        Poll other = pollManager.createPoll(new Poll("Tabs or spaces?", alice));
+        VoteOption tabs = pollManager.createVoteOption(new VoteOption("Tabs", 0, other));
+
+        Vote first = pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVote(new Vote(alice, tabs));  // another poll: kept
+        Vote second = pollManager.createVote(new Vote(alice, emacs));
+        pollManager.createVote(new Vote(null, vim));  // anonymous: not limited
+        pollManager.createVote(new Vote(null, vim));
+        assertEquals(Map.of(vim.getId(), 2, emacs.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        assertTrue(pollManager.getAllVotes().stream().map(Vote::getId).noneMatch(first.getId()::equals));
+        assertEquals(2, pollManager.findVotes(null, alice.getId(), null).count());
+
+        // Within a batch the last vote wins
+        List<VoteOutcome> outcomes = pollManager.createVotes(List.of(new Vote(alice, vim), new Vote(alice, emacs)));
+        assertTrue(outcomes.stream().allMatch(VoteOutcome::created));
+        assertEquals(Map.of(vim.getId(), 2, emacs.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        assertEquals(List.of(outcomes.get(1).vote().getId()), pollManager.findVotes(poll.getId(), alice.getId(), null).map(Vote::getId).toList());
+        assertTrue(pollManager.getAllVotes().stream().map(Vote::getId).noneMatch(second.getId()::equals));
+
+        // Deleting the current vote lets the user vote again without replacing anything
+        pollManager.deleteVote(outcomes.get(1).vote().getId());
+        pollManager.createVote(new Vote(alice, vim));
+        assertEquals(Map.of(vim.getId(), 3), pollManager.getVoteCountsForPoll(poll.getId()));
+    }
+
+    @Test
+    public void testReplacingAVoteTellsTheListenerOnce() {
+        InMemoryPollStore store = new InMemoryPollStore();
+        store.setSingleVotePerPoll(true);
+        List<Map<Long, Integer>> calls = new ArrayList<>();
+        store.setListener(new PollStoreListener() {
+            @Override
+            public void talliesChanged(Long pollId, Map<Long, Integer> deltas, Map<Long, Integer> turnoutDeltas) {
+                calls.add(deltas);
+            }
+        });
+        User alice = store.createUser(new User("alice", "alice@example.com"));
+        Poll poll = store.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = store.createVoteOption(new VoteOption("Vim", 0, poll));
+        VoteOption emacs = store.createVoteOption(new VoteOption("Emacs", 1, poll));
+
+        store.createVote(new Vote(alice, vim));
+        store.createVote(new Vote(alice, emacs));  // replaces the vote for Vim
+        assertEquals(List.of(Map.of(vim.getId(), 1), Map.of(emacs.getId(), 1, vim.getId(), -1)), calls);
+    }
+
+    @Test
+    public void testSingleVotePerPollHoldsUnderConcurrentDoubleSubmits() throws Exception {
+        InMemoryPollStore store = new InMemoryPollStore();
+        store.setSingleVotePerPoll(true);
+        pollManager = new PollManager(store, null);
+        Poll poll = pollManager.createPoll(new Poll("Pineapple on pizza?", null));
+        List<VoteOption> options = List.of(
+                pollManager.createVoteOption(new VoteOption("Yes", 0, poll)),
+                pollManager.createVoteOption(new VoteOption("No", 1, poll)));
+        List<User> voters = new ArrayList<>();
+        for (int u = 0; u < 20; u++) {
+            voters.add(pollManager.createUser(new User("voter" + u, "voter" + u + "@example.com")));
+        }
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 2_000; i++) {  // every voter submits again and again, from every thread
+                    User voter = voters.get(random.nextInt(voters.size()));
+                    VoteOption option = options.get(random.nextInt(options.size()));
+                    if (random.nextBoolean()) {
+                        pollManager.createVote(new Vote(voter, option));
+                    } else {
+                        pollManager.createVotes(List.of(new Vote(voter, option), new Vote(voter, option)));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(voters.size(), pollManager.getVotesByPollId(poll.getId()).size());
+        for (User voter : voters) {
+            assertEquals(1, pollManager.findVotes(null, voter.getId(), null).count());
+        }
+        assertEquals(voters.size(), pollManager.getVoteCountsForPoll(poll.getId()).values().stream().mapToInt(Integer::intValue).sum());
+    }
+
+    @Test
+    public void testTalliesMatchVotesUnderConcurrentWriters() throws Exception {
+        Poll poll = pollManager.createPoll(new Poll("Pineapple on pizza?", null));
+        List<VoteOption> options = List.of(
+                pollManager.createVoteOption(new VoteOption("Yes", 0, poll)),
+                pollManager.createVoteOption(new VoteOption("No", 1, poll)),
+                pollManager.createVoteOption(new VoteOption("Don't care", 2, poll)));
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            User voter = pollManager.createUser(new User("voter" + t, "voter" + t + "@example.com"));
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                List<Long> mine = new ArrayList<>();
+                for (int i = 0; i < 5_000; i++) {
+                    if (!mine.isEmpty() && random.nextInt(3) == 0) {
+                        pollManager.deleteVote(mine.remove(random.nextInt(mine.size())));
+                    } else {
+                        VoteOption option = options.get(random.nextInt(options.size()));
+                        mine.add(pollManager.createVote(new Vote(voter, option)).getId());
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // Recount from the raw votes and compare with the running tallies
+        Map<Long, Integer> expected = new HashMap<>();
+        for (Vote vote : pollManager.getAllVotes()) {
+            expected.merge(vote.getVoteOption().getId(), 1, Integer::sum);
+        }
+        assertEquals(expected, pollManager.getVoteCountsForPoll(poll.getId()));
+    }
+
+    @Test
+    public void testStoreInvariantsUnderConcurrentCascades() throws Exception {
+        List<User> voters = new CopyOnWriteArrayList<>();
+        List<VoteOption> options = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            voters.add(pollManager.createUser(new User("voter" + i, "voter" + i + "@example.com")));
+        }
+        for (int i = 0; i < 4; i++) {
+            options.addAll(createPollWithOptions(voters.get(i)));
+        }
+
+        int writers = 8;
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // Writers hammer createVote/deleteVote, also on options whose poll is being deleted
+        for (int t = 0; t < writers; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                List<Long> mine = new ArrayList<>();
+                for (int i = 0; i < 20_000; i++) {
+                    if (!mine.isEmpty() && random.nextInt(3) == 0) {
+                        pollManager.deleteVote(mine.remove(random.nextInt(mine.size())));
+                    } else {
+                        User voter = voters.get(random.nextInt(voters.size()));
+                        VoteOption option = options.get(random.nextInt(options.size()));
+                        mine.add(pollManager.createVote(new Vote(voter, option)).getId());
+                    }
+                }
+            }));
+        }
+        // Meanwhile one thread keeps cascading: deleting users (with their polls) and polls
+        futures.add(executor.submit(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running.get()) {
+                if (random.nextBoolean()) {
+                    User victim = voters.get(random.nextInt(voters.size()));
+                    User replacement = pollManager.createUser(new User("voter", "voter@example.com"));
+                    voters.set(voters.indexOf(victim), replacement);
+                    pollManager.deleteUser(victim.getId());
+                    options.addAll(createPollWithOptions(replacement));
+                } else {
+                    List<Poll> polls = pollManager.getAllPolls();
+                    if (!polls.isEmpty()) {
+                        pollManager.deletePoll(polls.get(random.nextInt(polls.size())).getId());
+                    }
+                    options.addAll(createPollWithOptions(voters.get(random.nextInt(voters.size()))));
+                }
+            }
+        }));
+        for (int t = 0; t < writers; t++) {
+            futures.get(t).get();
+        }
+        running.set(false);
+        futures.get(writers).get();
+        executor.shutdown();
+
+        // 1. Every stored user's vote index holds exactly the stored votes linked to it
+        Map<Long, List<Long>> votesByUser = new HashMap<>();
+        for (Vote vote : pollManager.getAllVotes()) {
+            User stored = pollManager.getUser(vote.getUser().getId());
+            if (stored != null) {
+                assertSame(stored, vote.getUser(), "vote linked to a deleted user object");
+                votesByUser.computeIfAbsent(stored.getId(), id -> new ArrayList<>()).add(vote.getId());
+            }
+        }
+        for (User user : pollManager.getAllUsers()) {
+            assertEquals(new HashSet<>(votesByUser.getOrDefault(user.getId(), List.of())),
+                    new HashSet<>(pollManager.findVotes(null, user.getId(), null).map(Vote::getId).toList()));
+        }
+
+        // 2. Tallies of every remaining poll match a recount of its votes
+        Map<Long, Map<Long, Integer>> expected = new HashMap<>();
+        for (Poll poll : pollManager.getAllPolls()) {
+            expected.put(poll.getId(), new HashMap<>());
+        }
+        for (Vote vote : pollManager.getAllVotes()) {
+            Poll poll = vote.getVoteOption().getPoll();
+            if (poll != null && expected.containsKey(poll.getId())) {
+                expected.get(poll.getId()).merge(vote.getVoteOption().getId(), 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<Long, Map<Long, Integer>> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), pollManager.getVoteCountsForPoll(entry.getKey()));
+        }
+
+        // 3. The poll -> votes index lists exactly the counted votes of each poll
+        for (Map.Entry<Long, Map<Long, Integer>> entry : expected.entrySet()) {
+            int indexed = pollManager.getVotesByPollId(entry.getKey()).size();
+            assertEquals(entry.getValue().values().stream().mapToInt(Integer::intValue).sum(), indexed);
+        }
+
+        // 4. Deleted polls left no options behind
+        for (VoteOption option : pollManager.getAllVoteOptions()) {
+            assertSame(option.getPoll(), pollManager.getPoll(option.getPoll().getId()));
+        }
+    }
+
+    // Expected timeline: votes per bucket of their publishedAt
+    static Map<Long, Integer> turnout(List<Vote> votes, long bucketMillis) {
+        Map<Long, Integer> buckets = new TreeMap<>();
+        for (Vote vote : votes) {
+            buckets.merge(Long.parseLong(vote.getPublishedAt()) / bucketMillis * bucketMillis, 1, Integer::sum);
+        }
+        return buckets;
+    }
+
+    private void awaitClosed(Poll poll) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!pollManager.isClosed(poll.getId())) {
+            assertTrue(System.currentTimeMillis() < deadline, "poll not closed within 5s");
+            Thread.sleep(10);
+        }
+    }
+
+    static Poll withOptions(Poll poll, String... captions) {
+        poll.setVoteOptions(Arrays.stream(captions).map(caption -> new VoteOption(caption, 0, null)).toList());
+        return poll;
+    }
+
+    // Votes are built on every read, so they are compared by id
+    private static List<Long> ids(List<Vote> votes) {
+        return votes.stream().map(Vote::getId).toList();
+    }
+
+    private List<VoteOption> createPollWithOptions(User creator) {
+        Poll poll = pollManager.createPoll(new Poll("Question?", creator));
+        return List.of(
+                pollManager.createVoteOption(new VoteOption("A", 0, poll)),
+                pollManager.createVoteOption(new VoteOption("B", 1, poll)));
+    }
+}
@@ -0,0 +1,143 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PollResultsBroadcasterTest {
+    private static final Pattern COUNT = Pattern.compile("(\\d+)=(\\d+)");  // one option's count in an event's data
+
+    private PollManager pollManager;
+    private PollResultsBroadcaster broadcaster;
+    private User alice;
+    private Poll poll;
+    private VoteOption yes;
+    private VoteOption no;
+
+    // Remembers what it was asked to send (event fields as text, data as the object handed to Jackson)
+    private static class RecordingEmitter extends SseEmitter {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public synchronized void send(Set<DataWithMediaType> items) {
+            events.add(items.stream().map(d -> String.valueOf(d.getData())).collect(Collectors.joining()));
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        pollManager = new PollManager(null);
+        broadcaster = new PollResultsBroadcaster(pollManager); // ticks are driven by calling flush()
+        alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        poll = pollManager.createPoll(new Poll("Pineapple on pizza?", alice));
+        yes = pollManager.createVoteOption(new VoteOption("Yes", 0, poll));
+        no = pollManager.createVoteOption(new VoteOption("No", 1, poll));
+    }
+
+    @Test
+    public void testSnapshotThenCoalescedDeltas() {
+        pollManager.createVote(new Vote(alice, yes));
+        RecordingEmitter first = new RecordingEmitter();
+        RecordingEmitter second = new RecordingEmitter();
+        broadcaster.subscribe(poll.getId(), first);
+        broadcaster.subscribe(poll.getId(), second);
+        broadcaster.flush();
+        assertEquals(1, first.events.size());
+        assertTrue(first.events.get(0).contains("event:snapshot"));
+        assertTrue(first.events.get(0).contains(yes.getId() + "=1"));
+
+        // A burst of votes within one tick becomes a single delta per subscriber
+        for (int i = 0; i < 100; i++) {
+            pollManager.createVote(new Vote(alice, no));
+        }
+        broadcaster.flush();
+        for (RecordingEmitter emitter : List.of(first, second)) {
+            assertEquals(2, emitter.events.size());
+            String delta = emitter.events.get(1);
+            assertTrue(delta.contains("event:delta"));
+            assertTrue(delta.contains(no.getId() + "=100"));
+            assertTrue(!delta.contains(yes.getId() + "="), "unchanged option must not be resent");
+        }
+
+        // Nothing changed: nothing is pushed
+        broadcaster.flush();
+        assertEquals(2, first.events.size());
+    }
+
+    @Test
+    public void testSnapshotComesBeforeTheDeltasOfAConcurrentTick() throws Exception {
+        RecordingEmitter first = new RecordingEmitter();
+        broadcaster.subscribe(poll.getId(), first);
+        pollManager.createVote(new Vote(alice, no));
+        RecordingEmitter late = new RecordingEmitter() {
+            private boolean sending;
+
+            // While its snapshot is being sent: a vote, and a tick on another thread
+            @Override
+            public void send(Set<DataWithMediaType> items) {
+                if (!sending) {
+                    sending = true;
+                    pollManager.createVote(new Vote(alice, yes));
+                    Thread tick = new Thread(broadcaster::flush);
+                    tick.start();
+                    try {
+                        tick.join(200);  // it waits for the snapshot to be sent, so this times out
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.send(items);
+            }
+        };
+        broadcaster.subscribe(poll.getId(), late);
+        broadcaster.flush();
+
+        assertTrue(late.events.get(0).contains("event:snapshot"), late.events.get(0));
+        // Both subscribers, applying the deltas to what they had, end at the current counts
+        Map<Long, Integer> counts = pollManager.getVoteCountsForPoll(poll.getId());
+        assertEquals(counts, replay(first.events));
+        assertEquals(counts, replay(late.events));
+    }
+
+    @Test
+    public void testOtherPollsDoNotWakeSubscribers() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.subscribe(poll.getId(), emitter);
+        broadcaster.flush();
+
+        Poll other = pollManager.createPoll(new Poll("Other?", alice));
+        VoteOption otherYes = pollManager.createVoteOption(new VoteOption("Yes", 0, other));
+        pollManager.createVote(new Vote(alice, otherYes));
+        broadcaster.flush();
+        assertEquals(1, emitter.events.size());
+    }
+
+    // Counts a client ends up with after the events it was sent, options at 0 left out
+    private static Map<Long, Integer> replay(List<String> events) {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (String event : events) {
+            Matcher count = COUNT.matcher(event);
+            while (count.find()) {
+                counts.put(Long.parseLong(count.group(1)), Integer.parseInt(count.group(2)));
+            }
+        }
+        counts.values().removeIf(n -> n == 0);
+        return counts;
+    }
+}
@@ -0,0 +1,177 @@
+package com.Assigment5.DAT250Assigment5;
+
+import com.Assigment5.DAT250Assigment5.model.Poll;
+import com.Assigment5.DAT250Assigment5.model.User;
+import com.Assigment5.DAT250Assigment5.model.Vote;
+import com.Assigment5.DAT250Assigment5.model.VoteOption;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// InMemoryPollStore with a WriteAheadLog: what a restart recovers from the log and snapshots
+public class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private InMemoryPollStore store;
+    private WriteAheadLog log;
+    private PollManager pollManager;
+
+    @AfterEach
+    public void tearDown() {
+        stop();
+    }
+
+    @Test
+    public void testRestartRestoresEverythingWithTheSameIds() throws IOException {
+        start(WriteAheadLog.DEFAULT_SEGMENT_SIZE, 0);
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        User bob = pollManager.createUser(new User("bob", "bob@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        VoteOption emacs = pollManager.createVoteOption(new VoteOption("Emacs", 1, poll));
+        Poll bobsPoll = pollManager.createPoll(new Poll("Tabs or spaces?", bob));
+        VoteOption tabs = pollManager.createVoteOption(new VoteOption("Tabs", 0, bobsPoll));
+        Vote first = pollManager.createVote(new Vote(alice, vim));
+        pollManager.createVote(new Vote(bob, emacs));
+        pollManager.createVote(new Vote(alice, tabs));
+        pollManager.createVotes(List.of(new Vote(alice, emacs), new Vote(null, vim), new Vote(bob, vim)));
+        pollManager.deleteVote(first.getId());
+        pollManager.deleteUser(bob.getId());  // with his poll and his votes
+        String before = state();
+
+        restart(WriteAheadLog.DEFAULT_SEGMENT_SIZE, 0);
+        assertEquals(before, state());
+        assertEquals(Map.of(vim.getId(), 1, emacs.getId(), 1), pollManager.getVoteCountsForPoll(poll.getId()));
+        // Sequences continue after the ids handed out before the restart, deleted ones included
+        assertEquals(bob.getId() + 1, pollManager.createUser(new User("carol", "carol@example.com")).getId());
+        assertEquals(bobsPoll.getId() + 1, pollManager.createPoll(new Poll("Light or dark?", alice)).getId());
+    }
+
+    @Test
+    public void testSnapshotsReplaceTheSegmentsTheyCover() throws IOException {
+        start(4096, 2);  // small segments, so the votes below fill many of them
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        VoteOption emacs = pollManager.createVoteOption(new VoteOption("Emacs", 1, poll));
+        List<Vote> batch = new ArrayList<>();
+        for (int i = 0; i < 900; i++) {
+            batch.add(new Vote(alice, i % 3 == 0 ? emacs : vim));
+        }
+        pollManager.createVotes(batch);
+        log.snapshot();
+        assertEquals(1, files(".bin").size());
+        assertEquals(1, files(".log").size());  // only the one written to now
+
+        Vote after = pollManager.createVote(new Vote(alice, emacs));
+        pollManager.deleteVote(pollManager.getVotesByPollId(poll.getId()).get(0).getId());
+        String before = state();
+
+        restart(4096, 2);
+        assertEquals(before, state());
+        assertEquals(after.getId() + 1, pollManager.createVote(new Vote(alice, vim)).getId());
+    }
+
+    @Test
+    public void testSnapshotsKeepTheNodesOwnIds() throws IOException {
+        start(WriteAheadLog.DEFAULT_SEGMENT_SIZE, 0, 3);  // node 3 without Redis counts in its own range
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        Vote vote = pollManager.createVote(new Vote(alice, vim));
+        assertEquals(3, vote.getId() / IdSequence.NODE_RANGE);
+        pollManager.deleteVote(vote.getId());
+        log.snapshot();
+        assertEquals(1, files(".bin").size());
+
+        // The deleted vote is only in the snapshot's counters, no record after it names its id
+        restart(WriteAheadLog.DEFAULT_SEGMENT_SIZE, 0, 3);
+        assertEquals(vote.getId() + 1, pollManager.createVote(new Vote(alice, vim)).getId());
+    }
+
+    @Test
+    public void testTornRecordEndsTheLog() throws IOException {
+        start(WriteAheadLog.DEFAULT_SEGMENT_SIZE, 0);
+        User alice = pollManager.createUser(new User("alice", "alice@example.com"));
+        Poll poll = pollManager.createPoll(new Poll("Vim or Emacs?", alice));
+        VoteOption vim = pollManager.createVoteOption(new VoteOption("Vim", 0, poll));
+        pollManager.createVote(new Vote(alice, vim));
+        String before = state();
+        pollManager.createVote(new Vote(alice, vim));
+        stop();
+
+        // Corrupt the last record, as if the process died while it was being written
+        Path segment = files(".log").get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int last = 0;
+            for (int position = 0, length; (length = buffer.getInt(position)) != 0; position += 8 + length) {
+                last = position;
+            }
+            int lastByte = last + 8 + buffer.getInt(last) - 1;
+            buffer.put(lastByte, (byte) ~buffer.get(lastByte));
+        }
+
+        start(WriteAheadLog.DEFAULT_SEGMENT_SIZE, 0);
+        assertEquals(before, state());
+        assertEquals(1, pollManager.getVoteCountsForPoll(poll.getId()).get(vim.getId()));
+        assertEquals(2L, pollManager.createVote(new Vote(alice, vim)).getId());  // the lost vote's id is free again
+    }
+
+    private void start(int segmentSize, int snapshotEvery) throws IOException {
+        start(segmentSize, snapshotEvery, 0);
+    }
+
+    private void start(int segmentSize, int snapshotEvery, int idNode) throws IOException {
+        store = new InMemoryPollStore();
+        store.setIdNode(idNode, 1);
+        log = WriteAheadLog.open(dir, store, segmentSize, 0, snapshotEvery);
+        pollManager = new PollManager(store, null);
+    }
+
+    private void stop() {
+        if (pollManager != null) {
+            pollManager.close();
+            store.close();
+            pollManager = null;
+        }
+    }
+
+    private void restart(int segmentSize, int snapshotEvery) throws IOException {
+        restart(segmentSize, snapshotEvery, 0);
+    }
+
+    private void restart(int segmentSize, int snapshotEvery, int idNode) throws IOException {
+        stop();
+        start(segmentSize, snapshotEvery, idNode);
+    }
+
+    // Everything the list endpoints would return
+    private String state() throws IOException {
+        return objectMapper.writeValueAsString(List.of(pollManager.getAllUsers(), pollManager.getAllPolls(),
+                pollManager.getAllVoteOptions(), pollManager.getAllVotes()));
+    }
+
+    private List<Path> files(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.toString().endsWith(suffix)).sorted().toList();
+        }
+    }
+}
@@ -4,6 +4,7 @@ plugins {
     id("org.springframework.boot") version "3.5.5"             // Spring Boot plugin
     id("io.spring.dependency-management") version "1.1.7"      // Dependency mgmt
     id("com.github.node-gradle.node") version "7.0.2"          // Node plugin for frontend
+    id("me.champeau.jmh") version "0.7.2"                      // JMH benchmarks (src: backend/src/jmh)
 }
 
 // --- Project metadata --------------------------------------------------------
@@ -28,6 +29,9 @@ sourceSets {
         java.srcDirs("backend/src/test/java")                  // Test sources
         resources.srcDirs("backend/src/test/resources")        // Test resources
     }
+    named("jmh") {
+        java.srcDirs("backend/src/jmh/java")                   // Benchmark sources
+    }
 }
 
 // --- Repositories ------------------------------------------------------------
@@ -52,11 +56,18 @@ dependencies {
     implementation("org.hibernate.orm:hibernate-core:7.1.1.Final")
     implementation("jakarta.persistence:jakarta.persistence-api:3.2.0")
     implementation("com.h2database:h2:2.3.232")
+    implementation("org.hibernate.orm:hibernate-jcache:7.1.1.Final")        // second-level cache (polls.store=jpa)
+    implementation("com.github.ben-manes.caffeine:jcache")                  // JCache provider behind it
 
     // Redis dependencies (Assigment 5)
     implementation ("org.springframework.boot:spring-boot-starter-data-redis")
     implementation ("org.springframework.boot:spring-boot-starter-cache")
     implementation("redis.clients:jedis:6.2.0")
+
+    // In-process L1 cache for poll results + actuator endpoints for its statistics
+    implementation("com.github.ben-manes.caffeine:caffeine")
+    implementation("org.springframework.boot:spring-boot-starter-actuator")
+    implementation("io.micrometer:micrometer-registry-prometheus")         // /actuator/prometheus for the polls.* and http metrics
 }
 
 // --- Testing configuration ---------------------------------------------------
@@ -64,6 +75,26 @@ tasks.withType<Test> {
     useJUnitPlatform()
 }
 
+// --- Benchmarks (./gradlew jmh) ----------------------------------------------
+// Results go to build/results/jmh/results.json; narrow a run with e.g.
+// ./gradlew jmh -Pjmh.includes=ResultsReadBenchmark -Pjmh.votes=1000,100000
+jmh {
+    jmhVersion.set("1.37")
+    includeTests.set(true)                                     // FakeRedisServer stands in when no Redis runs
+    resultFormat.set("JSON")                                   // machine-readable, for regression checks
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    failOnError.set(true)
+    findProperty("jmh.includes")?.let { includes.set(listOf(it.toString())) }
+    findProperty("jmh.votes")?.let { benchmarkParameters.put("votes", listProperty(it.toString())) }
+}
+
+// The benchmark jar flattens all dependencies; keep their Java 21 classes (Spring's virtual-thread support) in use
+tasks.named<Jar>("jmhJar") {
+    manifest { attributes("Multi-Release" to "true") }
+}
+
+fun listProperty(value: String) = objects.listProperty(String::class.java).value(value.split(","))
+
 // --- Node.js frontend build integration --------------------------------------
 node {
     version.set("22.12.0")                                      // Node.js version